@@ -0,0 +1,118 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the time from [IperfRunner.start] to the first output line and to the first
+ * interval report of a short loopback test for every [IperfLaunchStrategy].
+ * Medians are written to the log with the [LOG_TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class IperfLaunchStrategyBenchmark {
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var server: IperfRunner
+
+    @Before
+    fun startServer() {
+        server = IperfRunner.Builder()
+            .launchStrategy(IperfLaunchStrategy.Spawn(context))
+            .build()
+        server.start("-s -p $PORT")
+        Thread.sleep(SERVER_START_MILLIS)
+    }
+
+    @After
+    fun stopServer() {
+        server.killAndWait()
+    }
+
+    @Test
+    fun fork() {
+        benchmark(IperfLaunchStrategy.Fork)
+    }
+
+    @Test
+    fun spawn() {
+        benchmark(IperfLaunchStrategy.Spawn(context))
+    }
+
+    @Test
+    fun worker() {
+        val worker = IperfWorker.getInstance(context)
+        worker.ensureStarted()
+        benchmark(IperfLaunchStrategy.Worker(worker))
+    }
+
+    private fun benchmark(launchStrategy: IperfLaunchStrategy) {
+        val firstLineMillis = DoubleArray(MEASURED_RUNS)
+        val firstIntervalMillis = DoubleArray(MEASURED_RUNS)
+        repeat(WARM_UP_RUNS) {
+            measure(launchStrategy)
+        }
+        for (run in 0 until MEASURED_RUNS) {
+            val (firstLine, firstInterval) = measure(launchStrategy)
+            firstLineMillis[run] = firstLine
+            firstIntervalMillis[run] = firstInterval
+        }
+
+        firstLineMillis.sort()
+        firstIntervalMillis.sort()
+        Log.i(
+            LOG_TAG,
+            "$launchStrategy: median time to first line ${firstLineMillis[MEASURED_RUNS / 2]} ms, " +
+                    "to first interval ${firstIntervalMillis[MEASURED_RUNS / 2]} ms"
+        )
+    }
+
+    /** @return milliseconds to the first output line and to the first interval report */
+    private fun measure(launchStrategy: IperfLaunchStrategy): Pair<Double, Double> {
+        var firstLineNanos = 0L
+        var firstIntervalNanos = 0L
+        val finished = CountDownLatch(1)
+        val client = IperfRunner.Builder()
+            .launchStrategy(launchStrategy)
+            .stdoutLinesHandler { line ->
+                val now = System.nanoTime()
+                if (firstLineNanos == 0L) {
+                    firstLineNanos = now
+                }
+                if (firstIntervalNanos == 0L && line.contains(BITS_PER_SECOND)) {
+                    firstIntervalNanos = now
+                }
+            }
+            .onFinishCallback { finished.countDown() }
+            .build()
+
+        val startNanos = System.nanoTime()
+        client.start("-c 127.0.0.1 -p $PORT -f b -i $INTERVAL_SECONDS -t $TEST_SECONDS")
+        assertTrue("$launchStrategy did not finish", finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        // output handlers have written the times before the process finish is reported
+        assertNotEquals("$launchStrategy printed no interval", 0L, firstIntervalNanos)
+        return Pair(
+            (firstLineNanos - startNanos) / NANOS_IN_MILLI,
+            (firstIntervalNanos - startNanos) / NANOS_IN_MILLI,
+        )
+    }
+
+    companion object {
+        private const val LOG_TAG = "IperfLaunchBenchmark"
+        private const val PORT = 5299
+        private const val SERVER_START_MILLIS = 500L
+        private const val INTERVAL_SECONDS = 0.1
+        private const val TEST_SECONDS = 0.3
+        private const val TIMEOUT_SECONDS = 10L
+        private const val WARM_UP_RUNS = 2
+        private const val MEASURED_RUNS = 9
+        private const val NANOS_IN_MILLI = 1_000_000.0
+        private const val BITS_PER_SECOND = "bits/sec"
+    }
+}
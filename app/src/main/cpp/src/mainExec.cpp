@@ -0,0 +1,266 @@
+#include <cerrno>
+#include <cstddef>
+#include <cstdint>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <csignal>
+#include <poll.h>
+#include <unistd.h>
+#include <sys/prctl.h>
+#include <sys/signalfd.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <sys/wait.h>
+
+// iPerf sources of the executable are compiled with main renamed to iperf_main
+#undef main
+
+int iperf_main(int argc, char **argv);
+
+static const char WORKER_OPTION[] = "--worker";
+static const char WORKER_READY_LINE[] = "ready\n";
+static const size_t MAX_REQUEST_SIZE = 4096;
+static const int MAX_REQUEST_FDS = 2;
+static const int MAX_ARGS = 256;
+static const int MAX_JOBS = 64;
+
+/** Job started by the worker, the wait status is sent to the connection on finish */
+struct WorkerJob {
+    int connection;
+    pid_t pid;
+};
+
+/** Running jobs, free slots have zero pid */
+static WorkerJob jobs[MAX_JOBS];
+static sigset_t childSignalMask;
+static int childSignalFd = -1;
+
+static int runIperf(int argc, char **argv)
+{
+    setbuf(stdout, nullptr);
+    setbuf(stderr, nullptr);
+
+    return iperf_main(argc, argv);
+}
+
+static void closeFds(const int* fds, int fdsCount)
+{
+    for (int i = 0; i < fdsCount; i++) {
+        close(fds[i]);
+    }
+}
+
+/**
+ * Receives a job request: arguments separated by zero bytes
+ * and stdout and stderr fds.
+ * @return size of the payload or -1 on error
+ */
+static ssize_t receiveRequest(int connection, char* payload, int* fds, int* fdsCount)
+{
+    char control[CMSG_SPACE(sizeof(int) * MAX_REQUEST_FDS)];
+    iovec iov{payload, MAX_REQUEST_SIZE - 1};
+    msghdr message{};
+    message.msg_iov = &iov;
+    message.msg_iovlen = 1;
+    message.msg_control = control;
+    message.msg_controllen = sizeof(control);
+
+    const ssize_t size = recvmsg(connection, &message, MSG_CMSG_CLOEXEC);
+    *fdsCount = 0;
+    for (cmsghdr* header = CMSG_FIRSTHDR(&message); header != nullptr; header = CMSG_NXTHDR(&message, header)) {
+        if (header->cmsg_level == SOL_SOCKET && header->cmsg_type == SCM_RIGHTS) {
+            const int count = static_cast<int>((header->cmsg_len - CMSG_LEN(0)) / sizeof(int));
+            memcpy(fds, CMSG_DATA(header), sizeof(int) * count);
+            *fdsCount = count;
+        }
+    }
+    if (size != -1) {
+        payload[size] = '\0';
+    }
+    return size;
+}
+
+/** Sends the wait statuses of all the finished jobs to their connections without blocking */
+static void reapJobs()
+{
+    int status = 0;
+    pid_t pid;
+    while ((pid = waitpid(-1, &status, WNOHANG)) > 0) {
+        for (WorkerJob& job : jobs) {
+            if (job.pid == pid) {
+                const auto status32 = static_cast<int32_t>(status);
+                send(job.connection, &status32, sizeof(status32), MSG_NOSIGNAL);
+                close(job.connection);
+                job.pid = 0;
+                break;
+            }
+        }
+    }
+}
+
+static WorkerJob* findFreeJob()
+{
+    for (WorkerJob& job : jobs) {
+        if (job.pid == 0) {
+            return &job;
+        }
+    }
+    return nullptr;
+}
+
+static void handleJob(int listenFd, int connection)
+{
+    char payload[MAX_REQUEST_SIZE];
+    int fds[MAX_REQUEST_FDS];
+    int fdsCount = 0;
+    const ssize_t size = receiveRequest(connection, payload, fds, &fdsCount);
+    if (size == -1 || fdsCount < 2) {
+        closeFds(fds, fdsCount);
+        close(connection);
+        return;
+    }
+
+    char* argv[MAX_ARGS + 1];
+    int argc = 0;
+    argv[argc++] = const_cast<char*>("iperf");
+    for (ssize_t offset = 0; offset < size && argc < MAX_ARGS; offset += strlen(payload + offset) + 1) {
+        argv[argc++] = payload + offset;
+    }
+    argv[argc] = nullptr;
+
+    WorkerJob* job = findFreeJob();
+    if (job == nullptr) {
+        const int64_t response = -static_cast<int64_t>(EAGAIN);
+        send(connection, &response, sizeof(response), MSG_NOSIGNAL);
+        closeFds(fds, fdsCount);
+        close(connection);
+        return;
+    }
+
+    const pid_t pid = fork();
+    if (pid == 0) {
+        // the forking thread is the main thread of the worker, so the job dies together with it
+        prctl(PR_SET_PDEATHSIG, SIGKILL);
+        if (getppid() == 1) {
+            _exit(EXIT_FAILURE);
+        }
+        sigprocmask(SIG_UNBLOCK, &childSignalMask, nullptr);
+        close(childSignalFd);
+        close(listenFd);
+        close(connection);
+        if (dup2(fds[0], STDOUT_FILENO) == -1 || dup2(fds[1], STDERR_FILENO) == -1) {
+            _exit(EXIT_FAILURE);
+        }
+        closeFds(fds, 2);
+        exit(runIperf(argc, argv));
+    }
+    const int error = errno;
+    closeFds(fds, fdsCount);
+
+    const int64_t response = pid == -1 ? -static_cast<int64_t>(error) : static_cast<int64_t>(pid);
+    if (send(connection, &response, sizeof(response), MSG_NOSIGNAL) == -1 || pid == -1) {
+        close(connection);
+        return;
+    }
+
+    job->connection = connection;
+    job->pid = pid;
+}
+
+/**
+ * @return false if the application has closed the worker stdin, i.e. it has exited
+ */
+static bool isApplicationAlive()
+{
+    char buffer[64];
+    ssize_t size;
+    while ((size = read(STDIN_FILENO, buffer, sizeof(buffer))) == -1 && errno == EINTR);
+    return size > 0;
+}
+
+/**
+ * Listens on the abstract unix socket for the job requests
+ * and forks a new iPerf process for each of them. Finished jobs are reaped
+ * in the same loop on SIGCHLD, so no thread is created per job.
+ * Worker exits when its stdin is closed, which happens when the application process exits.
+ * Death signal of the parent could not be used, as it is sent when the application
+ * thread which started the worker exits rather than the whole application.
+ */
+static int runWorker(const char* socketName)
+{
+    const int listenFd = socket(AF_UNIX, SOCK_SEQPACKET | SOCK_CLOEXEC, 0);
+    if (listenFd == -1) {
+        fprintf(stderr, "Could not create worker socket: %s\n", strerror(errno));
+        return EXIT_FAILURE;
+    }
+
+    sockaddr_un address{};
+    address.sun_family = AF_UNIX;
+    strncpy(address.sun_path + 1, socketName, sizeof(address.sun_path) - 2);
+    const auto addressLength = static_cast<socklen_t>(
+            offsetof(sockaddr_un, sun_path) + 1 + strlen(address.sun_path + 1)
+    );
+    if (bind(listenFd, reinterpret_cast<sockaddr*>(&address), addressLength) == -1
+            || listen(listenFd, SOMAXCONN) == -1) {
+        fprintf(stderr, "Could not listen worker socket: %s\n", strerror(errno));
+        return EXIT_FAILURE;
+    }
+
+    sigemptyset(&childSignalMask);
+    sigaddset(&childSignalMask, SIGCHLD);
+    sigprocmask(SIG_BLOCK, &childSignalMask, nullptr);
+    childSignalFd = signalfd(-1, &childSignalMask, SFD_NONBLOCK | SFD_CLOEXEC);
+    if (childSignalFd == -1) {
+        fprintf(stderr, "Could not watch worker jobs: %s\n", strerror(errno));
+        return EXIT_FAILURE;
+    }
+
+    fputs(WORKER_READY_LINE, stdout);
+    fflush(stdout);
+
+    pollfd pollFds[] = {
+            {listenFd, POLLIN, 0},
+            {STDIN_FILENO, POLLIN, 0},
+            {childSignalFd, POLLIN, 0},
+    };
+    while (true) {
+        if (poll(pollFds, sizeof(pollFds) / sizeof(pollFds[0]), -1) == -1) {
+            if (errno == EINTR) {
+                continue;
+            }
+            fprintf(stderr, "Could not poll worker socket: %s\n", strerror(errno));
+            return EXIT_FAILURE;
+        }
+
+        if (pollFds[1].revents != 0 && !isApplicationAlive()) {
+            return EXIT_SUCCESS;
+        }
+        if ((pollFds[2].revents & POLLIN) != 0) {
+            signalfd_siginfo info{};
+            while (read(childSignalFd, &info, sizeof(info)) > 0);
+            // signals are coalesced, so all the finished jobs are reaped at once
+            reapJobs();
+        }
+        if ((pollFds[0].revents & POLLIN) == 0) {
+            continue;
+        }
+        const int connection = accept4(listenFd, nullptr, nullptr, SOCK_CLOEXEC);
+        if (connection == -1) {
+            if (errno == EINTR || errno == ECONNABORTED) {
+                continue;
+            }
+            fprintf(stderr, "Could not accept worker connection: %s\n", strerror(errno));
+            return EXIT_FAILURE;
+        }
+        handleJob(listenFd, connection);
+    }
+}
+
+int main(int argc, char **argv)
+{
+    if (argc == 3 && strcmp(argv[1], WORKER_OPTION) == 0) {
+        return runWorker(argv[2]);
+    }
+    return runIperf(argc, argv);
+}
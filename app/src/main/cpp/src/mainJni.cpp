@@ -7,23 +7,19 @@
 #include <cstdlib>
 #include <cerrno>
 #include <cstring>
+#include <csignal>
+#include <pthread.h>
+#include <sys/syscall.h>
+#include <android/api-level.h>
 
-int main(int argc, char **argv);
+#ifndef __NR_pidfd_open
+#define __NR_pidfd_open 434
+#endif
 
-extern "C" JNIEXPORT int JNICALL
-Java_ru_scoltech_openran_speedtest_backend_IperfRunner_mkfifo(JNIEnv* env, jobject, jstring jPipePath)
-{
-    const char* pipePath = env->GetStringUTFChars(jPipePath, nullptr);
-    int code = mkfifo(pipePath, 0777);
-    env->ReleaseStringUTFChars(jPipePath, pipePath);
-    return code == -1 ? errno : 0;
-}
+/** Seccomp filter of the app processes kills them on pidfd_open before Android 12 */
+#define PIDFD_OPEN_MIN_API_LEVEL 31
 
-extern "C" JNIEXPORT int JNICALL
-Java_ru_scoltech_openran_speedtest_backend_IperfRunner_waitForProcessNoDestroy(__unused JNIEnv* env, jobject, jlong pid)
-{
-    return waitid(P_PID, static_cast<id_t>(pid), nullptr, WEXITED | WNOWAIT) == -1 ? errno : 0; // NOLINT(hicpp-signed-bitwise)
-}
+int main(int argc, char **argv);
 
 extern "C" JNIEXPORT int JNICALL
 Java_ru_scoltech_openran_speedtest_backend_IperfRunner_waitForProcess(__unused JNIEnv* env, jobject, jlong pid)
@@ -43,36 +39,120 @@ Java_ru_scoltech_openran_speedtest_backend_IperfRunner_sendSigKill(__unused JNIE
     return kill(static_cast<pid_t>(pid), SIGKILL) == -1 ? errno : 0;
 }
 
-int redirectFileToPipe(JNIEnv* env, jstring jPipePath, FILE* file)
+extern char** environ;
+
+void closePipe(const int pipeFds[2])
+{
+    if (pipeFds[0] != -1) {
+        close(pipeFds[0]);
+    }
+    if (pipeFds[1] != -1) {
+        close(pipeFds[1]);
+    }
+}
+
+/**
+ * Creates pipes for stdout, stderr and the exit pipe. All of them are close-on-exec.
+ * @return 0 on success, errno otherwise. On error all created pipes are closed.
+ */
+int openPipes(int stdoutPipeFds[2], int stderrPipeFds[2], int exitPipeFds[2])
+{
+    if (pipe2(stdoutPipeFds, O_CLOEXEC) == -1) {
+        return errno;
+    }
+    if (pipe2(stderrPipeFds, O_CLOEXEC) == -1) {
+        const int error = errno;
+        closePipe(stdoutPipeFds);
+        return error;
+    }
+    if (pipe2(exitPipeFds, O_CLOEXEC) == -1) {
+        const int error = errno;
+        closePipe(stdoutPipeFds);
+        closePipe(stderrPipeFds);
+        return error;
+    }
+    return 0;
+}
+
+/**
+ * Returns fd which becomes readable when the child exits.
+ * It is a pidfd if both Android (12+) and the kernel (Linux 5.3+) allow it, otherwise the read end
+ * of the exit pipe, which gets end of stream when the only write end held by the child is closed.
+ */
+int openExitFd(pid_t pid, const int exitPipeFds[2])
+{
+    close(exitPipeFds[1]);
+    if (android_get_device_api_level() < PIDFD_OPEN_MIN_API_LEVEL) {
+        return exitPipeFds[0];
+    }
+    const int pidFd = static_cast<int>(syscall(__NR_pidfd_open, pid, 0));
+    if (pidFd == -1) {
+        return exitPipeFds[0];
+    }
+    close(exitPipeFds[0]);
+    return pidFd;
+}
+
+/** Closes write ends in the parent and passes read ends, exit fd and pid to Java */
+void onChildStarted(
+        JNIEnv* env,
+        pid_t pid,
+        const int stdoutPipeFds[2],
+        const int stderrPipeFds[2],
+        const int exitPipeFds[2],
+        jintArray pipeFdsHolder,
+        jlongArray pidHolder
+)
 {
-    const char* pipePath = env->GetStringUTFChars(jPipePath, nullptr);
-    const int pipeFd = open(pipePath, O_WRONLY);
-    env->ReleaseStringUTFChars(jPipePath, pipePath);
+    close(stdoutPipeFds[1]);
+    close(stderrPipeFds[1]);
+    const jint pipeFds[3] = {stdoutPipeFds[0], stderrPipeFds[0], openExitFd(pid, exitPipeFds)};
+    env->SetIntArrayRegion(pipeFdsHolder, 0, 3, pipeFds);
+
+    const jlong pidValue = static_cast<jlong>(pid);
+    env->SetLongArrayRegion(pidHolder, 0, 1, &pidValue);
+}
 
-    if (pipeFd == -1 || dup2(pipeFd, fileno(file)) == -1 || fflush(file) == EOF) {
-        fprintf(stderr, "Could not open named pipe to redirect stream: %s", strerror(errno));
+void redirectFileToPipe(const int pipeFds[2], FILE* file)
+{
+    close(pipeFds[0]);
+    if (dup2(pipeFds[1], fileno(file)) == -1 || fflush(file) == EOF) {
+        fprintf(stderr, "Could not redirect stream to pipe: %s", strerror(errno));
         exit(EXIT_FAILURE);
     }
+    close(pipeFds[1]);
     setbuf(file, nullptr);
-    return pipeFd;
 }
 
 extern "C" JNIEXPORT int JNICALL
 Java_ru_scoltech_openran_speedtest_backend_IperfRunner_start(
         JNIEnv* env,
         jobject,
-        jstring jStdoutPipePath,
-        jstring jStderrPipePath,
         jobjectArray args,
+        jintArray pipeFdsHolder,
         jlongArray pidHolder
 )
 {
+    int stdoutPipeFds[2];
+    int stderrPipeFds[2];
+    int exitPipeFds[2];
+    const int pipesError = openPipes(stdoutPipeFds, stderrPipeFds, exitPipeFds);
+    if (pipesError != 0) {
+        return pipesError;
+    }
+
     pid_t pid = fork();
     if (pid == -1) {
-        return errno;
+        const int error = errno;
+        closePipe(stdoutPipeFds);
+        closePipe(stderrPipeFds);
+        closePipe(exitPipeFds);
+        return error;
     } else if (pid == 0) {
-        int stderrPipeFd = redirectFileToPipe(env, jStderrPipePath, stderr);
-        int stdoutPipeFd = redirectFileToPipe(env, jStdoutPipePath, stdout);
+        // write end of the exit pipe is kept open until the child exits
+        close(exitPipeFds[0]);
+        redirectFileToPipe(stderrPipeFds, stderr);
+        redirectFileToPipe(stdoutPipeFds, stdout);
 
         int argc = env->GetArrayLength(args) + 1;
         char** argv = new char *[argc];
@@ -89,14 +169,112 @@ Java_ru_scoltech_openran_speedtest_backend_IperfRunner_start(
             env->ReleaseStringUTFChars(jArg, argv[i + 1]);
         }
 
-        close(stdoutPipeFd);
-        close(stderrPipeFd);
+        fclose(stdout);
+        fclose(stderr);
         exit(EXIT_SUCCESS);
     }
 
-    auto* buffer = new jlong[1];
-    buffer[0] = static_cast<jlong>(pid);
-    env->SetLongArrayRegion(pidHolder, 0, 1, buffer);
-    delete[] buffer;
+    onChildStarted(env, pid, stdoutPipeFds, stderrPipeFds, exitPipeFds, pipeFdsHolder, pidHolder);
+    return 0;
+}
+
+/** Copies Java strings, so that the child does not need JNI */
+char** newArgv(JNIEnv* env, const char* argv0, jobjectArray args)
+{
+    const int argc = env->GetArrayLength(args) + 1;
+    auto argv = new char*[argc + 1];
+    argv[0] = strdup(argv0);
+    for (int i = 0; i < argc - 1; i++) {
+        auto jArg = (jstring) (env->GetObjectArrayElement(args, i));
+        const char* arg = env->GetStringUTFChars(jArg, nullptr);
+        argv[i + 1] = strdup(arg);
+        env->ReleaseStringUTFChars(jArg, arg);
+        env->DeleteLocalRef(jArg);
+    }
+    argv[argc] = nullptr;
+    return argv;
+}
+
+void deleteStrings(char** strings)
+{
+    for (int i = 0; strings[i] != nullptr; i++) {
+        free(strings[i]);
+    }
+    delete[] strings;
+}
+
+/**
+ * Runs in the vfork child, so only async-signal-safe functions are called
+ * and the function never returns.
+ */
+void execInChild(
+        const char* executablePath,
+        char** argv,
+        const int stdoutPipeFds[2],
+        const int stderrPipeFds[2],
+        const int exitPipeFds[2]
+)
+{
+    if (dup2(stdoutPipeFds[1], STDOUT_FILENO) == -1 || dup2(stderrPipeFds[1], STDERR_FILENO) == -1) {
+        _exit(EXIT_FAILURE);
+    }
+    // exit pipe is created after stdout and stderr pipes, so its fds never clash with the redirected ones
+    fcntl(exitPipeFds[1], F_SETFD, 0);
+
+    sigset_t emptySet;
+    sigemptyset(&emptySet);
+    sigprocmask(SIG_SETMASK, &emptySet, nullptr);
+
+    execve(executablePath, argv, environ);
+
+    const char message[] = "Could not execute iperf executable\n";
+    write(STDERR_FILENO, message, sizeof(message) - 1);
+    _exit(127);
+}
+
+extern "C" JNIEXPORT int JNICALL
+Java_ru_scoltech_openran_speedtest_backend_IperfRunner_spawn(
+        JNIEnv* env,
+        jobject,
+        jstring jExecutablePath,
+        jobjectArray args,
+        jintArray pipeFdsHolder,
+        jlongArray pidHolder
+)
+{
+    int stdoutPipeFds[2];
+    int stderrPipeFds[2];
+    int exitPipeFds[2];
+    const int pipesError = openPipes(stdoutPipeFds, stderrPipeFds, exitPipeFds);
+    if (pipesError != 0) {
+        return pipesError;
+    }
+
+    const char* executablePath = env->GetStringUTFChars(jExecutablePath, nullptr);
+    char** argv = newArgv(env, executablePath, args);
+
+    sigset_t allSignals;
+    sigset_t previousMask;
+    sigfillset(&allSignals);
+    pthread_sigmask(SIG_SETMASK, &allSignals, &previousMask);
+
+    pid_t pid = vfork();
+    if (pid == 0) {
+        execInChild(executablePath, argv, stdoutPipeFds, stderrPipeFds, exitPipeFds);
+    }
+    const int error = errno;
+
+    pthread_sigmask(SIG_SETMASK, &previousMask, nullptr);
+    env->ReleaseStringUTFChars(jExecutablePath, executablePath);
+    deleteStrings(argv);
+
+    if (pid == -1) {
+        closePipe(stdoutPipeFds);
+        closePipe(stderrPipeFds);
+        closePipe(exitPipeFds);
+        return error;
+    }
+
+    onChildStarted(env, pid, stdoutPipeFds, stderrPipeFds, exitPipeFds, pipeFdsHolder, pidHolder);
     return 0;
 }
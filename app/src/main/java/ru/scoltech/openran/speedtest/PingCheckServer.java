@@ -3,40 +3,207 @@ package ru.scoltech.openran.speedtest;
 import android.util.Log;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP echo reflector for the {@link ru.scoltech.openran.speedtest.backend.UdpPinger}.
+ * <p>
+ * Workers share one {@link DatagramChannel} and reuse their direct buffers, so nothing
+ * is allocated per packet except the client address. While one worker sends a reply,
+ * another one is already receiving the next packet. Packets, bytes and drops are counted
+ * per client, and clients idle for longer than the timeout are evicted by the first worker.
+ * Server could be benchmarked on loopback by pinging {@code 127.0.0.1}.
+ */
+public class PingCheckServer {
+    public static final int DEFAULT_WORKER_COUNT = 2;
+    public static final long DEFAULT_CLIENT_IDLE_TIMEOUT_MILLIS = 60_000;
+    private static final String LOG_TAG = "PingCheckServer";
+    private static final int BUFFER_SIZE = 2048;
+    private static final long NANOS_IN_MILLI = 1_000_000;
 
-public class PingCheckServer extends Thread {
     private final int port;
-    volatile private DatagramSocket serverSocket;
-    final private int BUFFER_SIZE = 1024;
+    private final int workerCount;
+    private final long clientIdleTimeoutNanos;
+    private final Map<SocketAddress, ClientCounters> clients = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private DatagramChannel channel;
+    private Thread[] workers;
+
     public PingCheckServer(int port) {
-        super();
+        this(port, DEFAULT_WORKER_COUNT);
+    }
+
+    public PingCheckServer(int port, int workerCount) {
+        this(port, workerCount, DEFAULT_CLIENT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public PingCheckServer(int port, int workerCount, long clientIdleTimeoutMillis) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count should be positive, but was " + workerCount);
+        }
+        if (clientIdleTimeoutMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Client idle timeout should not be negative, but was " + clientIdleTimeoutMillis
+            );
+        }
         this.port = port;
+        this.workerCount = workerCount;
+        this.clientIdleTimeoutNanos = clientIdleTimeoutMillis * NANOS_IN_MILLI;
     }
 
-    @Override
-    public void run() {
-        try (DatagramSocket serverSocket = new DatagramSocket(port)) {
-            this.serverSocket = serverSocket;
-            byte[] inputBuffer = new byte[BUFFER_SIZE];
-            while (!isInterrupted()) {
-                DatagramPacket inputPacket = new DatagramPacket(inputBuffer, BUFFER_SIZE);
-                serverSocket.receive(inputPacket);
-                InetAddress clientAddress = inputPacket.getAddress();
-                int clientPort = inputPacket.getPort();
-                serverSocket.send(new DatagramPacket(inputPacket.getData(), inputPacket.getLength(), clientAddress, clientPort));
+    /**
+     * @throws IOException if the port could not be bound.
+     * @throws IllegalStateException if the server is already started.
+     */
+    public void start() throws IOException {
+        synchronized (lock) {
+            if (channel != null) {
+                throw new IllegalStateException("Server is already started");
+            }
+            DatagramChannel createdChannel = DatagramChannel.open();
+            try {
+                createdChannel.bind(new InetSocketAddress(port));
+            } catch (IOException e) {
+                createdChannel.close();
+                throw e;
+            }
+
+            channel = createdChannel;
+            workers = new Thread[workerCount];
+            for (int i = 0; i < workerCount; i++) {
+                boolean evicting = i == 0;
+                workers[i] = new Thread(() -> reflect(createdChannel, evicting), LOG_TAG + "-" + i);
+                workers[i].start();
             }
-        } catch (IOException e) {
-            
-            Log.d("", "the server has been stopped");
         }
     }
 
-    @Override
-    public void interrupt() {
-        super.interrupt();
-        serverSocket.close();
+    /** Closes the socket and waits for the workers to finish */
+    public void stop() throws InterruptedException {
+        Thread[] stoppedWorkers;
+        synchronized (lock) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not close the socket", e);
+            }
+            channel = null;
+            stoppedWorkers = workers;
+            workers = null;
+        }
+
+        for (Thread worker : stoppedWorkers) {
+            worker.join();
+        }
+        Log.d(LOG_TAG, "the server has been stopped");
+    }
+
+    public boolean isRunning() {
+        synchronized (lock) {
+            return channel != null;
+        }
+    }
+
+    /**
+     * @return live view of the counters, which are kept across the restarts
+     * until reset or until the client is idle for longer than the timeout.
+     */
+    public Map<SocketAddress, ClientCounters> getClientCounters() {
+        return Collections.unmodifiableMap(clients);
+    }
+
+    public void resetClientCounters() {
+        clients.clear();
+    }
+
+    private void reflect(DatagramChannel channel, boolean evicting) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long lastEvictionNanos = System.nanoTime();
+        while (channel.isOpen()) {
+            buffer.clear();
+            SocketAddress client;
+            try {
+                client = channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // a single broken packet should not stop the server
+                Log.w(LOG_TAG, "Could not receive a packet", e);
+                continue;
+            }
+
+            long now = System.nanoTime();
+            if (evicting && now - lastEvictionNanos >= clientIdleTimeoutNanos) {
+                evictIdleClients(now);
+                lastEvictionNanos = now;
+            }
+
+            buffer.flip();
+            int size = buffer.remaining();
+            ClientCounters counters = clients.get(client);
+            if (counters == null) {
+                counters = clients.computeIfAbsent(client, address -> new ClientCounters());
+            }
+            counters.lastSeenNanos = now;
+            counters.packets.incrementAndGet();
+            counters.bytes.addAndGet(size);
+
+            try {
+                if (channel.send(buffer, client) == 0) {
+                    counters.drops.incrementAndGet();
+                }
+            } catch (ClosedChannelException e) {
+                counters.drops.incrementAndGet();
+                return;
+            } catch (IOException e) {
+                counters.drops.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Packets of the client that arrive during its eviction could be missed by the counters,
+     * which is negligible as the client has been idle for the whole timeout before.
+     */
+    private void evictIdleClients(long now) {
+        clients.values().removeIf(counters -> now - counters.lastSeenNanos > clientIdleTimeoutNanos);
+    }
+
+    /** Counters of the packets received from a single client */
+    public static final class ClientCounters {
+        private volatile long lastSeenNanos;
+        private final AtomicLong packets = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong drops = new AtomicLong();
+
+        public long getPackets() {
+            return packets.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /** Packets which could not be sent back */
+        public long getDrops() {
+            return drops.get();
+        }
+
+        @Override
+        public String toString() {
+            return "ClientCounters(packets=" + getPackets() + ", bytes=" + getBytes()
+                    + ", drops=" + getDrops() + ")";
+        }
     }
 }
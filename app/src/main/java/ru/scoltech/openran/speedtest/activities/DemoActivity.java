@@ -63,6 +63,7 @@ public class DemoActivity extends AppCompatActivity {
     private DownloadUploadSpeedTestManager speedTestManager;
 
     private final static int TASK_DELAY = 2500;
+    private final static long MICROS_IN_MILLI = 1000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -166,7 +167,8 @@ public class DemoActivity extends AppCompatActivity {
 
         // TODO split on methods
         speedTestManager = new DownloadUploadSpeedTestManager.Builder(this)
-                .onPingUpdate((ping) -> runOnUiThread(() -> mCard.setPing((int) ping)))
+                .onPingUpdate((statistics) -> runOnUiThread(() ->
+                        mCard.setPing((int) (statistics.getMedianRttMicros() / MICROS_IN_MILLI))))
                 .onDownloadStart(() -> runOnUiThread(() -> {
                     mCard.setInstantSpeed(0, 0);
 
@@ -180,7 +182,7 @@ public class DemoActivity extends AppCompatActivity {
                     //animation
                     cWave.attachSpeed(instSpeed.first);
                 }))
-                .onDownloadFinish((statistics) -> runOnUiThread(() -> {
+                .onDownloadFinish((statistics, stopReason) -> runOnUiThread(() -> {
                     mSubResults.setDownloadSpeed(getSpeedString(sm.getAverageSpeed(statistics)));
                     cWave.stop();
                 }))
@@ -198,7 +200,7 @@ public class DemoActivity extends AppCompatActivity {
                     //animation
                     cWave.attachSpeed(instSpeed.first);
                 }))
-                .onUploadFinish((statistics) -> runOnUiThread(() -> {
+                .onUploadFinish((statistics, stopReason) -> runOnUiThread(() -> {
                     cWave.stop();
                     mSubResults.setUploadSpeed(getSpeedString(sm.getAverageSpeed(statistics)));
                 }))
@@ -10,6 +10,8 @@ import kotlinx.coroutines.*
 import ru.scoltech.openran.speedtest.*
 import ru.scoltech.openran.speedtest.backend.*
 import ru.scoltech.openran.speedtest.databinding.ActivityDevBinding
+import ru.scoltech.openran.speedtest.domain.UdpPingStatistics
+import java.io.IOException
 import java.net.*
 
 class DevActivity : AppCompatActivity() {
@@ -18,10 +20,10 @@ class DevActivity : AppCompatActivity() {
     lateinit var binding: ActivityDevBinding
     lateinit var iperfRunner: IperfRunner
 
-    @Volatile
-    private lateinit var pcs: PingCheckServer
+    private val pcs = PingCheckServer(ApplicationConstants.PING_SERVER_UDP_PORT)
 
     val icmpPinger = IcmpPinger()
+    private val udpPinger = UdpPinger()
 
     private lateinit var pingByUDPButtonDispatcher: RunForShortTimeButtonDispatcher
     private lateinit var pingServerButtonDispatcher: ButtonDispatcherOfTwoStates
@@ -39,7 +41,8 @@ class DevActivity : AppCompatActivity() {
 
         refreshAddresses()
 
-        iperfRunner = IperfRunner.Builder(applicationContext.filesDir.absolutePath)
+        iperfRunner = IperfRunner.Builder()
+            .launchStrategy(IperfLaunchStrategy.Spawn(applicationContext))
             .stdoutLinesHandler(this::handleIperfLines)
             .stderrLinesHandler(this::handleIperfLines)
             .build()
@@ -157,36 +160,49 @@ class DevActivity : AppCompatActivity() {
     private fun startPingCheckServer() {
         binding.pingServerButton.text = getString(R.string.bigStop)
         CoroutineScope(Dispatchers.IO).launch {
-            pcs = PingCheckServer(ApplicationConstants.PING_SERVER_UDP_PORT)
-            pcs.start()
+            try {
+                pcs.start()
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Could not start ping server", e)
+            } catch (e: IllegalStateException) {
+                Log.w(LOG_TAG, "Ping server is already started", e)
+            }
         }
     }
 
     private fun stopPingServer() {
-        CoroutineScope(Dispatchers.Main).launch {
-            Log.d("ping server", "pcs thread is alive: ${pcs.isAlive}")
-            if (pcs.isAlive) {
-                pcs.interrupt()
-            }
-            Log.d("ping server:", "pcs thread is alive: ${pcs.isAlive}")
+        CoroutineScope(Dispatchers.IO).launch {
+            pcs.stop()
+            Log.d("ping server", "clients: ${pcs.clientCounters}")
         }
     }
 
-    private fun pingUDPButtonAction(afterWorkAct: () -> Unit) = runBlocking {
-        val pcl = UdpPingCheckClient()
+    private fun pingUDPButtonAction(afterWorkAct: () -> Unit) {
         Log.d("pingTestButtonAction", "started")
-        CoroutineScope(Dispatchers.IO).launch {
-            pcl.doPingTest(
-                { value: String ->
-                    runOnUiThread {
-                        binding.pingValue.text = value
-                    }
-                },
-                binding.serverIP.text.toString()
-            )
-            afterWorkAct()
-            Log.d("pingTestButtonAction", "ended")
+        udpPinger.start(
+            binding.serverIP.text.toString(),
+            ApplicationConstants.PING_SERVER_UDP_PORT,
+            UDP_PING_COUNT,
+            UDP_PING_INTERVAL_MILLIS,
+        ) {
+            val medianMicros = it.getRttPercentileMicros(UdpPingStatistics.P50)
+            runOnUiThread {
+                binding.pingValue.text = String.format("%.2f", medianMicros / MICROS_IN_MILLI)
+            }
         }
+            .onSuccess {
+                Log.d("pingTestButtonAction", "ended: $it")
+                if (it.received == 0L) {
+                    runOnUiThread { binding.pingValue.text = "Error" }
+                }
+                afterWorkAct()
+            }
+            .onError {
+                Log.e(LOG_TAG, "UDP ping failed", it)
+                runOnUiThread { binding.pingValue.text = "Error" }
+                afterWorkAct()
+            }
+            .start()
     }
 
 
@@ -204,7 +220,8 @@ class DevActivity : AppCompatActivity() {
         Log.d("interfaces", info)
     }
 
-    private fun handleIperfLines(text: String) {
+    private fun handleIperfLines(line: CharSequence) {
+        val text = line.toString()
         runOnUiThread {
             binding.iperfOutput.append(text)
             binding.iperfOutput.append(System.lineSeparator())
@@ -245,7 +262,7 @@ class DevActivity : AppCompatActivity() {
         icmpPinger.start(binding.serverIP.text.toString())
             .onSuccess {
                 runOnUiThread {
-                    binding.pingValue.text = it.toString()
+                    binding.pingValue.text = String.format("%.3f", it / MICROS_IN_MILLI)
                 }
             }
             .onError {
@@ -257,5 +274,8 @@ class DevActivity : AppCompatActivity() {
 
     companion object {
         private const val LOG_TAG = "DevActivity"
+        private const val MICROS_IN_MILLI = 1000.0
+        private const val UDP_PING_COUNT = 30
+        private const val UDP_PING_INTERVAL_MILLIS = 100L
     }
 }
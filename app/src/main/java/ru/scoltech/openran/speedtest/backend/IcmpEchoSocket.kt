@@ -0,0 +1,104 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants.AF_INET
+import android.system.OsConstants.AF_INET6
+import android.system.OsConstants.EINTR
+import android.system.OsConstants.IPPROTO_ICMP
+import android.system.OsConstants.IPPROTO_ICMPV6
+import android.system.OsConstants.POLLIN
+import android.system.OsConstants.SOCK_DGRAM
+import android.system.StructPollfd
+import java.io.Closeable
+import java.io.FileDescriptor
+import java.net.Inet6Address
+import java.net.InetAddress
+
+/**
+ * Unprivileged ICMP echo socket (`SOCK_DGRAM` with `IPPROTO_ICMP`).
+ *
+ * Kernel fills the identifier and the checksum of the sent requests
+ * and delivers only the replies to this socket without IP header.
+ * Buffers are reused, so sending and receiving do not allocate. Instances are not thread safe.
+ */
+internal class IcmpEchoSocket(private val address: InetAddress) : Closeable {
+    private val isIpv6 = address is Inet6Address
+    private val fd: FileDescriptor = Os.socket(
+        if (isIpv6) AF_INET6 else AF_INET,
+        SOCK_DGRAM,
+        if (isIpv6) IPPROTO_ICMPV6 else IPPROTO_ICMP,
+    )
+    private val request = ByteArray(HEADER_SIZE + PAYLOAD_SIZE).apply {
+        this[TYPE_OFFSET] = if (isIpv6) ICMPV6_ECHO_REQUEST else ICMP_ECHO_REQUEST
+    }
+    private val reply = ByteArray(MAX_REPLY_SIZE)
+    private val pollFds = arrayOf(StructPollfd().also {
+        it.fd = fd
+        it.events = POLLIN.toShort()
+    })
+
+    /**
+     * @throws ErrnoException if the request could not be sent.
+     * @throws java.net.SocketException if the destination is unreachable.
+     */
+    fun send(sequence: Int) {
+        request[SEQUENCE_OFFSET] = (sequence shr Byte.SIZE_BITS).toByte()
+        request[SEQUENCE_OFFSET + 1] = sequence.toByte()
+        Os.sendto(fd, request, 0, request.size, 0, address, 0)
+    }
+
+    /**
+     * Waits for an echo reply at most [timeoutMillis].
+     *
+     * @return sequence number of the reply or [NO_REPLY] if there is no reply
+     * or some other message is received.
+     * @throws ErrnoException if the socket could not be read.
+     */
+    fun receive(timeoutMillis: Int): Int {
+        pollFds[0].revents = 0
+        try {
+            if (Os.poll(pollFds, timeoutMillis) == 0) {
+                return NO_REPLY
+            }
+        } catch (e: ErrnoException) {
+            if (e.errno == EINTR) {
+                return NO_REPLY
+            }
+            throw e
+        }
+
+        val size = Os.recvfrom(fd, reply, 0, reply.size, 0, null)
+        val replyType = if (isIpv6) ICMPV6_ECHO_REPLY else ICMP_ECHO_REPLY
+        if (size < HEADER_SIZE || reply[TYPE_OFFSET] != replyType) {
+            return NO_REPLY
+        }
+        return ((reply[SEQUENCE_OFFSET].toInt() and 0xFF) shl Byte.SIZE_BITS) or
+                (reply[SEQUENCE_OFFSET + 1].toInt() and 0xFF)
+    }
+
+    override fun close() {
+        try {
+            Os.close(fd)
+        } catch (e: ErrnoException) {
+            // socket is unusable anyway
+        }
+    }
+
+    companion object {
+        const val NO_REPLY = -1
+        const val MAX_SEQUENCE = 0xFFFF
+
+        private const val ICMP_ECHO_REQUEST: Byte = 8
+        private const val ICMP_ECHO_REPLY: Byte = 0
+        private const val ICMPV6_ECHO_REQUEST: Byte = -128  // 128
+        private const val ICMPV6_ECHO_REPLY: Byte = -127  // 129
+        private const val TYPE_OFFSET = 0
+        private const val SEQUENCE_OFFSET = 6
+        private const val HEADER_SIZE = 8
+
+        /** Same as the default payload of the ping utility */
+        private const val PAYLOAD_SIZE = 56
+        private const val MAX_REPLY_SIZE = 1500
+    }
+}
@@ -1,20 +1,30 @@
 package ru.scoltech.openran.speedtest.backend
 
+import android.system.ErrnoException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import ru.scoltech.openran.speedtest.util.IdleTaskKiller
+import ru.scoltech.openran.speedtest.domain.PingStatistics
 import ru.scoltech.openran.speedtest.util.Promise
 import java.io.DataOutputStream
 import java.io.IOException
 import java.io.InputStreamReader
 import java.lang.Exception
-import java.util.concurrent.atomic.AtomicBoolean
+import java.net.InetAddress
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
+/**
+ * ICMP echo pinger.
+ *
+ * Echo requests are sent directly through the [IcmpEchoSocket], so neither a process
+ * is spawned nor its output is parsed. Round trip times are measured
+ * with the monotonic clock and reported in microseconds.
+ * Only [startRaw] runs the `ping` utility to show its output as is.
+ */
 class IcmpPinger {
     private var process: Process? = null
+    private var session: Session? = null
     private val lock = ReentrantLock()
 
     private fun ping(
@@ -40,6 +50,7 @@ class IcmpPinger {
         }
     }
 
+    /** Runs the `ping` utility with the given arguments and passes its output lines */
     fun startRaw(host: String, args: String = ""): Promise<(String) -> Unit, (Exception) -> Unit> {
         return Promise { onNewLine, onError ->
             val createdProcess = lock.withLock {
@@ -65,64 +76,198 @@ class IcmpPinger {
         }
     }
 
+    /** Pings the host every second until stop and passes round trip times in microseconds */
     fun start(host: String): Promise<(Long) -> Unit, (Exception) -> Unit> {
         return Promise { onPingUpdate, onError ->
-            startRaw(host)
-                .onSuccess { line ->
-                    pingRegex.matchEntire(line)?.let { matchResult ->
-                        matchResult.groupValues[1].toLongOrNull()?.let {
-                            onPingUpdate?.invoke(it)
-                        }
-                    }
-                }
-                .onError(onError ?: {})
-                .start()
+            startSession(
+                host,
+                Int.MAX_VALUE,
+                DEFAULT_INTERVAL_MILLIS,
+                DEFAULT_INTERVAL_MILLIS,
+                NO_DEADLINE,
+                {},
+                onPingUpdate ?: {},
+                {},
+                onError ?: {},
+            )
+        }
+    }
+
+    /**
+     * Sends at most [count] echo requests every [intervalMillis] and collects their statistics.
+     * Statistics are passed to [onUpdate] after every reply and to the promise success callback
+     * when all the requests are sent and the last one is answered or timed out,
+     * or when the [deadlineMillis] is reached.
+     * The same instance is passed every time, so it should be copied to be used later.
+     */
+    fun burst(
+        host: String,
+        count: Int,
+        intervalMillis: Long,
+        deadlineMillis: Long,
+        onUpdate: (PingStatistics) -> Unit = {},
+    ): Promise<(PingStatistics) -> Unit, (Exception) -> Unit> {
+        return Promise { onFinish, onError ->
+            val statistics = PingStatistics(count)
+            startSession(
+                host,
+                count,
+                intervalMillis,
+                DEFAULT_REPLY_TIMEOUT_MILLIS,
+                deadlineMillis,
+                { statistics.onSent() },
+                {
+                    statistics.onReply(it)
+                    onUpdate(statistics)
+                },
+                { onFinish?.invoke(statistics) },
+                onError ?: {},
+            )
         }
     }
 
+    /** Passes round trip time of a single echo request in microseconds */
     fun pingOnce(host: String, timeoutMillis: Long): Promise<(Long) -> Unit, (Exception) -> Unit> {
         return Promise { onSuccess, onError ->
-            val success = AtomicBoolean(false)
-            val timedOut = AtomicBoolean(false)
-            val timeoutKiller = IdleTaskKiller()
-
-            lock.withLock {
-                start(host)
-                    .onSuccess {
-                        onSuccess?.invoke(it)
-                        success.set(true)
-                        stop()
-                        lock.withLock(timeoutKiller::unregisterBlocking)
+            var rtt: Long? = null
+            startSession(
+                host,
+                1,
+                timeoutMillis,
+                timeoutMillis,
+                NO_DEADLINE,
+                {},
+                { rtt = it },
+                {
+                    val receivedRtt = rtt
+                    if (receivedRtt != null) {
+                        onSuccess?.invoke(receivedRtt)
+                    } else {
+                        onError?.invoke(IOException("Timed out"))
                     }
-                    .onError {
-                        if (!success.get()) {
-                            if (timedOut.get()) {
-                                onError?.invoke(IOException("Timed out"))
-                            } else {
-                                onError?.invoke(it)
-                            }
-                        }
-                        lock.withLock(timeoutKiller::unregisterBlocking)
-                    }
-                    .start()
-                timeoutKiller.registerBlocking(timeoutMillis) {
-                    timedOut.set(true)
-                    stop()
-                }
+                },
+                onError ?: {},
+            )
+        }
+    }
+
+    private fun startSession(
+        host: String,
+        count: Int,
+        intervalMillis: Long,
+        replyTimeoutMillis: Long,
+        deadlineMillis: Long,
+        onSent: () -> Unit,
+        onReply: (Long) -> Unit,
+        onFinish: () -> Unit,
+        onError: (Exception) -> Unit,
+    ) {
+        val createdSession = lock.withLock {
+            stop()
+            Session(count, intervalMillis, replyTimeoutMillis, deadlineMillis).also { session = it }
+        }
+
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                @Suppress("BlockingMethodInNonBlockingContext")
+                val address = InetAddress.getByName(host)
+                IcmpEchoSocket(address).use { createdSession.run(it, onSent, onReply) }
+            } catch (e: IOException) {
+                // also covers UnknownHostException and SocketException of sendto
+                onError(e)
+                return@launch
+            } catch (e: ErrnoException) {
+                onError(IOException(e.message, e))
+                return@launch
             }
+            onFinish()
         }
     }
 
     fun stop() {
         lock.withLock {
             process?.destroy()
+            session?.stopped = true
+            session = null
+        }
+    }
+
+    /** Sends echo requests and matches the replies to them by the sequence number */
+    private class Session(
+        private val count: Int,
+        intervalMillis: Long,
+        replyTimeoutMillis: Long,
+        deadlineMillis: Long,
+    ) {
+        @Volatile
+        var stopped = false
+
+        private val intervalNanos = intervalMillis * NANOS_IN_MILLI
+        private val replyTimeoutNanos = replyTimeoutMillis * NANOS_IN_MILLI
+        private val deadlineNanos = if (deadlineMillis == NO_DEADLINE) {
+            Long.MAX_VALUE
+        } else {
+            deadlineMillis * NANOS_IN_MILLI
+        }
+        /** Send times of the last requests indexed by their sequence number modulo the size */
+        private val sendNanos = LongArray(minOf(count, IcmpEchoSocket.MAX_SEQUENCE + 1))
+
+        fun run(socket: IcmpEchoSocket, onSent: () -> Unit, onReply: (Long) -> Unit) {
+            var sent = 0
+            var received = 0
+            val startNanos = System.nanoTime()
+            var nextSendNanos = startNanos
+            var lastSendNanos = nextSendNanos
+            while (!stopped) {
+                var now = System.nanoTime()
+                if (now - startNanos >= deadlineNanos) {
+                    return
+                }
+                if (sent < count && now >= nextSendNanos) {
+                    socket.send(sent and IcmpEchoSocket.MAX_SEQUENCE)
+                    lastSendNanos = System.nanoTime()
+                    sendNanos[sent % sendNanos.size] = lastSendNanos
+                    nextSendNanos += intervalNanos
+                    sent++
+                    onSent()
+                    now = System.nanoTime()
+                }
+
+                val waitUntilNanos = if (sent < count) {
+                    nextSendNanos
+                } else if (received == count || now >= lastSendNanos + replyTimeoutNanos) {
+                    return
+                } else {
+                    lastSendNanos + replyTimeoutNanos
+                }
+                val waitNanos = minOf(waitUntilNanos - now, deadlineNanos - (now - startNanos))
+                val timeoutMillis = (waitNanos / NANOS_IN_MILLI)
+                    .coerceIn(0, STOP_CHECK_PERIOD_MILLIS)
+                    .toInt()
+
+                val sequence = socket.receive(timeoutMillis)
+                val receivedNanos = System.nanoTime()
+                if (sequence == IcmpEchoSocket.NO_REPLY) {
+                    continue
+                }
+                // duplicated and replies to the overwritten requests are ignored
+                val index = sequence % sendNanos.size
+                if (sequence < sent && sendNanos[index] != NOT_SENT) {
+                    onReply((receivedNanos - sendNanos[index]) / NANOS_IN_MICRO)
+                    sendNanos[index] = NOT_SENT
+                    received++
+                }
+            }
         }
     }
 
     companion object {
-        private val pingRegex = Regex(
-            "^\\s*\\d+\\s+bytes\\s+from\\s+.+:\\s+icmp_seq=\\d+\\s+" +
-                    "ttl=\\d+\\s+time=(\\d+)(\\.\\d+)?\\s+ms\\s*$"
-        )
+        private const val DEFAULT_INTERVAL_MILLIS = 1000L
+        private const val DEFAULT_REPLY_TIMEOUT_MILLIS = 1000L
+        private const val STOP_CHECK_PERIOD_MILLIS = 100L
+        private const val NANOS_IN_MILLI = 1_000_000L
+        private const val NANOS_IN_MICRO = 1000L
+        private const val NOT_SENT = 0L
+        private const val NO_DEADLINE = -1L
     }
 }
@@ -1,5 +1,5 @@
 package ru.scoltech.openran.speedtest.backend
 
-class IperfException(message: String) : Exception(message) {
+class IperfException(message: String, cause: Throwable? = null) : Exception(message, cause) {
     constructor(message: String, errno: Int) : this("$message (errno = $errno)")
 }
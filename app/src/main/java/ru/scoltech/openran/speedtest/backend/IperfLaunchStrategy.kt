@@ -0,0 +1,39 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.content.Context
+
+/**
+ * The way [IperfRunner] creates iPerf process.
+ */
+sealed class IperfLaunchStrategy {
+    /**
+     * Forks the application process and calls iPerf `main` in the child.
+     */
+    object Fork : IperfLaunchStrategy() {
+        override fun toString() = "Fork"
+    }
+
+    /**
+     * Spawns standalone iPerf executable using `vfork` + `execve`,
+     * so the page tables of the application process are not copied.
+     *
+     * @param executablePath Path to the iPerf executable
+     */
+    data class Spawn(val executablePath: String) : IperfLaunchStrategy() {
+        constructor(context: Context) : this(
+            "${context.applicationInfo.nativeLibraryDir}/$EXECUTABLE_FILE_NAME"
+        )
+
+        companion object {
+            /** Name of the executable built by `Android.mk` */
+            const val EXECUTABLE_FILE_NAME = "libiperf2exec.so"
+        }
+    }
+
+    /**
+     * Submits a job to the long-lived [IperfWorker], which forks itself for every job.
+     *
+     * @param worker Worker which runs the jobs
+     */
+    data class Worker(val worker: IperfWorker) : IperfLaunchStrategy()
+}
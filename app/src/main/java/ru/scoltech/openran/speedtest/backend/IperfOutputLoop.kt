@@ -0,0 +1,147 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.os.HandlerThread
+import android.os.MessageQueue
+import android.os.MessageQueue.OnFileDescriptorEventListener.EVENT_ERROR
+import android.os.MessageQueue.OnFileDescriptorEventListener.EVENT_INPUT
+import android.os.ParcelFileDescriptor
+import android.system.ErrnoException
+import android.system.Os
+import android.util.Log
+import ru.scoltech.openran.speedtest.util.ByteCharSequence
+import java.io.FileDescriptor
+import java.io.IOException
+import java.io.InterruptedIOException
+
+/**
+ * Single thread reading output pipes of all the [IperfRunner]s
+ * and watching their processes exits.
+ *
+ * Pipes are registered in the [MessageQueue] of a [HandlerThread],
+ * which waits for all of them using one `epoll` instance.
+ * Lines are split in place in a reusable buffer of every pipe
+ * and passed to the handlers as a reused [CharSequence], so no garbage is created per line.
+ * Handlers are called on the loop thread, so they must not block.
+ */
+object IperfOutputLoop {
+    private const val LOG_TAG = "IperfOutputLoop"
+    private const val EVENTS = EVENT_INPUT or EVENT_ERROR
+    private const val LINE_BUFFER_SIZE = 4096
+
+    private val queue: MessageQueue = HandlerThread("Iperf Output")
+        .apply { start() }
+        .looper
+        .queue
+
+    /**
+     * Starts passing lines of the [pipe] to the [handler].
+     * Pipe is closed and [onClosed] is called on end of stream or error.
+     */
+    fun registerLines(
+        pipe: ParcelFileDescriptor,
+        handler: (CharSequence) -> Unit,
+        onClosed: (IOException?) -> Unit,
+    ) {
+        val lineSplitter = LineSplitter(handler)
+        register(pipe, lineSplitter::readFrom, onClosed)
+    }
+
+    /**
+     * Calls [onReady] once when [fd] becomes readable or gets an error,
+     * e.g. when the process of a pidfd exits or the write end of a pipe is closed.
+     * The descriptor is neither read nor closed by the loop,
+     * but it is already unregistered when [onReady] is called, so it could be closed there.
+     */
+    fun awaitReadable(fd: FileDescriptor, onReady: () -> Unit) {
+        queue.addOnFileDescriptorEventListener(fd, EVENTS) { readyFd, _ ->
+            queue.removeOnFileDescriptorEventListener(readyFd)
+            onReady()
+            0
+        }
+    }
+
+    private fun register(
+        pipe: ParcelFileDescriptor,
+        readAvailable: (FileDescriptor) -> Boolean,
+        onClosed: (IOException?) -> Unit,
+    ) {
+        queue.addOnFileDescriptorEventListener(pipe.fileDescriptor, EVENTS) { fd, _ ->
+            val exception = try {
+                if (readAvailable(fd)) {
+                    return@addOnFileDescriptorEventListener EVENTS
+                }
+                null
+            } catch (e: ErrnoException) {
+                e.toIOException()
+            } catch (e: InterruptedIOException) {
+                e
+            }
+
+            // the descriptor is unregistered before closing, otherwise the queue would
+            // unregister it after the listener returns, when its number could be reused
+            queue.removeOnFileDescriptorEventListener(fd)
+            try {
+                pipe.close()
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Could not close pipe", e)
+            }
+            onClosed(exception)
+            0
+        }
+    }
+
+    private fun ErrnoException.toIOException(): IOException {
+        return IOException(message, this)
+    }
+
+    /**
+     * Splits the pipe content into lines without allocations.
+     * Lines longer than the buffer are split into several ones.
+     */
+    private class LineSplitter(private val handler: (CharSequence) -> Unit) {
+        private val buffer = ByteArray(LINE_BUFFER_SIZE)
+        private val line = ByteCharSequence(buffer)
+        private var size = 0
+
+        fun readFrom(fd: FileDescriptor): Boolean {
+            if (size == buffer.size) {
+                dispatch(0, size)
+                size = 0
+            }
+
+            val read = Os.read(fd, buffer, size, buffer.size - size)
+            if (read == 0) {
+                if (size > 0) {
+                    dispatch(0, size)
+                    size = 0
+                }
+                return false
+            }
+
+            var lineStart = 0
+            for (index in size until size + read) {
+                if (buffer[index] == NEW_LINE) {
+                    dispatch(lineStart, index)
+                    lineStart = index + 1
+                }
+            }
+            size += read - lineStart
+            System.arraycopy(buffer, lineStart, buffer, 0, size)
+            return true
+        }
+
+        private fun dispatch(start: Int, end: Int) {
+            val length = if (end > start && buffer[end - 1] == CARRIAGE_RETURN) {
+                end - start - 1
+            } else {
+                end - start
+            }
+            handler(line.set(start, length))
+        }
+
+        companion object {
+            private const val NEW_LINE: Byte = 0x0A
+            private const val CARRIAGE_RETURN: Byte = 0x0D
+        }
+    }
+}
@@ -1,34 +1,45 @@
 package ru.scoltech.openran.speedtest.backend
 
+import android.os.ParcelFileDescriptor
 import android.util.Log
 import kotlinx.coroutines.*
 import java.io.*
 import java.util.concurrent.locks.Condition
 import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
-import kotlin.concurrent.thread
 import kotlin.concurrent.withLock
 import kotlin.jvm.Throws
 
 /**
  * Iperf process runner.
  *
- * Creates named pipes in `writableDir` which are used to redirect iperf `stdout` and `stderr`.
+ * Creates anonymous pipes which are used to redirect iperf `stdout` and `stderr`.
  * One can handle them by setting [stdoutLinesHandler] and [stderrLinesHandler].
+ * Pipes of all runners are read by the single [IperfOutputLoop] thread.
  * On finish [onFinishCallback] is called.
+ * Process exit is watched by the [IperfOutputLoop] as well, so no thread is blocked per process.
  *
- * Note, that [start] method kills previous iperf process with `SIGKILL` if it is still running.
+ * Note, that [start] method kills previous iperf process of this runner
+ * with `SIGKILL` if it is still running. Different runners do not share any resources,
+ * so they could run simultaneously (see [IperfRunnerRegistry]).
  *
  * @author Mihail Kazakov
  */
 class IperfRunner(
-    writableDir: String,
+    /** The way iPerf process is created. */
+    private val launchStrategy: IperfLaunchStrategy = IperfLaunchStrategy.Fork,
 
-    /** Function to which the process `stdout` will be redirected line by line. */
-    private val stdoutLinesHandler: (String) -> Unit = {},
+    /**
+     * Function to which the process `stdout` will be redirected line by line.
+     * Passed line instance is reused between calls, so it should be copied to be retained.
+     */
+    private val stdoutLinesHandler: (CharSequence) -> Unit = {},
 
-    /** Function to which the process `stderr` will be redirected line by line. */
-    private val stderrLinesHandler: (String) -> Unit = {},
+    /**
+     * Function to which the process `stderr` will be redirected line by line.
+     * Passed line instance is reused between calls, so it should be copied to be retained.
+     */
+    private val stderrLinesHandler: (CharSequence) -> Unit = {},
 
     /**
      * Function that will be called on finish.
@@ -37,84 +48,139 @@ class IperfRunner(
     private val onFinishCallback: () -> Unit = {},
 ) {
     /** Set to non null value if and only if the process is running */
-    private var processWaiterThread: Thread? = null
+    private var processFinished: Deferred<Unit>? = null
     private var processPid: Long = 0L
+    private var workerJob: IperfWorker.Job? = null
 
     /** Lock used for synchronization */
     val lock: Lock = ReentrantLock()
     private val finishedCondition: Condition = lock.newCondition()
 
-    private val stdoutPipePath = "$writableDir/iperfStdout"
-    private val stderrPipePath = "$writableDir/iperfStderr"
-
     /**
      * Kills previous running process with `SIGKILL` (if any) and runs a new.
-     * Iperf process is created by
-     * [forking](https://man7.org/linux/man-pages/man2/fork.2.html) from current process.
+     * Iperf process is created according to the [launchStrategy]: either by
+     * [forking](https://man7.org/linux/man-pages/man2/fork.2.html) from current process
+     * or by [spawning](https://man7.org/linux/man-pages/man2/vfork.2.html)
+     * the standalone executable, or by submitting a job to the [IperfWorker].
      * Communication between processes is done using
-     * [named pipes](https://man7.org/linux/man-pages/man3/mkfifo.3.html).
+     * [anonymous pipes](https://man7.org/linux/man-pages/man2/pipe.2.html),
+     * whose read ends are returned by the native code, so no files are created.
+     * Process exit is reported by a [pidfd](https://man7.org/linux/man-pages/man2/pidfd_open.2.html)
+     * on Android 12+ with Linux 5.3+ (or by the end of stream of an exit pipe otherwise)
+     * or by the worker job connection.
+     *
+     * @return deferred which is completed after [onFinishCallback] is called.
      *
      * It is guaranteed that no process is started on [IperfException] or [InterruptedException].
      *
      * @throws IperfException if `SIGKILL` could not be sent,
-     *                        named pipe could not be created
-     *                        or process could not be forked.
+     *                        pipes could not be created
+     *                        or process could not be forked, spawned or submitted.
      * @throws InterruptedException if thread was interrupted during waiting
      *                              for previous process finish.
      */
     @Throws(IperfException::class, InterruptedException::class)
-    fun start(args: String) {
+    fun start(args: String): Deferred<Unit> {
         lock.withLock {
-            while (processWaiterThread != null) {
+            while (processFinished != null) {
                 sendSigKill()
                 finishedCondition.await()
             }
-            Log.d(LOG_TAG, "Starting with command: iperf $args")
+            Log.d(LOG_TAG, "Starting with command: iperf $args ($launchStrategy)")
 
-            forceMkfifo(stdoutPipePath, "stdout")
-            forceMkfifo(stderrPipePath, "stderr")
+            val pipes = launch(splitArgs(args))
 
-            val pidHolder = longArrayOf(0)
-            runCheckingErrno("Could not fork process and launch iperf") {
-                start(stdoutPipePath, stderrPipePath, splitArgs(args), pidHolder)
-            }
-            processPid = pidHolder[0]
+            val outputsClosed = mutableListOf<CompletableDeferred<Unit>>()
+            IperfOutputLoop.registerLines(
+                pipes[STDERR_PIPE_INDEX]!!,
+                stderrLinesHandler,
+                onOutputClosed("output", outputsClosed),
+            )
+            IperfOutputLoop.registerLines(
+                pipes[STDOUT_PIPE_INDEX]!!,
+                stdoutLinesHandler,
+                onOutputClosed("output", outputsClosed),
+            )
 
-            val outputHandlers = listOf(
-                stderrPipePath to stderrLinesHandler,
-                stdoutPipePath to stdoutLinesHandler,
-            ).map { (pipePath, handler) ->
-                CoroutineScope(Dispatchers.IO).launch { handlePipe(pipePath, handler) }
+            val exited = CompletableDeferred<Unit>()
+            val job = workerJob
+            if (job != null) {
+                job.onExit { exited.complete(Unit) }
+            } else {
+                val exitFd = pipes[EXIT_FD_INDEX]!!
+                val pid = processPid
+                IperfOutputLoop.awaitReadable(exitFd.fileDescriptor) {
+                    try {
+                        exitFd.close()
+                    } catch (e: IOException) {
+                        Log.e(LOG_TAG, "Could not close process exit fd", e)
+                    }
+                    // process is already a zombie (or about to become one), so it does not block
+                    waitForProcess(pid)
+                    exited.complete(Unit)
+                }
             }
 
-            processWaiterThread = thread(start = true, name = "Iperf Waiter") {
-                waitForProcessNoDestroy(processPid)
-                onFinish(outputHandlers)
+            val finished = CompletableDeferred<Unit>()
+            processFinished = finished
+            CoroutineScope(Dispatchers.Default).launch {
+                (outputsClosed + exited).awaitAll()
+                onFinish()
+                finished.complete(Unit)
             }
+            return finished
         }
     }
 
-    private fun forceMkfifo(path: String, redirectingFile: String) {
-        val previousFile = File(path)
-        previousFile.delete()
-        if (previousFile.exists()) {
-            val type = if (previousFile.isDirectory) "directory" else "file"
-            throw IperfException("Could not delete $type $path to create named pipe")
-        }
-        runCheckingErrno(getMkfifoErrorMessage(path, redirectingFile)) {
-            mkfifo(path)
+    /**
+     * Creates the process according to the [launchStrategy] and sets [processPid].
+     *
+     * @return read ends of stdout and stderr pipes and the process exit fd,
+     *         which is `null` for the worker jobs.
+     */
+    private fun launch(args: Array<String>): List<ParcelFileDescriptor?> {
+        val pipeFdsHolder = intArrayOf(-1, -1, -1)
+        val pidHolder = longArrayOf(0)
+        // child process inherits pipe ends of the concurrent starts otherwise
+        when (launchStrategy) {
+            is IperfLaunchStrategy.Fork -> runCheckingErrno("Could not fork process and launch iperf") {
+                START_LOCK.withLock {
+                    start(args, pipeFdsHolder, pidHolder)
+                }
+            }
+            is IperfLaunchStrategy.Spawn -> runCheckingErrno("Could not spawn iperf executable") {
+                START_LOCK.withLock {
+                    spawn(launchStrategy.executablePath, args, pipeFdsHolder, pidHolder)
+                }
+            }
+            is IperfLaunchStrategy.Worker -> {
+                val job = try {
+                    launchStrategy.worker.submit(args)
+                } catch (e: IOException) {
+                    throw IperfException("Could not submit iperf job to the worker", e)
+                }
+                workerJob = job
+                processPid = job.pid
+                return listOf(job.stdoutPipe, job.stderrPipe, null)
+            }
         }
+        processPid = pidHolder[0]
+        return pipeFdsHolder.map { fd -> if (fd != -1) ParcelFileDescriptor.adoptFd(fd) else null }
     }
 
-    private fun handlePipe(pipePath: String, handler: (String) -> Unit) {
-        try {
-            FileReader(pipePath)
-                .buffered()
-                .useLines { lines -> lines.forEach { handler(it) } }
-        } catch (e: IOException) {
-            val message = "Could not handle iperf output"
-            Log.e(LOG_TAG, message, e)
-            stderrLinesHandler("$message: ${e::class.simpleName} (${e.message})")
+    private fun onOutputClosed(
+        outputName: String,
+        outputsClosed: MutableList<CompletableDeferred<Unit>>,
+    ): (IOException?) -> Unit {
+        val closed = CompletableDeferred<Unit>()
+        outputsClosed += closed
+        return { exception ->
+            if (exception != null) {
+                val message = "Could not handle iperf $outputName"
+                Log.e(LOG_TAG, message, exception)
+                stderrLinesHandler("$message: ${exception::class.simpleName} (${exception.message})")
+            }
+            closed.complete(Unit)
         }
     }
 
@@ -122,20 +188,13 @@ class IperfRunner(
         return args.split(SPACES_REGEX).filter { it.isNotBlank() }.toTypedArray()
     }
 
-    private fun onFinish(outputHandlers: List<Job>) {
+    private fun onFinish() {
         lock.withLock {
-            waitForProcess(processPid)
-
-            runBlocking {
-                outputHandlers.forEach {
-                    it.join()
-                }
-            }
-
             onFinishCallback()
             Log.d(LOG_TAG, "Finished executing")
-            processWaiterThread = null
+            processFinished = null
             processPid = 0
+            workerJob = null
             finishedCondition.signalAll()
         }
     }
@@ -152,7 +211,7 @@ class IperfRunner(
     @Throws(IperfException::class, InterruptedException::class)
     fun killAndWait() {
         lock.withLock {
-            if (processWaiterThread != null) {
+            if (processFinished != null) {
                 sendSigInt()
                 finishedCondition.await()
             }
@@ -181,15 +240,12 @@ class IperfRunner(
 
     private fun kill(signalName: String, sendSignal: (Long) -> Int) {
         lock.withLock {
-            if (processWaiterThread != null) {
+            if (processFinished != null) {
                 runCheckingErrno(getKillErrorMessage(signalName)) { sendSignal(processPid) }
             }
         }
     }
 
-    private fun getMkfifoErrorMessage(pipePath: String, redirectingFile: String) =
-        "Could not create named pipe $pipePath for redirecting $redirectingFile"
-
     private fun getKillErrorMessage(signalName: String) =
         "Could not send $signalName to a process with pid $processPid"
 
@@ -204,30 +260,38 @@ class IperfRunner(
 
     private external fun sendSigKill(pid: Long): Int
 
-    private external fun mkfifo(pipePath: String): Int
-
     private external fun start(
-        stdoutPipePath: String,
-        stderrPipePath: String,
         args: Array<String>,
+        pipeFdsHolder: IntArray,
         pidHolder: LongArray,
     ): Int
 
-    private external fun waitForProcessNoDestroy(pid: Long) : Int
+    private external fun spawn(
+        executablePath: String,
+        args: Array<String>,
+        pipeFdsHolder: IntArray,
+        pidHolder: LongArray,
+    ): Int
 
     private external fun waitForProcess(pid: Long): Int
 
-    class Builder(private val writableDir: String) {
-        private var stdoutLinesHandler: (String) -> Unit = {}
-        private var stderrLinesHandler: (String) -> Unit = {}
+    class Builder {
+        private var launchStrategy: IperfLaunchStrategy = IperfLaunchStrategy.Fork
+        private var stdoutLinesHandler: (CharSequence) -> Unit = {}
+        private var stderrLinesHandler: (CharSequence) -> Unit = {}
         private var onFinishCallback: () -> Unit = {}
 
-        fun stdoutLinesHandler(stdoutLinesHandler: (String) -> Unit): Builder {
+        fun launchStrategy(launchStrategy: IperfLaunchStrategy): Builder {
+            this.launchStrategy = launchStrategy
+            return this
+        }
+
+        fun stdoutLinesHandler(stdoutLinesHandler: (CharSequence) -> Unit): Builder {
             this.stdoutLinesHandler = stdoutLinesHandler
             return this
         }
 
-        fun stderrLinesHandler(stderrLinesHandler: (String) -> Unit): Builder {
+        fun stderrLinesHandler(stderrLinesHandler: (CharSequence) -> Unit): Builder {
             this.stderrLinesHandler = stderrLinesHandler
             return this
         }
@@ -239,7 +303,7 @@ class IperfRunner(
 
         fun build(): IperfRunner {
             return IperfRunner(
-                writableDir,
+                launchStrategy,
                 stdoutLinesHandler,
                 stderrLinesHandler,
                 onFinishCallback,
@@ -249,7 +313,11 @@ class IperfRunner(
 
     companion object {
         private val SPACES_REGEX = Regex("\\s+")
+        private val START_LOCK = ReentrantLock()
         private const val LOG_TAG = "IperfRunner"
+        private const val STDOUT_PIPE_INDEX = 0
+        private const val STDERR_PIPE_INDEX = 1
+        private const val EXIT_FD_INDEX = 2
 
         init {
             System.loadLibrary("iperf2")
@@ -0,0 +1,71 @@
+package ru.scoltech.openran.speedtest.backend
+
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.jvm.Throws
+
+/**
+ * Registry of [IperfRunner]s that are allowed to run simultaneously.
+ *
+ * Every runner owns its pipes, pid and finish callback,
+ * so the registry is only used to address all of them at once (e.g. to stop a test).
+ */
+class IperfRunnerRegistry {
+    private val lock = ReentrantLock()
+    private val runners = mutableListOf<IperfRunner>()
+
+    val size: Int
+        get() = lock.withLock { runners.size }
+
+    fun register(runner: IperfRunner): IperfRunner {
+        lock.withLock {
+            runners.add(runner)
+        }
+        return runner
+    }
+
+    fun unregister(runner: IperfRunner) {
+        lock.withLock {
+            runners.remove(runner)
+        }
+    }
+
+    /**
+     * Sends `SIGINT` to every registered running process.
+     *
+     * @throws IperfException if signal could not be sent to some of the processes.
+     * Signal is still sent to all other processes.
+     */
+    @Throws(IperfException::class)
+    fun sendSigIntToAll() {
+        forEachRunner(IperfRunner::sendSigInt)
+    }
+
+    /**
+     * Sends `SIGKILL` to every registered running process.
+     *
+     * @throws IperfException if signal could not be sent to some of the processes.
+     * Signal is still sent to all other processes.
+     */
+    @Throws(IperfException::class)
+    fun sendSigKillToAll() {
+        forEachRunner(IperfRunner::sendSigKill)
+    }
+
+    private inline fun forEachRunner(action: (IperfRunner) -> Unit) {
+        val snapshot = lock.withLock { runners.toList() }
+        var firstException: IperfException? = null
+        snapshot.forEach {
+            try {
+                action(it)
+            } catch (e: IperfException) {
+                if (firstException == null) {
+                    firstException = e
+                } else {
+                    firstException?.addSuppressed(e)
+                }
+            }
+        }
+        firstException?.let { throw it }
+    }
+}
@@ -0,0 +1,202 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.content.Context
+import android.net.LocalSocket
+import android.net.LocalSocketAddress
+import android.os.ParcelFileDescriptor
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.jvm.Throws
+
+/**
+ * Long-lived iPerf worker process.
+ *
+ * Worker is the standalone iPerf executable started in the worker mode once per application.
+ * It accepts jobs on the abstract unix socket and forks itself for every job,
+ * which is much cheaper than starting a new process from the application.
+ * Output pipes are created by the application and passed to the worker with the job,
+ * job process pid and then its wait status are sent back through the job connection,
+ * which is watched by the [IperfOutputLoop], so no thread waits for the job.
+ * Worker exits when its stdin reaches the end, i.e. when the application process exits
+ * and the write end kept by the [process] is closed by the kernel.
+ */
+class IperfWorker private constructor(private val executablePath: String) {
+    private val lock = ReentrantLock()
+    private var process: Process? = null
+    private val socketName = "$SOCKET_NAME_PREFIX.${android.os.Process.myPid()}"
+
+    /**
+     * Starts the worker process if it is not running.
+     *
+     * @throws IOException if the worker could not be started.
+     */
+    @Throws(IOException::class)
+    fun ensureStarted() {
+        lock.withLock {
+            if (process?.isRunning() == true) {
+                return
+            }
+
+            Log.d(LOG_TAG, "Starting worker $executablePath on $socketName")
+            val startedProcess = ProcessBuilder(executablePath, WORKER_OPTION, socketName)
+                .redirectErrorStream(true)
+                .start()
+            val output = startedProcess.inputStream.bufferedReader()
+            if (output.readLine() != WORKER_READY_LINE) {
+                startedProcess.destroy()
+                throw IOException("Worker did not become ready")
+            }
+            process = startedProcess
+            CoroutineScope(Dispatchers.IO).launch {
+                try {
+                    output.useLines { lines -> lines.forEach { Log.w(LOG_TAG, it) } }
+                } catch (e: IOException) {
+                    Log.e(LOG_TAG, "Could not read worker output", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits a new iPerf job to the worker. Worker is (re)started if it is not running.
+     *
+     * @param args iPerf arguments without the executable name
+     * @throws IOException if the job could not be submitted or started.
+     */
+    @Throws(IOException::class)
+    fun submit(args: Array<String>): Job {
+        ensureStarted()
+        return try {
+            submitToRunning(args)
+        } catch (e: IOException) {
+            Log.w(LOG_TAG, "Could not submit job, restarting worker", e)
+            lock.withLock {
+                process?.destroy()
+                process = null
+            }
+            ensureStarted()
+            submitToRunning(args)
+        }
+    }
+
+    private fun submitToRunning(args: Array<String>): Job {
+        val stdoutPipe = ParcelFileDescriptor.createPipe()
+        val stderrPipe = ParcelFileDescriptor.createPipe()
+        val readEnds = listOf(stdoutPipe[0], stderrPipe[0])
+        val writeEnds = listOf(stdoutPipe[1], stderrPipe[1])
+
+        val socket = LocalSocket(LocalSocket.SOCKET_SEQPACKET)
+        try {
+            socket.connect(LocalSocketAddress(socketName, LocalSocketAddress.Namespace.ABSTRACT))
+            socket.setFileDescriptorsForSend(writeEnds.map { it.fileDescriptor }.toTypedArray())
+            socket.outputStream.write(encodeArgs(args))
+            socket.setFileDescriptorsForSend(null)
+
+            val pid = socket.inputStream.readMessage(Long.SIZE_BYTES).long
+            if (pid < 0) {
+                throw IOException("Worker could not fork iPerf process (errno = ${-pid})")
+            }
+            return Job(pid, stdoutPipe[0], stderrPipe[0], socket)
+        } catch (e: IOException) {
+            socket.close()
+            readEnds.forEach { it.close() }
+            throw e
+        } finally {
+            writeEnds.forEach { it.close() }
+        }
+    }
+
+    private fun encodeArgs(args: Array<String>): ByteArray {
+        val payload = ByteArrayOutputStream()
+        args.forEach {
+            payload.write(it.toByteArray(StandardCharsets.UTF_8))
+            payload.write(0)
+        }
+        return payload.toByteArray()
+    }
+
+    /**
+     * iPerf process started by the worker.
+     * Read ends of the output pipes are owned by the job user.
+     */
+    class Job internal constructor(
+        val pid: Long,
+        val stdoutPipe: ParcelFileDescriptor,
+        val stderrPipe: ParcelFileDescriptor,
+        private val socket: LocalSocket,
+    ) {
+        /**
+         * Calls [callback] on the [IperfOutputLoop] thread when the process finishes.
+         * Wait status of the process or `null` if the worker died is passed to the callback.
+         */
+        fun onExit(callback: (Int?) -> Unit) {
+            IperfOutputLoop.awaitReadable(socket.fileDescriptor) {
+                callback(readExitStatus())
+            }
+        }
+
+        /** Does not block after the job connection became readable */
+        private fun readExitStatus(): Int? {
+            return try {
+                socket.inputStream.readMessage(Int.SIZE_BYTES).int
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Worker connection is lost", e)
+                null
+            } finally {
+                socket.close()
+            }
+        }
+    }
+
+    companion object {
+        private const val LOG_TAG = "IperfWorker"
+        private const val SOCKET_NAME_PREFIX = "ru.scoltech.openran.speedtest.iperf"
+        private const val WORKER_OPTION = "--worker"
+        private const val WORKER_READY_LINE = "ready"
+
+        @Volatile
+        private lateinit var INSTANCE: IperfWorker
+
+        fun getInstance(context: Context): IperfWorker {
+            if (!this::INSTANCE.isInitialized) {
+                synchronized(this) {
+                    if (!this::INSTANCE.isInitialized) {
+                        INSTANCE = IperfWorker(IperfLaunchStrategy.Spawn(context).executablePath)
+                    }
+                }
+            }
+            return INSTANCE
+        }
+
+        private fun Process.isRunning(): Boolean {
+            return try {
+                exitValue()
+                false
+            } catch (e: IllegalThreadStateException) {
+                true
+            }
+        }
+
+        private fun InputStream.readMessage(size: Int): ByteBuffer {
+            val message = ByteArray(size)
+            val read = read(message)
+            if (read == -1) {
+                throw EOFException("Worker closed the connection")
+            } else if (read != size) {
+                throw IOException("Unexpected worker message size $read")
+            }
+            return ByteBuffer.wrap(message).order(ByteOrder.nativeOrder())
+        }
+    }
+}
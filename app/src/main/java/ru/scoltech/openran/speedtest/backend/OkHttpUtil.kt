@@ -4,6 +4,9 @@ import android.util.Log
 import com.squareup.okhttp.HttpUrl
 import com.squareup.okhttp.Response
 import java.io.IOException
+import java.net.ConnectException
+import java.net.NoRouteToHostException
+import java.net.UnknownHostException
 
 fun HttpUrl.Builder.addPathSegments(segments: List<String>): HttpUrl.Builder {
     segments.forEach { addPathSegment(it) }
@@ -22,3 +25,8 @@ fun Response.closeBody() {
         Log.e(ServiceApi.LOG_TAG, "Could not close response body", e)
     }
 }
+
+/** @return `true` if the request has certainly not reached the server */
+fun IOException.isConnectFailure(): Boolean {
+    return this is ConnectException || this is NoRouteToHostException || this is UnknownHostException
+}
@@ -0,0 +1,169 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.net.ConnectivityManager
+import android.net.Network
+import io.swagger.client.model.ServerAddressResponse
+import java.net.InetSocketAddress
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Cache of the services assigned by the balancers, keyed by the balancer address.
+ *
+ * Assignments expire after [ttlMillis] and all of them are dropped when the default network
+ * changes, as the balancer could assign another service in another network.
+ * Assignment should be invalidated when its service fails.
+ * If [preferences] are given, assignments survive application restarts. Every assignment
+ * stores the [currentNetwork] it is obtained in, so the ones obtained in another network
+ * are not used after a restart, when the network changes are not watched.
+ */
+class ServiceAddressCache(
+    private val ttlMillis: Long,
+    private val preferences: SharedPreferences? = null,
+    /** Returns the identity of the current default network, e.g. its handle */
+    private val currentNetwork: () -> Long = { NO_NETWORK },
+) {
+    private val lock = ReentrantLock()
+    private val entries = mutableMapOf<String, Entry>()
+
+    init {
+        preferences?.all?.forEach { (key, value) ->
+            Entry.decode(value as? String ?: return@forEach)?.let { entries[key] = it }
+        }
+    }
+
+    /** @return `null` if there is no assignment or it has expired */
+    fun get(balancerAddress: InetSocketAddress): ServerAddressResponse? {
+        val key = balancerAddress.toKey()
+        lock.withLock {
+            val entry = entries[key] ?: return null
+            if (entry.expiresAtMillis <= System.currentTimeMillis() || entry.network != currentNetwork()) {
+                remove(key)
+                return null
+            }
+            return entry.toResponse()
+        }
+    }
+
+    fun put(balancerAddress: InetSocketAddress, service: ServerAddressResponse) {
+        val key = balancerAddress.toKey()
+        val entry = Entry(
+            service.ip,
+            service.port ?: NO_PORT,
+            service.portIperf ?: NO_PORT,
+            System.currentTimeMillis() + ttlMillis,
+            currentNetwork(),
+        )
+        lock.withLock {
+            entries[key] = entry
+            preferences?.edit()?.putString(key, entry.encode())?.apply()
+        }
+    }
+
+    fun invalidate(balancerAddress: InetSocketAddress) {
+        lock.withLock {
+            remove(balancerAddress.toKey())
+        }
+    }
+
+    fun invalidateAll() {
+        lock.withLock {
+            entries.clear()
+            preferences?.edit()?.clear()?.apply()
+        }
+    }
+
+    private fun remove(key: String) {
+        entries.remove(key)
+        preferences?.edit()?.remove(key)?.apply()
+    }
+
+    /** Invalidates all the assignments when the default network is lost or replaced */
+    private fun watchNetworkChanges(context: Context) {
+        val connectivityManager = context.getSystemService(ConnectivityManager::class.java)
+        connectivityManager.registerDefaultNetworkCallback(object : ConnectivityManager.NetworkCallback() {
+            private var currentNetwork: Network? = null
+
+            override fun onAvailable(network: Network) {
+                // the first call reports the network the cache is created in
+                if (currentNetwork != null && currentNetwork != network) {
+                    invalidateAll()
+                }
+                currentNetwork = network
+            }
+
+            override fun onLost(network: Network) {
+                currentNetwork = null
+                invalidateAll()
+            }
+        })
+    }
+
+    private data class Entry(
+        val ip: String,
+        val port: Int,
+        val portIperf: Int,
+        val expiresAtMillis: Long,
+        val network: Long,
+    ) {
+        fun toResponse(): ServerAddressResponse {
+            return ServerAddressResponse()
+                .ip(ip)
+                .port(port.takeIf { it != NO_PORT })
+                .portIperf(portIperf.takeIf { it != NO_PORT })
+        }
+
+        fun encode() = listOf(ip, port, portIperf, expiresAtMillis, network).joinToString(SEPARATOR)
+
+        companion object {
+            fun decode(value: String): Entry? {
+                val fields = value.split(SEPARATOR)
+                if (fields.size != FIELD_COUNT) {
+                    return null
+                }
+                return Entry(
+                    fields[0],
+                    fields[1].toIntOrNull() ?: return null,
+                    fields[2].toIntOrNull() ?: return null,
+                    fields[3].toLongOrNull() ?: return null,
+                    fields[4].toLongOrNull() ?: return null,
+                )
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_TTL_MILLIS = 10 * 60 * 1000L
+        private const val PREFERENCES_NAME = "ru.scoltech.openran.speedtest.service_address_cache"
+        private const val SEPARATOR = ","
+        private const val FIELD_COUNT = 5
+        private const val NO_PORT = -1
+        const val NO_NETWORK = 0L
+
+        @Volatile
+        private lateinit var INSTANCE: ServiceAddressCache
+
+        /** Returns the persistent application-wide cache */
+        fun getInstance(context: Context): ServiceAddressCache {
+            if (!this::INSTANCE.isInitialized) {
+                synchronized(this) {
+                    if (!this::INSTANCE.isInitialized) {
+                        val applicationContext = context.applicationContext
+                        val preferences = applicationContext
+                            .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                        val connectivityManager = applicationContext
+                            .getSystemService(ConnectivityManager::class.java)
+                        INSTANCE = ServiceAddressCache(DEFAULT_TTL_MILLIS, preferences) {
+                            connectivityManager.activeNetwork?.networkHandle ?: NO_NETWORK
+                        }.apply { watchNetworkChanges(applicationContext) }
+                    }
+                }
+            }
+            return INSTANCE
+        }
+
+        private fun InetSocketAddress.toKey() = "${address.hostAddress}:$port"
+    }
+}
@@ -50,10 +50,23 @@ class ServiceApi(private val httpClient: OkHttpClient) {
         }
     }
 
-    fun stopIperf(hostAddress: String, port: Int) {
+    /**
+     * Opens a pooled connection to the service in advance,
+     * so that the next calls do not wait for the handshake.
+     */
+    fun preconnect(hostAddress: String, port: Int) {
+        val request = Request.Builder()
+            .url(buildUrl(hostAddress, port, listOf()))
+            .head()
+            .build()
+        httpClient.newCall(request).enqueue(IgnoreCallback {})
+    }
+
+    /** @param onFinished called when the service responds or the request fails */
+    fun stopIperf(hostAddress: String, port: Int, onFinished: () -> Unit = {}) {
         buildUrl(hostAddress, port, STOP_IPERF_PATH_SEGMENTS)
             .buildGetCall()
-            .enqueue(IgnoreCallback())
+            .enqueue(IgnoreCallback(onFinished))
     }
 
     private fun buildUrl(
@@ -81,11 +94,14 @@ class ServiceApi(private val httpClient: OkHttpClient) {
         return httpClient.newCall(request)
     }
 
-    private class IgnoreCallback : Callback {
-        override fun onFailure(request: Request, e: IOException) {}
+    private class IgnoreCallback(private val onFinished: () -> Unit) : Callback {
+        override fun onFailure(request: Request, e: IOException) {
+            onFinished()
+        }
 
         override fun onResponse(response: Response) {
             response.closeBody()
+            onFinished()
         }
     }
 
@@ -0,0 +1,33 @@
+package ru.scoltech.openran.speedtest.backend
+
+import com.squareup.okhttp.ConnectionPool
+import com.squareup.okhttp.Dispatcher
+import com.squareup.okhttp.OkHttpClient
+
+/**
+ * Process-wide HTTP client for the balancer and service control calls.
+ *
+ * Connections are pooled and kept alive, so the calls to the same service reuse
+ * a warm connection instead of a new TCP handshake,
+ * and the shared dispatcher bounds the count of simultaneous calls.
+ */
+object ServiceHttpClient {
+    private const val MAX_IDLE_CONNECTIONS = 5
+    private const val KEEP_ALIVE_DURATION_MILLIS = 5 * 60 * 1000L
+    private const val MAX_REQUESTS = 16
+    private const val MAX_REQUESTS_PER_HOST = 4
+
+    val client: OkHttpClient = OkHttpClient().apply {
+        setConnectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MILLIS))
+        setDispatcher(Dispatcher().apply {
+            maxRequests = MAX_REQUESTS
+            maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+        })
+    }
+
+    /**
+     * Returns a client sharing the connection pool and the dispatcher,
+     * whose timeouts could be changed without affecting the other users.
+     */
+    fun newClient(): OkHttpClient = client.clone()
+}
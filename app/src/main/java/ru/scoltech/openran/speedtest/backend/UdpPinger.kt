@@ -0,0 +1,197 @@
+package ru.scoltech.openran.speedtest.backend
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import ru.scoltech.openran.speedtest.domain.UdpPingStatistics
+import ru.scoltech.openran.speedtest.util.Promise
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.PortUnreachableException
+import java.net.UnknownHostException
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.random.Random
+
+/**
+ * UDP echo pinger of the `PingCheckServer` reflector.
+ *
+ * Probes are sent through a single non-blocking [DatagramChannel] at a fixed rate
+ * without waiting for the replies. Every probe is a fixed size binary packet with
+ * the session id, the sequence number and the send time from the monotonic clock,
+ * so replies of the previous sessions are ignored and round trip times are measured
+ * without any per probe state except a flag used to detect duplicates.
+ */
+class UdpPinger {
+    private var session: Session? = null
+    private val lock = ReentrantLock()
+
+    /**
+     * Sends [count] probes every [intervalMillis] to the reflector.
+     * Statistics are passed to [onUpdate] after every reply and to the promise success callback
+     * when all the probes are sent and the last one is answered or timed out, or when stopped.
+     * The same instance is passed every time, so it should be copied to be used later.
+     */
+    fun start(
+        host: String,
+        port: Int,
+        count: Int,
+        intervalMillis: Long,
+        replyTimeoutMillis: Long = DEFAULT_REPLY_TIMEOUT_MILLIS,
+        onUpdate: (UdpPingStatistics) -> Unit = {},
+    ): Promise<(UdpPingStatistics) -> Unit, (Exception) -> Unit> {
+        require(count > 0) { "Count should be positive, but was $count" }
+        return Promise { onFinish, onError ->
+            val createdSession = lock.withLock {
+                stop()
+                Session(count, intervalMillis, replyTimeoutMillis).also { session = it }
+            }
+
+            CoroutineScope(Dispatchers.IO).launch {
+                try {
+                    @Suppress("BlockingMethodInNonBlockingContext")
+                    val address = InetSocketAddress(InetAddress.getByName(host), port)
+                    DatagramChannel.open().use { channel ->
+                        Selector.open().use { selector ->
+                            channel.configureBlocking(false)
+                            channel.connect(address)
+                            channel.register(selector, SelectionKey.OP_READ)
+                            createdSession.run(channel, selector, onUpdate)
+                        }
+                    }
+                } catch (e: UnknownHostException) {
+                    onError?.invoke(e)
+                    return@launch
+                } catch (e: IOException) {
+                    onError?.invoke(e)
+                    return@launch
+                }
+                onFinish?.invoke(createdSession.statistics)
+            }
+        }
+    }
+
+    fun stop() {
+        lock.withLock {
+            session?.stopped = true
+            session = null
+        }
+    }
+
+    private class Session(
+        private val count: Int,
+        intervalMillis: Long,
+        replyTimeoutMillis: Long,
+    ) {
+        @Volatile
+        var stopped = false
+
+        val statistics = UdpPingStatistics()
+
+        private val intervalNanos = intervalMillis * NANOS_IN_MILLI
+        private val replyTimeoutNanos = replyTimeoutMillis * NANOS_IN_MILLI
+        private val sessionId = Random.nextLong()
+        private val replied = BooleanArray(count)
+        private val request = ByteBuffer.allocateDirect(PACKET_SIZE)
+        private val reply = ByteBuffer.allocateDirect(PACKET_SIZE)
+        private var sent = 0
+        private var received = 0
+        private var maxRepliedSequence = -1
+
+        fun run(channel: DatagramChannel, selector: Selector, onUpdate: (UdpPingStatistics) -> Unit) {
+            var nextSendNanos = System.nanoTime()
+            var lastSendNanos = nextSendNanos
+            while (!stopped) {
+                var now = System.nanoTime()
+                if (sent < count && now >= nextSendNanos) {
+                    send(channel, now)
+                    lastSendNanos = now
+                    // the schedule is kept, so late probes do not shift the next ones
+                    nextSendNanos += intervalNanos
+                    now = System.nanoTime()
+                }
+
+                val waitUntilNanos = if (sent < count) {
+                    nextSendNanos
+                } else if (received == count || now >= lastSendNanos + replyTimeoutNanos) {
+                    return
+                } else {
+                    lastSendNanos + replyTimeoutNanos
+                }
+                val timeoutMillis = ((waitUntilNanos - now) / NANOS_IN_MILLI)
+                    .coerceAtMost(STOP_CHECK_PERIOD_MILLIS)
+                val ready = if (timeoutMillis > 0) selector.select(timeoutMillis) else selector.selectNow()
+                if (ready > 0) {
+                    selector.selectedKeys().clear()
+                    receiveAll(channel, onUpdate)
+                }
+            }
+        }
+
+        private fun send(channel: DatagramChannel, now: Long) {
+            request.clear()
+            request.putLong(SESSION_ID_OFFSET, sessionId)
+            request.putInt(SEQUENCE_OFFSET, sent)
+            request.putLong(SEND_NANOS_OFFSET, now)
+            try {
+                // a probe is lost if the send buffer is full
+                channel.write(request)
+            } catch (e: PortUnreachableException) {
+                // the reflector is not started yet, the probe is lost
+            }
+            sent++
+            statistics.onSent()
+        }
+
+        /** Reads all the pending replies without blocking */
+        private fun receiveAll(channel: DatagramChannel, onUpdate: (UdpPingStatistics) -> Unit) {
+            while (true) {
+                reply.clear()
+                val size = try {
+                    channel.read(reply)
+                } catch (e: PortUnreachableException) {
+                    continue
+                }
+                if (size <= 0) {
+                    return
+                }
+                val receivedNanos = System.nanoTime()
+                if (size != PACKET_SIZE || reply.getLong(SESSION_ID_OFFSET) != sessionId) {
+                    continue
+                }
+                val sequence = reply.getInt(SEQUENCE_OFFSET)
+                if (sequence < 0 || sequence >= sent) {
+                    continue
+                }
+                if (replied[sequence]) {
+                    statistics.onDuplicate()
+                    continue
+                }
+
+                replied[sequence] = true
+                received++
+                val rttNanos = receivedNanos - reply.getLong(SEND_NANOS_OFFSET)
+                statistics.onReply(rttNanos / NANOS_IN_MICRO, sequence < maxRepliedSequence)
+                maxRepliedSequence = maxOf(maxRepliedSequence, sequence)
+                onUpdate(statistics)
+            }
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_REPLY_TIMEOUT_MILLIS = 1000L
+        private const val STOP_CHECK_PERIOD_MILLIS = 100L
+        private const val NANOS_IN_MILLI = 1_000_000L
+        private const val NANOS_IN_MICRO = 1000L
+
+        private const val SESSION_ID_OFFSET = 0
+        private const val SEQUENCE_OFFSET = 8
+        private const val SEND_NANOS_OFFSET = 12
+        const val PACKET_SIZE = 20
+    }
+}
@@ -2,12 +2,16 @@ package ru.scoltech.openran.speedtest.backend
 
 import android.util.Log
 import androidx.core.text.isDigitsOnly
-import kotlinx.coroutines.*
-import kotlinx.coroutines.channels.Channel
+import com.squareup.okhttp.Callback
+import com.squareup.okhttp.Request
+import com.squareup.okhttp.Response
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
 import ru.scoltech.openran.speedtest.ApplicationConstants
 import java.io.IOException
 import java.net.*
 import java.nio.charset.StandardCharsets
+import kotlin.coroutines.resume
 import kotlin.jvm.Throws
 
 enum class RequestType { START, STOP }
@@ -39,31 +43,35 @@ suspend fun sendGETRequest(
         RequestType.STOP ->
             "http://${currentAddress.hostAddress}:$currentPort/stop-iperf"
     }
-    val channel = Channel<String>()
-    val connection = try {
-        Log.d("sendGETRequest", url)
-        URL(url).openConnection() as HttpURLConnection
-    } catch (e: IOException) {
-        return "error"
+    Log.d("sendGETRequest", url)
+    val call = ServiceHttpClient.client.newCall(Request.Builder().url(url).get().build())
+    if (requestType == RequestType.STOP) {
+        call.enqueue(BodyCallback {})
+        return ""
+    }
+    return withTimeoutOrNull(timeout) {
+        suspendCancellableCoroutine<String> { continuation ->
+            continuation.invokeOnCancellation { call.cancel() }
+            call.enqueue(BodyCallback { continuation.resume(it) })
+        }
+    } ?: "error"
+}
+
+private class BodyCallback(private val onBody: (String) -> Unit) : Callback {
+    override fun onFailure(request: Request, e: IOException) {
+        onBody("error")
     }
-    CoroutineScope(Dispatchers.IO).launch {
-        try {
-            channel.trySend(String(connection.inputStream.readBytes(), StandardCharsets.UTF_8))
+
+    override fun onResponse(response: Response) {
+        val body = try {
+            if (response.isSuccessful) response.body().string() else "error"
         } catch (e: IOException) {
-            channel.trySend("error")
+            "error"
         } finally {
-            connection.disconnect()
+            response.closeBody()
         }
+        onBody(body)
     }
-    CoroutineScope(Dispatchers.IO).launch {
-        delay(timeout)
-        channel.trySend("error")
-        connection.disconnect()
-    }
-    if (requestType == RequestType.STOP) {
-        return ""
-    }
-    return channel.receive()
 }
 
 @Throws(UnknownHostException::class)
@@ -0,0 +1,104 @@
+package ru.scoltech.openran.speedtest.domain
+
+/**
+ * Single iPerf interval report.
+ *
+ * Instances are mutable and are reused by the producers to avoid allocations per interval,
+ * so values that are needed after the callback returns should be copied using [set].
+ * Absent values (e.g. jitter of TCP test) are equal to [NO_VALUE].
+ */
+class IntervalReport {
+    /** Moment of the report creation from `CLOCK_MONOTONIC` (see [System.nanoTime]) */
+    var timestampNanos: Long = NO_VALUE
+    var intervalStartMicros: Long = NO_VALUE
+    var intervalEndMicros: Long = NO_VALUE
+    var bytes: Long = NO_VALUE
+    var bitsPerSecond: Long = NO_VALUE
+    var jitterMicros: Long = NO_VALUE
+    var lostDatagrams: Long = NO_VALUE
+    var totalDatagrams: Long = NO_VALUE
+    var outOfOrderDatagrams: Long = NO_VALUE
+
+    /** Id of the stream or [SUM_STREAM_ID] if this is a sum over all streams */
+    var streamId: Int = SUM_STREAM_ID
+
+    val isSum: Boolean
+        get() = streamId == SUM_STREAM_ID
+
+    fun reset() {
+        timestampNanos = NO_VALUE
+        intervalStartMicros = NO_VALUE
+        intervalEndMicros = NO_VALUE
+        bytes = NO_VALUE
+        bitsPerSecond = NO_VALUE
+        jitterMicros = NO_VALUE
+        lostDatagrams = NO_VALUE
+        totalDatagrams = NO_VALUE
+        outOfOrderDatagrams = NO_VALUE
+        streamId = SUM_STREAM_ID
+    }
+
+    fun set(other: IntervalReport): IntervalReport {
+        timestampNanos = other.timestampNanos
+        intervalStartMicros = other.intervalStartMicros
+        intervalEndMicros = other.intervalEndMicros
+        bytes = other.bytes
+        bitsPerSecond = other.bitsPerSecond
+        jitterMicros = other.jitterMicros
+        lostDatagrams = other.lostDatagrams
+        totalDatagrams = other.totalDatagrams
+        outOfOrderDatagrams = other.outOfOrderDatagrams
+        streamId = other.streamId
+        return this
+    }
+
+    /**
+     * Adds the [other] report of the same interval (e.g. of another process) to this one.
+     * Bytes, rates and datagram counts are summed up, the worst jitter is kept,
+     * the result is a sum over all streams. Absent values do not affect the result.
+     */
+    fun accumulate(other: IntervalReport): IntervalReport {
+        timestampNanos = maxOfPresent(timestampNanos, other.timestampNanos)
+        intervalStartMicros = minOfPresent(intervalStartMicros, other.intervalStartMicros)
+        intervalEndMicros = maxOfPresent(intervalEndMicros, other.intervalEndMicros)
+        bytes = sumOfPresent(bytes, other.bytes)
+        bitsPerSecond = sumOfPresent(bitsPerSecond, other.bitsPerSecond)
+        jitterMicros = maxOfPresent(jitterMicros, other.jitterMicros)
+        lostDatagrams = sumOfPresent(lostDatagrams, other.lostDatagrams)
+        totalDatagrams = sumOfPresent(totalDatagrams, other.totalDatagrams)
+        outOfOrderDatagrams = sumOfPresent(outOfOrderDatagrams, other.outOfOrderDatagrams)
+        streamId = SUM_STREAM_ID
+        return this
+    }
+
+    override fun toString(): String {
+        return "IntervalReport(timestampNanos=$timestampNanos, " +
+                "interval=$intervalStartMicros-$intervalEndMicros us, " +
+                "bytes=$bytes, bitsPerSecond=$bitsPerSecond, jitterMicros=$jitterMicros, " +
+                "lost/total=$lostDatagrams/$totalDatagrams, " +
+                "outOfOrder=$outOfOrderDatagrams, streamId=$streamId)"
+    }
+
+    companion object {
+        const val NO_VALUE = -1L
+        const val SUM_STREAM_ID = -1
+
+        private fun sumOfPresent(first: Long, second: Long): Long = when {
+            first == NO_VALUE -> second
+            second == NO_VALUE -> first
+            else -> first + second
+        }
+
+        private fun minOfPresent(first: Long, second: Long): Long = when {
+            first == NO_VALUE -> second
+            second == NO_VALUE -> first
+            else -> minOf(first, second)
+        }
+
+        private fun maxOfPresent(first: Long, second: Long): Long = when {
+            first == NO_VALUE -> second
+            second == NO_VALUE -> first
+            else -> maxOf(first, second)
+        }
+    }
+}
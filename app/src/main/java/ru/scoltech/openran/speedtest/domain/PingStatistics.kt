@@ -0,0 +1,90 @@
+package ru.scoltech.openran.speedtest.domain
+
+import ru.scoltech.openran.speedtest.util.SortedLongArray
+import kotlin.math.abs
+
+/**
+ * Statistics of a ping burst of at most [capacity] echo requests.
+ *
+ * Round trip times are in microseconds, absent values (e.g. if there are no replies)
+ * are equal to [IntervalReport.NO_VALUE]. Jitter is estimated like the interarrival jitter
+ * of RFC 3550: the mean deviation of the consecutive round trip times with gain `1/16`.
+ * The estimate is seeded with the first deviation rather than zero, otherwise
+ * it would be a small fraction of the real deviation for the bursts of a few requests.
+ * Instances are mutable and are not thread safe, so values that are needed
+ * in another thread should be copied using [set].
+ */
+class PingStatistics(val capacity: Int) {
+    private val sortedRttsMicros = SortedLongArray(capacity)
+    private var sumRttsMicros = 0L
+    private var lastRttMicros = IntervalReport.NO_VALUE
+    private var jitter = 0.0
+
+    var sent: Int = 0
+        private set
+
+    val received: Int
+        get() = sortedRttsMicros.size
+
+    val minRttMicros: Long
+        get() = if (received > 0) sortedRttsMicros[0] else IntervalReport.NO_VALUE
+
+    val maxRttMicros: Long
+        get() = if (received > 0) sortedRttsMicros[received - 1] else IntervalReport.NO_VALUE
+
+    val medianRttMicros: Long
+        get() = if (received > 0) sortedRttsMicros[(received - 1) / 2] else IntervalReport.NO_VALUE
+
+    val meanRttMicros: Long
+        get() = if (received > 0) sumRttsMicros / received else IntervalReport.NO_VALUE
+
+    /** Equal to [IntervalReport.NO_VALUE] if less than two replies are received */
+    val jitterMicros: Long
+        get() = if (received > 1) jitter.toLong() else IntervalReport.NO_VALUE
+
+    /** Share of the sent requests which are not answered in `[0, 1]` */
+    val lossRatio: Double
+        get() = if (sent > 0) (sent - received).toDouble() / sent else 0.0
+
+    fun onSent() {
+        check(sent < capacity) { "All $capacity requests are already sent" }
+        sent++
+    }
+
+    fun onReply(rttMicros: Long) {
+        sortedRttsMicros.insert(rttMicros)
+        sumRttsMicros += rttMicros
+        if (lastRttMicros != IntervalReport.NO_VALUE) {
+            val deviation = abs(rttMicros - lastRttMicros).toDouble()
+            jitter = if (received == 2) deviation else jitter + (deviation - jitter) / JITTER_GAIN_INVERSE
+        }
+        lastRttMicros = rttMicros
+    }
+
+    fun reset() {
+        sortedRttsMicros.clear()
+        sumRttsMicros = 0
+        lastRttMicros = IntervalReport.NO_VALUE
+        jitter = 0.0
+        sent = 0
+    }
+
+    fun set(other: PingStatistics): PingStatistics {
+        sortedRttsMicros.set(other.sortedRttsMicros)
+        sumRttsMicros = other.sumRttsMicros
+        lastRttMicros = other.lastRttMicros
+        jitter = other.jitter
+        sent = other.sent
+        return this
+    }
+
+    override fun toString(): String {
+        return "PingStatistics(sent=$sent, received=$received, min=$minRttMicros, " +
+                "median=$medianRttMicros, mean=$meanRttMicros, max=$maxRttMicros, " +
+                "jitter=$jitterMicros)"
+    }
+
+    companion object {
+        private const val JITTER_GAIN_INVERSE = 16.0
+    }
+}
@@ -9,5 +9,31 @@ data class SpeedTestResult(
     val creationTime: Date,
     val serverAddress: String,
     val description: String,
+    /** Speed percentiles in bits per second, equal to `0` if absent */
+    val downloadSpeedP5: Long = 0,
+    val downloadSpeedP50: Long = 0,
+    val downloadSpeedP90: Long = 0,
+    val downloadSpeedP99: Long = 0,
+    val uploadSpeedP5: Long = 0,
+    val uploadSpeedP50: Long = 0,
+    val uploadSpeedP90: Long = 0,
+    val uploadSpeedP99: Long = 0,
+    val downloadStopReason: StopReason = StopReason.COMPLETED,
+    val downloadSampleCount: Long = 0,
+    val uploadStopReason: StopReason = StopReason.COMPLETED,
+    val uploadSampleCount: Long = 0,
+    /** UDP download statistics, equal to [IntervalReport.NO_VALUE] if absent */
+    val downloadJitterMicros: Long = IntervalReport.NO_VALUE,
+    val downloadLostDatagrams: Long = IntervalReport.NO_VALUE,
+    val downloadTotalDatagrams: Long = IntervalReport.NO_VALUE,
+    val downloadOutOfOrderDatagrams: Long = IntervalReport.NO_VALUE,
+    /** Ping burst statistics, see [PingStatistics] */
+    val pingSent: Int = 0,
+    val pingReceived: Int = 0,
+    val pingMinMicros: Long = IntervalReport.NO_VALUE,
+    val pingMedianMicros: Long = IntervalReport.NO_VALUE,
+    val pingMeanMicros: Long = IntervalReport.NO_VALUE,
+    val pingMaxMicros: Long = IntervalReport.NO_VALUE,
+    val pingJitterMicros: Long = IntervalReport.NO_VALUE,
     val id: Long = 0,
 )
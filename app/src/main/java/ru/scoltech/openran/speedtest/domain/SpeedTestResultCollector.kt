@@ -0,0 +1,155 @@
+package ru.scoltech.openran.speedtest.domain
+
+import ru.scoltech.openran.speedtest.util.PercentileStatistics
+import java.util.*
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Collects the values of a single test reported by the speed test callbacks
+ * into a [SpeedTestResult].
+ *
+ * UDP datagram counts are summed up over the download intervals. Reports overlapping
+ * the already counted ones, e.g. the final summary of the whole test, are skipped,
+ * as are the out-of-order lines, which are counted by their own intervals.
+ * Jitter is the mean of the interval jitters.
+ */
+class SpeedTestResultCollector(serverAddress: String) {
+    private val lock = ReentrantLock()
+    private val serverAddress = serverAddress.take(MAX_SERVER_ADDRESS_LENGTH)
+    private var ping: PingStatistics? = null
+
+    private var download = SpeedSummary()
+    private var upload = SpeedSummary()
+
+    private var datagramsCountedUntilMicros = 0L
+    private var outOfOrderCountedUntilMicros = 0L
+    private var jitterSumMicros = 0L
+    private var jitterIntervals = 0L
+    private var lostDatagrams = IntervalReport.NO_VALUE
+    private var totalDatagrams = IntervalReport.NO_VALUE
+    private var outOfOrderDatagrams = IntervalReport.NO_VALUE
+
+    /** Statistics are not retained, so they could be reused by the caller */
+    fun onPingUpdate(statistics: PingStatistics) {
+        lock.withLock {
+            val copy = ping?.takeIf { it.capacity == statistics.capacity } ?: PingStatistics(statistics.capacity)
+            ping = copy.set(statistics)
+        }
+    }
+
+    /** Report is not retained, so it could be reused by the caller */
+    fun onDownloadIntervalReport(report: IntervalReport) {
+        lock.withLock {
+            val start = report.intervalStartMicros
+            if (report.bitsPerSecond == IntervalReport.NO_VALUE) {
+                val outOfOrderDatagramsPresent = report.outOfOrderDatagrams != IntervalReport.NO_VALUE
+                if (outOfOrderDatagramsPresent && start >= outOfOrderCountedUntilMicros) {
+                    outOfOrderDatagrams = sumOfPresent(outOfOrderDatagrams, report.outOfOrderDatagrams)
+                    outOfOrderCountedUntilMicros = report.intervalEndMicros
+                }
+                return
+            }
+            if (report.totalDatagrams == IntervalReport.NO_VALUE || start < datagramsCountedUntilMicros) {
+                return
+            }
+            datagramsCountedUntilMicros = report.intervalEndMicros
+            lostDatagrams = sumOfPresent(lostDatagrams, report.lostDatagrams)
+            totalDatagrams = sumOfPresent(totalDatagrams, report.totalDatagrams)
+            if (report.outOfOrderDatagrams != IntervalReport.NO_VALUE) {
+                // CSV reports the out-of-order datagrams in the same line
+                outOfOrderDatagrams = sumOfPresent(outOfOrderDatagrams, report.outOfOrderDatagrams)
+                outOfOrderCountedUntilMicros = report.intervalEndMicros
+            }
+            if (report.jitterMicros != IntervalReport.NO_VALUE) {
+                jitterSumMicros += report.jitterMicros
+                jitterIntervals++
+            }
+        }
+    }
+
+    /** Statistics are read right away, so they could be modified by the caller afterwards */
+    fun onDownloadFinish(statistics: PercentileStatistics, stopReason: StopReason) {
+        lock.withLock { download = SpeedSummary(statistics, stopReason) }
+    }
+
+    /** Statistics are read right away, so they could be modified by the caller afterwards */
+    fun onUploadFinish(statistics: PercentileStatistics, stopReason: StopReason) {
+        lock.withLock { upload = SpeedSummary(statistics, stopReason) }
+    }
+
+    fun toResult(creationTime: Date = Date(), description: String = ""): SpeedTestResult {
+        lock.withLock {
+            val pingStatistics = ping ?: PingStatistics(0)
+            val medianRttMicros = pingStatistics.medianRttMicros
+            val pingMillis = if (medianRttMicros == IntervalReport.NO_VALUE) {
+                IntervalReport.NO_VALUE
+            } else {
+                medianRttMicros / MICROS_IN_MILLI
+            }
+            return SpeedTestResult(
+                upload.mean,
+                download.mean,
+                pingMillis,
+                creationTime,
+                serverAddress,
+                description,
+                download.p5,
+                download.p50,
+                download.p90,
+                download.p99,
+                upload.p5,
+                upload.p50,
+                upload.p90,
+                upload.p99,
+                download.stopReason,
+                download.sampleCount,
+                upload.stopReason,
+                upload.sampleCount,
+                if (jitterIntervals > 0) jitterSumMicros / jitterIntervals else IntervalReport.NO_VALUE,
+                lostDatagrams,
+                totalDatagrams,
+                outOfOrderDatagrams,
+                pingStatistics.sent,
+                pingStatistics.received,
+                pingStatistics.minRttMicros,
+                medianRttMicros,
+                pingStatistics.meanRttMicros,
+                pingStatistics.maxRttMicros,
+                pingStatistics.jitterMicros,
+            )
+        }
+    }
+
+    private class SpeedSummary(
+        val mean: Long = 0,
+        val p5: Long = 0,
+        val p50: Long = 0,
+        val p90: Long = 0,
+        val p99: Long = 0,
+        val stopReason: StopReason = StopReason.COMPLETED,
+        val sampleCount: Long = 0,
+    ) {
+        constructor(statistics: PercentileStatistics, stopReason: StopReason) : this(
+            statistics.average.toLong(),
+            statistics.getPercentile(PercentileStatistics.P5),
+            statistics.getPercentile(PercentileStatistics.P50),
+            statistics.getPercentile(PercentileStatistics.P90),
+            statistics.getPercentile(PercentileStatistics.P99),
+            stopReason,
+            statistics.count,
+        )
+    }
+
+    companion object {
+        /** Longer addresses are rejected by the repository */
+        private const val MAX_SERVER_ADDRESS_LENGTH = 32
+        private const val MICROS_IN_MILLI = 1000L
+
+        private fun sumOfPresent(first: Long, second: Long): Long = when {
+            first == IntervalReport.NO_VALUE -> second
+            second == IntervalReport.NO_VALUE -> first
+            else -> first + second
+        }
+    }
+}
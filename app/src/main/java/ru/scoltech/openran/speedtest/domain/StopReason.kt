@@ -0,0 +1,16 @@
+package ru.scoltech.openran.speedtest.domain
+
+/** Reason of the speed test phase end */
+enum class StopReason {
+    /** iPerf finished after the requested duration */
+    COMPLETED,
+
+    /** Measured speed became stable, so iPerf was interrupted early */
+    CONVERGED,
+
+    /** iPerf did not print anything for too long */
+    IDLE_TIMEOUT,
+
+    /** Test was stopped by the user */
+    STOPPED,
+}
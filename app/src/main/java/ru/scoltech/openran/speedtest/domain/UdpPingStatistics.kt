@@ -0,0 +1,81 @@
+package ru.scoltech.openran.speedtest.domain
+
+import ru.scoltech.openran.speedtest.util.LogHistogram
+
+/**
+ * Statistics of a UDP ping, round trip times are in microseconds.
+ *
+ * Reply is reordered if a reply to a later probe has been received before it.
+ * Probes which are not answered yet are counted as [lost], so the value is final
+ * only when the ping is finished. Instances are mutable and are not thread safe,
+ * so values that are needed in another thread should be copied using [set].
+ */
+class UdpPingStatistics {
+    private val rttsMicros = LogHistogram()
+
+    var sent: Long = 0
+        private set
+    var received: Long = 0
+        private set
+    var duplicated: Long = 0
+        private set
+    var reordered: Long = 0
+        private set
+
+    val lost: Long
+        get() = sent - received
+
+    fun onSent() {
+        sent++
+    }
+
+    fun onReply(rttMicros: Long, isReordered: Boolean) {
+        rttsMicros.record(maxOf(rttMicros, 0L))
+        received++
+        if (isReordered) {
+            reordered++
+        }
+    }
+
+    fun onDuplicate() {
+        duplicated++
+    }
+
+    /**
+     * @param percentile value in `[0, 100]`
+     * @return round trip time at the percentile or [IntervalReport.NO_VALUE] if there are no replies.
+     */
+    fun getRttPercentileMicros(percentile: Double): Long {
+        return if (received > 0) rttsMicros.getValueAtPercentile(percentile) else IntervalReport.NO_VALUE
+    }
+
+    fun reset() {
+        rttsMicros.reset()
+        sent = 0
+        received = 0
+        duplicated = 0
+        reordered = 0
+    }
+
+    fun set(other: UdpPingStatistics): UdpPingStatistics {
+        rttsMicros.reset()
+        rttsMicros.merge(other.rttsMicros)
+        sent = other.sent
+        received = other.received
+        duplicated = other.duplicated
+        reordered = other.reordered
+        return this
+    }
+
+    override fun toString(): String {
+        return "UdpPingStatistics(sent=$sent, received=$received, duplicated=$duplicated, " +
+                "reordered=$reordered, p50=${getRttPercentileMicros(P50)}, " +
+                "p90=${getRttPercentileMicros(P90)}, p99=${getRttPercentileMicros(P99)})"
+    }
+
+    companion object {
+        const val P50 = 50.0
+        const val P90 = 90.0
+        const val P99 = 99.0
+    }
+}
@@ -2,43 +2,97 @@ package ru.scoltech.openran.speedtest.manager
 
 import android.content.Context
 import io.swagger.client.model.ServerAddressResponse
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import ru.scoltech.openran.speedtest.backend.IperfLaunchStrategy
+import ru.scoltech.openran.speedtest.backend.IperfWorker
+import ru.scoltech.openran.speedtest.backend.ServiceAddressCache
+import ru.scoltech.openran.speedtest.backend.ServiceApi
+import ru.scoltech.openran.speedtest.backend.ServiceHttpClient
+import ru.scoltech.openran.speedtest.domain.IntervalReport
+import ru.scoltech.openran.speedtest.domain.PingStatistics
+import ru.scoltech.openran.speedtest.domain.SpeedTestResultCollector
+import ru.scoltech.openran.speedtest.domain.StopReason
 import ru.scoltech.openran.speedtest.parser.MultithreadedIperfOutputParser
+import ru.scoltech.openran.speedtest.repository.SpeedTestResultRepository
+import ru.scoltech.openran.speedtest.task.RetryPolicy
+import ru.scoltech.openran.speedtest.task.RetryTask
 import ru.scoltech.openran.speedtest.task.TaskChain
 import ru.scoltech.openran.speedtest.task.TaskChainBuilder
+import ru.scoltech.openran.speedtest.task.TaskTracer
 import ru.scoltech.openran.speedtest.task.impl.*
+import ru.scoltech.openran.speedtest.util.ConvergenceDetector
+import ru.scoltech.openran.speedtest.util.Equalizer
+import ru.scoltech.openran.speedtest.util.PercentileStatistics
+import ru.scoltech.openran.speedtest.util.RampUpDetector
+import ru.scoltech.openran.speedtest.util.RampUpSkippingEqualizer
 import ru.scoltech.openran.speedtest.util.SkipThenAverageEqualizer
+import java.io.File
+import java.io.IOException
 import java.net.InetSocketAddress
-import java.util.*
 import java.util.concurrent.atomic.AtomicReference
 import java.util.concurrent.locks.ReentrantLock
 import java.util.function.BiConsumer
 import java.util.function.Consumer
-import java.util.function.LongConsumer
 import kotlin.concurrent.withLock
 
 class DownloadUploadSpeedTestManager
 private constructor(
     private val context: Context,
-    private val onPingUpdate: (Long) -> Unit,
+    private val onPingUpdate: (PingStatistics) -> Unit,
     private val onDownloadStart: () -> Unit,
-    private val onDownloadSpeedUpdate: (LongSummaryStatistics, Long) -> Unit,
-    private val onDownloadFinish: (LongSummaryStatistics) -> Unit,
+    private val onDownloadSpeedUpdate: (PercentileStatistics, Long) -> Unit,
+    private val onDownloadIntervalReport: (IntervalReport) -> Unit,
+    private val onDownloadFinish: (PercentileStatistics, StopReason) -> Unit,
     private val onUploadStart: () -> Unit,
-    private val onUploadSpeedUpdate: (LongSummaryStatistics, Long) -> Unit,
-    private val onUploadFinish: (LongSummaryStatistics) -> Unit,
+    private val onUploadSpeedUpdate: (PercentileStatistics, Long) -> Unit,
+    private val onUploadFinish: (PercentileStatistics, StopReason) -> Unit,
     private val onFinish: () -> Unit,
     private val onStop: () -> Unit,
     private val onLog: (String, String, Exception?) -> Unit,
+    private val logIperfOutput: Boolean,
     private val onFatalError: (String, Exception?) -> Unit,
+    private val downloadEqualizer: Equalizer<*>,
+    private val uploadEqualizer: Equalizer<*>,
+    private val convergenceDetector: ConvergenceDetector?,
+    private val serviceAddressCache: ServiceAddressCache?,
+    private val traceDirectory: File?,
+    private val resultRepository: SpeedTestResultRepository?,
 ) {
     private val lock = ReentrantLock()
     private var taskChain: TaskChain<*>? = null
+    private val iperfWorker = IperfWorker.getInstance(context)
+
+    // neither acquiring a service nor starting iPerf is idempotent, so they are neither hedged
+    // nor retried after a timeout, which could leak an assignment or start iPerf twice
+    private val retryPolicy = RetryPolicy(
+        DEFAULT_RETRY_MAX_ATTEMPTS,
+        DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS,
+        DEFAULT_RETRY_MAX_BACKOFF_MILLIS,
+        DEFAULT_ATTEMPT_TIMEOUT_MILLIS,
+        idempotent = false,
+    )
+
+    init {
+        // worker start is blocking, so it is started in advance to be ready for the first test
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                iperfWorker.ensureStarted()
+            } catch (e: IOException) {
+                onLog(LOG_TAG, "Could not start iPerf worker", e)
+            }
+        }
+    }
 
     fun start(useBalancer: Boolean, mainAddress: String, idleBetweenTasksMelees: Long) {
+        val tracer = traceDirectory?.let { TaskTracer() }
+        val resultCollector = resultRepository?.let { SpeedTestResultCollector(mainAddress) }
         val localTaskChain = if (useBalancer) {
-            buildChainUsingBalancer(idleBetweenTasksMelees)
+            buildChainUsingBalancer(idleBetweenTasksMelees, tracer, resultCollector)
         } else {
-            buildDirectIperfChain()
+            buildDirectIperfChain(tracer, resultCollector)
         }
 
         lock.withLock {
@@ -46,101 +100,256 @@ private constructor(
         }
     }
 
-    fun buildChainUsingBalancer(idleBetweenTasksMelees: Long): TaskChain<String> {
+    /** Saves the result of the finished test without blocking the chain */
+    private fun saveResult(resultCollector: SpeedTestResultCollector?) {
+        val repository = resultRepository
+        if (repository == null || resultCollector == null) {
+            return
+        }
+        val result = resultCollector.toResult()
+        CoroutineScope(Dispatchers.IO).launch {
+            repository.save(result)
+        }
+    }
+
+    /**
+     * Writes the task spans of the test to a new file of the [traceDirectory]
+     * as a Chrome trace JSON, which could be opened by Perfetto UI.
+     * Only [MAX_TRACE_FILES] newest traces are kept.
+     */
+    private fun exportTrace(tracer: TaskTracer?) {
+        val directory = traceDirectory
+        if (directory == null || tracer == null) {
+            return
+        }
+        // chain terminates in the thread of the last task, which could be the iPerf output loop
+        CoroutineScope(Dispatchers.IO).launch {
+            val file = File(directory, "$TRACE_FILE_PREFIX${System.currentTimeMillis()}$TRACE_FILE_SUFFIX")
+            try {
+                if (!directory.isDirectory && !directory.mkdirs()) {
+                    throw IOException("Could not create directory $directory")
+                }
+                file.bufferedWriter().use { tracer.writeChromeTrace(it) }
+            } catch (e: IOException) {
+                onLog(LOG_TAG, "Could not export the trace", e)
+                return@launch
+            }
+            onLog(LOG_TAG, "Trace is exported to $file", null)
+
+            directory.listFiles { _, name -> name.startsWith(TRACE_FILE_PREFIX) }
+                ?.sortedByDescending { it.name }
+                ?.drop(MAX_TRACE_FILES)
+                ?.forEach { it.delete() }
+        }
+    }
+
+    /**
+     * Builds the chain acquiring the services from the balancer.
+     * Upload service is acquired during the download, and the upload starts
+     * as soon as the download service is released, if they are the same,
+     * or right after the download otherwise.
+     *
+     * @param idleBetweenTasksMelees max time to wait for the download service release
+     * @param resultCollector receives the values of the test, which are saved when it finishes
+     */
+    fun buildChainUsingBalancer(
+        idleBetweenTasksMelees: Long,
+        tracer: TaskTracer? = null,
+        resultCollector: SpeedTestResultCollector? = null,
+    ): TaskChain<String> {
         val balancerApiBuilder = BalancerApiBuilder()
+            .setHttpClient(ServiceHttpClient.newClient())
             .setConnectTimeout(DEFAULT_TIMEOUT)
             .setReadTimeout(DEFAULT_TIMEOUT)
             .setWriteTimeout(DEFAULT_TIMEOUT)
 
-        val obtainServiceAddressesTask = ObtainServiceAddressesTask(balancerApiBuilder)
+        val obtainServiceAddressesTask = ObtainServiceAddressesTask(
+            balancerApiBuilder,
+            cache = serviceAddressCache,
+        )
         val startServiceIperfTask = StartServiceIperfTask(
             balancerApiBuilder,
             "-s $DEFAULT_DOWNLOAD_SERVER_ARGS"
         )
         val stopServiceIperfTask = StopServiceIperfTask(balancerApiBuilder)
         val startIperfTask = StartIperfTask(
-            context.filesDir.absolutePath,
+            IperfLaunchStrategy.Worker(iperfWorker),
             "$DEFAULT_COMMON_CLIENT_ARGS $DEFAULT_DOWNLOAD_CLIENT_ARGS",
             MultithreadedIperfOutputParser(),
-            SkipThenAverageEqualizer(
-                DEFAULT_EQUALIZER_DOWNLOAD_VALUES_SKIP,
-                DEFAULT_EQUALIZER_MAX_STORING
-            ),
+            downloadEqualizer,
+            convergenceDetector,
             balancerApiBuilder.connectTimeout.toLong(),
             onDownloadStart,
             onDownloadSpeedUpdate,
-            onDownloadFinish,
-            onLog
+            collectingDownloadIntervalReport(resultCollector),
+            collectingDownloadFinish(resultCollector),
+            onLog,
+            logIperfOutput,
         )
 
         val balancerAddress = AtomicReference<InetSocketAddress>()
-        val chainBuilder = TaskChainBuilder<String>().onFatalError(onFatalError).onStop(onStop)
+        val downloadServiceReleased = CompletableDeferred<Unit>()
+        val chainBuilder = TaskChainBuilder<String>()
+            .onFatalError { message, exception ->
+                // the assigned service could be broken, so it should be acquired again next time
+                balancerAddress.get()?.let { serviceAddressCache?.invalidate(it) }
+                onFatalError(message, exception)
+            }
+            .onStop(onStop)
+            .onTerminate { exportTrace(tracer) }
+            .tracer(tracer)
         chainBuilder.initializeNewChain()
             .andThen(ParseAddressTask())
             .andThenUnstoppable {
                 balancerAddress.set(it)
                 it
             }
-            .andThen(obtainServiceAddressesTask)
-            .andThenUnstoppable { listOf(it) }
+            .andThenRetry(obtainServiceAddressesTask, retryPolicy)
+            .andThenUnstoppable {
+                // control calls reuse the connection opened while the ping is running
+                ServiceApi(balancerApiBuilder.httpClient).preconnect(it.ip, it.port)
+                // TODO pass all the candidates, when the balancer API returns them,
+                //  the acquire call assigns a single service for now, so only it is probed
+                listOf(it)
+            }
+            .andThen(PingServiceAddressesTask(DEFAULT_PING_DEADLINE_MILLIS, collectingPingUpdate(resultCollector)))
+            .andThenParallel(
+                chainBuilder.sequence<ServerAddressResponse, ServerAddressResponse?> {
+                    andThenTry(RetryTask(startServiceIperfTask, retryPolicy)) {
+                        andThen(startIperfTask)
+                    }.andThenFinally {
+                        stopServiceIperfTask(it) { downloadServiceReleased.complete(Unit) }
+                    }.andThenUnstoppable<ServerAddressResponse?> { it }
+                },
+                // upload service is acquired while the download is running, bypassing the cache,
+                // which would assign the download service again. A failure of the acquire
+                // must not abort the download, the service is acquired after it instead
+                chainBuilder.orNull(
+                    chainBuilder.sequence<ServerAddressResponse, ServerAddressResponse> {
+                        andThenUnstoppable { balancerAddress.get() }
+                            .andThenRetry(obtainServiceAddressesTask.copy(cache = null), retryPolicy)
+                    }
+                ),
+            )
             .andThen(
-                PingServiceAddressesTask(
-                    balancerApiBuilder.connectTimeout.toLong(),
-                    onPingUpdate
+                AwaitServiceReleaseTask(
+                    downloadServiceReleased,
+                    idleBetweenTasksMelees,
+                    chainBuilder.sequence<Unit, ServerAddressResponse> {
+                        andThenUnstoppable { balancerAddress.get() }
+                            .andThenRetry(obtainServiceAddressesTask, retryPolicy)
+                    },
                 )
             )
-            .andThenTry(startServiceIperfTask) {
-                andThen(startIperfTask)
-            }.andThenFinally(stopServiceIperfTask)
-            .andThen(DelayTask(idleBetweenTasksMelees))
-            .andThenUnstoppable { balancerAddress.get() }
-            .andThen(obtainServiceAddressesTask)
-            .andThenTry(startServiceIperfTask.copy(args = "-s $DEFAULT_UPLOAD_SERVER_ARGS")) {
+            .andThenTry(
+                RetryTask(
+                    startServiceIperfTask.copy(args = "-s $DEFAULT_UPLOAD_SERVER_ARGS"),
+                    retryPolicy,
+                )
+            ) {
                 andThen(
                     startIperfTask.copy(
                         args = "$DEFAULT_COMMON_CLIENT_ARGS $DEFAULT_UPLOAD_CLIENT_ARGS",
-                        speedEqualizer = SkipThenAverageEqualizer(
-                            DEFAULT_EQUALIZER_UPLOAD_VALUES_SKIP,
-                            DEFAULT_EQUALIZER_MAX_STORING
-                        ),
+                        speedEqualizer = uploadEqualizer,
                         onStart = onUploadStart,
                         onSpeedUpdate = onUploadSpeedUpdate,
-                        onFinish = onUploadFinish,
+                        // upload is TCP, so its reports have only the speed, which is passed anyway
+                        onIntervalReport = {},
+                        onFinish = collectingUploadFinish(resultCollector),
                     )
                 )
             }.andThenFinally(stopServiceIperfTask)
-            .andThenUnstoppable { onFinish() }
+            .andThenUnstoppable {
+                saveResult(resultCollector)
+                onFinish()
+            }
         return chainBuilder.finishChainCreation()
     }
 
-    fun buildDirectIperfChain(): TaskChain<String> {
-        val chainBuilder = TaskChainBuilder<String>().onFatalError(onFatalError).onStop(onStop)
+    fun buildDirectIperfChain(
+        tracer: TaskTracer? = null,
+        resultCollector: SpeedTestResultCollector? = null,
+    ): TaskChain<String> {
+        val chainBuilder = TaskChainBuilder<String>()
+            .onFatalError(onFatalError)
+            .onStop(onStop)
+            .onTerminate { exportTrace(tracer) }
+            .tracer(tracer)
         chainBuilder.initializeNewChain()
             .andThen(ParseAddressTask())
             .andThenUnstoppable {
                 listOf(ServerAddressResponse().ip(it.address.hostAddress).portIperf(it.port))
             }
-            .andThen(PingServiceAddressesTask(DEFAULT_TIMEOUT.toLong(), onPingUpdate))
+            .andThen(PingServiceAddressesTask(DEFAULT_PING_DEADLINE_MILLIS, collectingPingUpdate(resultCollector)))
             .andThen(
                 StartIperfTask(
-                    context.filesDir.absolutePath,
+                    IperfLaunchStrategy.Worker(iperfWorker),
                     "$DEFAULT_COMMON_CLIENT_ARGS $DEFAULT_DOWNLOAD_CLIENT_ARGS",
                     MultithreadedIperfOutputParser(),
-                    SkipThenAverageEqualizer(
-                        DEFAULT_EQUALIZER_DOWNLOAD_VALUES_SKIP,
-                        DEFAULT_EQUALIZER_MAX_STORING
-                    ),
+                    downloadEqualizer,
+                    convergenceDetector,
                     DEFAULT_TIMEOUT.toLong(),
                     onDownloadStart,
                     onDownloadSpeedUpdate,
-                    onDownloadFinish,
-                    onLog
+                    collectingDownloadIntervalReport(resultCollector),
+                    collectingDownloadFinish(resultCollector),
+                    onLog,
+                    logIperfOutput,
                 )
             )
-            .andThenUnstoppable { onFinish() }
+            .andThenUnstoppable {
+                saveResult(resultCollector)
+                onFinish()
+            }
         return chainBuilder.finishChainCreation()
     }
 
+    private fun collectingPingUpdate(resultCollector: SpeedTestResultCollector?): (PingStatistics) -> Unit {
+        if (resultCollector == null) {
+            return onPingUpdate
+        }
+        return {
+            resultCollector.onPingUpdate(it)
+            onPingUpdate(it)
+        }
+    }
+
+    private fun collectingDownloadIntervalReport(
+        resultCollector: SpeedTestResultCollector?,
+    ): (IntervalReport) -> Unit {
+        if (resultCollector == null) {
+            return onDownloadIntervalReport
+        }
+        return {
+            resultCollector.onDownloadIntervalReport(it)
+            onDownloadIntervalReport(it)
+        }
+    }
+
+    private fun collectingDownloadFinish(
+        resultCollector: SpeedTestResultCollector?,
+    ): (PercentileStatistics, StopReason) -> Unit {
+        if (resultCollector == null) {
+            return onDownloadFinish
+        }
+        return { statistics, stopReason ->
+            resultCollector.onDownloadFinish(statistics, stopReason)
+            onDownloadFinish(statistics, stopReason)
+        }
+    }
+
+    private fun collectingUploadFinish(
+        resultCollector: SpeedTestResultCollector?,
+    ): (PercentileStatistics, StopReason) -> Unit {
+        if (resultCollector == null) {
+            return onUploadFinish
+        }
+        return { statistics, stopReason ->
+            resultCollector.onUploadFinish(statistics, stopReason)
+            onUploadFinish(statistics, stopReason)
+        }
+    }
+
     fun stop() {
         lock.withLock {
             taskChain?.stop()
@@ -148,19 +357,35 @@ private constructor(
     }
 
     class Builder(private val context: Context) {
-        private var onPingUpdate: LongConsumer = LongConsumer {}
+        private var onPingUpdate: Consumer<PingStatistics> = Consumer {}
         private var onDownloadStart: Runnable = Runnable {}
-        private var onDownloadSpeedUpdate: BiConsumer<LongSummaryStatistics, Long> =
+        private var onDownloadSpeedUpdate: BiConsumer<PercentileStatistics, Long> =
+            BiConsumer { _, _ -> }
+        private var onDownloadIntervalReport: Consumer<IntervalReport> = Consumer {}
+        private var onDownloadFinish: BiConsumer<PercentileStatistics, StopReason> =
             BiConsumer { _, _ -> }
-        private var onDownloadFinish: Consumer<LongSummaryStatistics> = Consumer {}
         private var onUploadStart: Runnable = Runnable {}
-        private var onUploadSpeedUpdate: BiConsumer<LongSummaryStatistics, Long> =
+        private var onUploadSpeedUpdate: BiConsumer<PercentileStatistics, Long> =
+            BiConsumer { _, _ -> }
+        private var onUploadFinish: BiConsumer<PercentileStatistics, StopReason> =
             BiConsumer { _, _ -> }
-        private var onUploadFinish: Consumer<LongSummaryStatistics> = Consumer {}
         private var onFinish: Runnable = Runnable {}
         private var onStop: Runnable = Runnable {}
         private var onLog: (String, String, Exception?) -> Unit = { _, _, _ -> }
+        private var logIperfOutput: Boolean = false
         private var onFatalError: BiConsumer<String, Exception?> = BiConsumer { _, _ -> }
+        private var downloadEqualizer: Equalizer<*> = newDefaultEqualizer()
+        private var uploadEqualizer: Equalizer<*> = newDefaultEqualizer()
+        private var convergenceDetector: ConvergenceDetector? = ConvergenceDetector(
+            DEFAULT_CONVERGENCE_WINDOW_SIZE,
+            DEFAULT_CONVERGENCE_MAX_RELATIVE_HALF_WIDTH,
+            DEFAULT_CONVERGENCE_MIN_SAMPLES,
+        )
+        private var serviceAddressCache: ServiceAddressCache? =
+            ServiceAddressCache.getInstance(context)
+        private var traceDirectory: File? = File(context.cacheDir, DEFAULT_TRACE_DIRECTORY_NAME)
+        private var resultRepository: SpeedTestResultRepository? =
+            SpeedTestResultRepository.getInstance(context)
 
         fun build(): DownloadUploadSpeedTestManager {
             return DownloadUploadSpeedTestManager(
@@ -168,6 +393,7 @@ private constructor(
                 onPingUpdate::accept,
                 onDownloadStart::run,
                 onDownloadSpeedUpdate::accept,
+                onDownloadIntervalReport::accept,
                 onDownloadFinish::accept,
                 onUploadStart::run,
                 onUploadSpeedUpdate::accept,
@@ -175,11 +401,19 @@ private constructor(
                 onFinish::run,
                 onStop::run,
                 onLog::invoke,
+                logIperfOutput,
                 onFatalError::accept,
+                downloadEqualizer,
+                uploadEqualizer,
+                convergenceDetector,
+                serviceAddressCache,
+                traceDirectory,
+                resultRepository,
             )
         }
 
-        fun onPingUpdate(onPingUpdate: LongConsumer): Builder {
+        /** Statistics are copies, so they can be passed to another thread */
+        fun onPingUpdate(onPingUpdate: Consumer<PingStatistics>): Builder {
             this.onPingUpdate = onPingUpdate
             return this
         }
@@ -189,12 +423,21 @@ private constructor(
             return this
         }
 
-        fun onDownloadSpeedUpdate(onDownloadSpeedUpdate: BiConsumer<LongSummaryStatistics, Long>): Builder {
+        fun onDownloadSpeedUpdate(onDownloadSpeedUpdate: BiConsumer<PercentileStatistics, Long>): Builder {
             this.onDownloadSpeedUpdate = onDownloadSpeedUpdate
             return this
         }
 
-        fun onDownloadFinish(onDownloadFinish: Consumer<LongSummaryStatistics>): Builder {
+        /**
+         * Sets the receiver of the download interval reports.
+         * Report instance is reused, so it should be copied to be retained.
+         */
+        fun onDownloadIntervalReport(onDownloadIntervalReport: Consumer<IntervalReport>): Builder {
+            this.onDownloadIntervalReport = onDownloadIntervalReport
+            return this
+        }
+
+        fun onDownloadFinish(onDownloadFinish: BiConsumer<PercentileStatistics, StopReason>): Builder {
             this.onDownloadFinish = onDownloadFinish
             return this
         }
@@ -204,12 +447,12 @@ private constructor(
             return this
         }
 
-        fun onUploadSpeedUpdate(onUploadSpeedUpdate: BiConsumer<LongSummaryStatistics, Long>): Builder {
+        fun onUploadSpeedUpdate(onUploadSpeedUpdate: BiConsumer<PercentileStatistics, Long>): Builder {
             this.onUploadSpeedUpdate = onUploadSpeedUpdate
             return this
         }
 
-        fun onUploadFinish(onUploadFinish: Consumer<LongSummaryStatistics>): Builder {
+        fun onUploadFinish(onUploadFinish: BiConsumer<PercentileStatistics, StopReason>): Builder {
             this.onUploadFinish = onUploadFinish
             return this
         }
@@ -229,21 +472,106 @@ private constructor(
             return this
         }
 
+        /** Passes every iPerf output line to [onLog], disabled by default as it allocates per line */
+        fun logIperfOutput(logIperfOutput: Boolean): Builder {
+            this.logIperfOutput = logIperfOutput
+            return this
+        }
+
         fun onFatalError(onFatalError: BiConsumer<String, Exception?>): Builder {
             this.onFatalError = onFatalError
             return this
         }
+
+        /** Sets the prototype of the download speed equalizer, it is copied for every test */
+        fun downloadEqualizer(downloadEqualizer: Equalizer<*>): Builder {
+            this.downloadEqualizer = downloadEqualizer
+            return this
+        }
+
+        /** Sets the prototype of the upload speed equalizer, it is copied for every test */
+        fun uploadEqualizer(uploadEqualizer: Equalizer<*>): Builder {
+            this.uploadEqualizer = uploadEqualizer
+            return this
+        }
+
+        /**
+         * Sets the prototype of the speed convergence detector, it is copied for every test.
+         * Phase is interrupted early once the raw interval speeds past the ramp-up converge,
+         * `null` disables it.
+         */
+        fun convergenceDetector(convergenceDetector: ConvergenceDetector?): Builder {
+            this.convergenceDetector = convergenceDetector
+            return this
+        }
+
+        /**
+         * Sets the cache of the services assigned by the balancer,
+         * `null` makes every test acquire a service from the balancer.
+         */
+        fun serviceAddressCache(serviceAddressCache: ServiceAddressCache?): Builder {
+            this.serviceAddressCache = serviceAddressCache
+            return this
+        }
+
+        /**
+         * Sets the directory to which the task trace of every test is exported when it is over,
+         * `null` disables tracing. By default it is a subdirectory of the cache directory.
+         */
+        fun traceDirectory(traceDirectory: File?): Builder {
+            this.traceDirectory = traceDirectory
+            return this
+        }
+
+        /**
+         * Sets the repository to which the result of every finished test is saved,
+         * `null` disables saving.
+         */
+        fun resultRepository(resultRepository: SpeedTestResultRepository?): Builder {
+            this.resultRepository = resultRepository
+            return this
+        }
     }
 
     companion object {
+        private const val LOG_TAG = "SpeedTestManager"
         private const val DEFAULT_COMMON_CLIENT_ARGS = "-f b -P 10 --sum-only -i 0.1 -b 120m"
         private const val DEFAULT_DOWNLOAD_CLIENT_ARGS = "-u -R"
         private const val DEFAULT_DOWNLOAD_SERVER_ARGS = "-u"
         private const val DEFAULT_UPLOAD_CLIENT_ARGS = ""
         private const val DEFAULT_UPLOAD_SERVER_ARGS = ""
         private const val DEFAULT_TIMEOUT = 1000
+        private const val DEFAULT_RETRY_MAX_ATTEMPTS = 3
+        private const val DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS = 200L
+        private const val DEFAULT_RETRY_MAX_BACKOFF_MILLIS = 2000L
+        // covers connect, write and read timeouts of the http client
+        private const val DEFAULT_ATTEMPT_TIMEOUT_MILLIS = 3L * DEFAULT_TIMEOUT
+        // all the probes of the candidates with the default interval fit with a spare second
+        private const val DEFAULT_PING_DEADLINE_MILLIS = 2000L
         private const val DEFAULT_EQUALIZER_MAX_STORING = 4
-        private const val DEFAULT_EQUALIZER_DOWNLOAD_VALUES_SKIP = 0
-        private const val DEFAULT_EQUALIZER_UPLOAD_VALUES_SKIP = 1
+        private const val DEFAULT_RAMP_UP_WINDOW_SIZE = 5
+        private const val DEFAULT_RAMP_UP_MAX_RELATIVE_GROWTH = 0.05
+        private const val DEFAULT_RAMP_UP_MAX_SAMPLES = 30
+
+        // with 0.1 s intervals the speed should be stable for 2 s and the phase should last 3 s at least
+        private const val DEFAULT_CONVERGENCE_WINDOW_SIZE = 20
+        private const val DEFAULT_CONVERGENCE_MAX_RELATIVE_HALF_WIDTH = 0.03
+        private const val DEFAULT_CONVERGENCE_MIN_SAMPLES = 30
+
+        private const val DEFAULT_TRACE_DIRECTORY_NAME = "traces"
+        private const val TRACE_FILE_PREFIX = "trace-"
+        private const val TRACE_FILE_SUFFIX = ".json"
+        private const val MAX_TRACE_FILES = 10
+
+        private fun newDefaultEqualizer(): Equalizer<*> {
+            return RampUpSkippingEqualizer(
+                SkipThenAverageEqualizer(0, DEFAULT_EQUALIZER_MAX_STORING),
+                RampUpDetector(
+                    DEFAULT_RAMP_UP_WINDOW_SIZE,
+                    DEFAULT_RAMP_UP_MAX_RELATIVE_GROWTH,
+                    DEFAULT_RAMP_UP_MAX_SAMPLES,
+                ),
+            )
+        }
     }
 }
@@ -1,12 +1,20 @@
 package ru.scoltech.openran.speedtest.parser
 
-import com.opencsv.CSVParser
+import ru.scoltech.openran.speedtest.domain.IntervalReport
 import java.io.IOException
 import kotlin.jvm.Throws
 
 class CsvIperfOutputParser : IperfOutputParser {
     @Throws(IOException::class)
-    override fun parseSpeed(line: String): Long {
-        return CSVParser().parseLine(line)[8].toLong()
+    override fun parse(line: CharSequence, report: IntervalReport) {
+        if (!scanner.get()!!.scanCsvLine(line, report)) {
+            throw MultithreadedIperfOutputParser.BadFormatException("Output is not an iperf CSV report")
+        }
+    }
+
+    companion object {
+        private val scanner = object : ThreadLocal<IperfLineScanner>() {
+            override fun initialValue() = IperfLineScanner()
+        }
     }
 }
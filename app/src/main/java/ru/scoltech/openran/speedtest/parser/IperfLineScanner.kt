@@ -0,0 +1,273 @@
+package ru.scoltech.openran.speedtest.parser
+
+import ru.scoltech.openran.speedtest.domain.IntervalReport
+
+/**
+ * Reusable scanner of iPerf interval lines.
+ *
+ * Fields are read in place from the passed [CharSequence] by a hand-written scanner
+ * into the passed [IntervalReport], so neither regex matching nor splitting is done
+ * and nothing is allocated per line. Instances are not thread safe.
+ */
+class IperfLineScanner {
+    private var line: CharSequence = ""
+    private var position = 0
+
+    /**
+     * Scans human readable interval line, which is printed with `-f b` option.
+     *
+     * `[SUM-%d] %4.2f-%4.2f sec  %d Bytes  %d bits/sec[  %5.3f ms %4d/%5d (%.2g%%) ...]`
+     * or `[SUM-%d] %4.2f-%4.2f sec  %d datagrams received out-of-order`.
+     * Lines of the separate streams start with `[%3d]` instead of the sum prefix.
+     *
+     * @return `true` if the line matches the format.
+     */
+    fun scanHumanReadableLine(line: CharSequence, report: IntervalReport): Boolean {
+        start(line, report)
+        if (!readStreamId(report) || !skipSpaces() || !readInterval(report) ||
+            !skipSpaces() || !expect("sec") || !skipSpaces()) {
+            return false
+        }
+
+        val count = readUnsigned()
+        skipFraction()
+        if (count == NO_NUMBER || !skipSpaces()) {
+            return false
+        }
+        if (expect(OUT_OF_ORDER_SUFFIX)) {
+            report.outOfOrderDatagrams = count
+            return true
+        }
+        report.bytes = count
+        if (!expect("Bytes") || !skipSpaces() || !readBitsPerSecond(report) ||
+            !skipSpaces() || !expect("bits/sec")) {
+            return false
+        }
+
+        val afterRate = position
+        if (!skipSpaces() || !readUdpStatistics(report)) {
+            position = afterRate
+        }
+        return true
+    }
+
+    /**
+     * Scans line printed with `-y C` option.
+     *
+     * `timestamp,source address,source port,destination address,destination port,id,interval,bytes,bits/sec`
+     * followed by `,jitter ms,lost,total,lost percent,out-of-order` for UDP server reports.
+     * Sum over all streams has the `-1` id.
+     *
+     * @return `true` if the line matches the format.
+     */
+    fun scanCsvLine(line: CharSequence, report: IntervalReport): Boolean {
+        start(line, report)
+        repeat(CSV_ID_FIELD_INDEX) {
+            if (!skipField()) {
+                return false
+            }
+        }
+
+        val streamId = readSigned()
+        if (streamId == NO_SIGNED_NUMBER || !expect(",")) {
+            return false
+        }
+        report.streamId = streamId.toInt()
+        if (!readInterval(report) || !expect(",") || !readBytes(report) || !expect(",") ||
+            !readBitsPerSecond(report)) {
+            return false
+        }
+        if (isEnd()) {
+            return true
+        }
+
+        val jitterMicros = if (expect(",")) readDecimal(MICROS_IN_MILLI) else NO_NUMBER
+        val lost = if (expect(",")) readSigned() else NO_SIGNED_NUMBER
+        val total = if (expect(",")) readSigned() else NO_SIGNED_NUMBER
+        if (jitterMicros == NO_NUMBER || lost == NO_SIGNED_NUMBER || total == NO_SIGNED_NUMBER) {
+            return false
+        }
+        report.jitterMicros = jitterMicros
+        report.lostDatagrams = lost
+        report.totalDatagrams = total
+        if (isEnd()) {
+            return true
+        }
+
+        // lost percent is skipped
+        if (!expect(",") || !skipField()) {
+            return false
+        }
+        val outOfOrder = readSigned()
+        if (outOfOrder == NO_SIGNED_NUMBER) {
+            return false
+        }
+        report.outOfOrderDatagrams = outOfOrder
+        return isEnd() || line[position] == ','
+    }
+
+    private fun start(line: CharSequence, report: IntervalReport) {
+        this.line = line
+        position = 0
+        report.reset()
+        report.timestampNanos = System.nanoTime()
+    }
+
+    private fun isEnd() = position == line.length
+
+    /** Reads `[SUM-%d]`, `[SUM]` or `[%3d]` */
+    private fun readStreamId(report: IntervalReport): Boolean {
+        if (!expect("[")) {
+            return false
+        }
+        if (expect(SUM_LABEL)) {
+            if (expect("-") && readUnsigned() == NO_NUMBER) {
+                return false
+            }
+            report.streamId = IntervalReport.SUM_STREAM_ID
+        } else {
+            skipSpaces()
+            val streamId = readUnsigned()
+            if (streamId == NO_NUMBER) {
+                return false
+            }
+            report.streamId = streamId.toInt()
+        }
+        return expect("]")
+    }
+
+    private fun readInterval(report: IntervalReport): Boolean {
+        report.intervalStartMicros = readDecimal(MICROS_IN_SECOND)
+        if (report.intervalStartMicros == NO_NUMBER || !expect("-")) {
+            return false
+        }
+        report.intervalEndMicros = readDecimal(MICROS_IN_SECOND)
+        return report.intervalEndMicros != NO_NUMBER
+    }
+
+    private fun readBytes(report: IntervalReport): Boolean {
+        report.bytes = readUnsigned()
+        skipFraction()
+        return report.bytes != NO_NUMBER
+    }
+
+    private fun readBitsPerSecond(report: IntervalReport): Boolean {
+        report.bitsPerSecond = readUnsigned()
+        skipFraction()
+        return report.bitsPerSecond != NO_NUMBER
+    }
+
+    /** Reads `%5.3f ms %4d/%5d`, the rest of the line is ignored */
+    private fun readUdpStatistics(report: IntervalReport): Boolean {
+        val jitterMicros = readDecimal(MICROS_IN_MILLI)
+        if (jitterMicros == NO_NUMBER || !skipSpaces() || !expect("ms") || !skipSpaces()) {
+            return false
+        }
+        val lost = readSigned()
+        if (lost == NO_SIGNED_NUMBER || !expect("/")) {
+            return false
+        }
+        skipSpaces()
+        val total = readSigned()
+        if (total == NO_SIGNED_NUMBER) {
+            return false
+        }
+
+        report.jitterMicros = jitterMicros
+        report.lostDatagrams = lost
+        report.totalDatagrams = total
+        return true
+    }
+
+    private fun expect(token: String): Boolean {
+        if (line.length - position < token.length) {
+            return false
+        }
+        for (index in token.indices) {
+            if (line[position + index] != token[index]) {
+                return false
+            }
+        }
+        position += token.length
+        return true
+    }
+
+    /** @return `true` if at least one whitespace is skipped */
+    private fun skipSpaces(): Boolean {
+        val start = position
+        while (position < line.length && line[position].isWhitespace()) {
+            position++
+        }
+        return position > start
+    }
+
+    /** Skips a field and the following comma */
+    private fun skipField(): Boolean {
+        while (position < line.length && line[position] != ',') {
+            position++
+        }
+        return expect(",")
+    }
+
+    /** @return parsed number or [NO_NUMBER] if there are no digits */
+    private fun readUnsigned(): Long {
+        val start = position
+        var value = 0L
+        while (position < line.length && line[position] in '0'..'9') {
+            value = value * 10 + (line[position] - '0')
+            position++
+        }
+        return if (position > start) value else NO_NUMBER
+    }
+
+    /** @return parsed number or [NO_SIGNED_NUMBER] if there are no digits */
+    private fun readSigned(): Long {
+        val start = position
+        val negative = expect("-")
+        val value = readUnsigned()
+        if (value == NO_NUMBER) {
+            position = start
+            return NO_SIGNED_NUMBER
+        }
+        return if (negative) -value else value
+    }
+
+    private fun skipFraction() {
+        if (position < line.length && line[position] == '.') {
+            position++
+            readUnsigned()
+        }
+    }
+
+    /**
+     * Reads unsigned decimal number multiplied by the [scale],
+     * fraction digits that do not fit the scale are truncated.
+     */
+    private fun readDecimal(scale: Long): Long {
+        val integer = readUnsigned()
+        if (integer == NO_NUMBER) {
+            return NO_NUMBER
+        }
+        var value = integer * scale
+        if (position < line.length && line[position] == '.') {
+            position++
+            var digitScale = scale / 10
+            while (position < line.length && line[position] in '0'..'9') {
+                value += (line[position] - '0') * digitScale
+                digitScale /= 10
+                position++
+            }
+        }
+        return value
+    }
+
+    companion object {
+        private const val SUM_LABEL = "SUM"
+        private const val OUT_OF_ORDER_SUFFIX = "datagrams received out-of-order"
+        private const val CSV_ID_FIELD_INDEX = 5
+        private const val NO_NUMBER = -1L
+        private const val NO_SIGNED_NUMBER = Long.MIN_VALUE
+        private const val MICROS_IN_SECOND = 1_000_000L
+        private const val MICROS_IN_MILLI = 1_000L
+    }
+}
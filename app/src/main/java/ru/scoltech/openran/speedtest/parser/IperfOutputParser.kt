@@ -1,10 +1,17 @@
 package ru.scoltech.openran.speedtest.parser
 
+import ru.scoltech.openran.speedtest.domain.IntervalReport
 import java.io.IOException
 import kotlin.jvm.Throws
 
 @FunctionalInterface
 interface IperfOutputParser {
+    /**
+     * Parses iPerf output line into the [report], which is reset before parsing,
+     * so it could be reused for every line.
+     *
+     * @throws IOException if the line is not an interval report.
+     */
     @Throws(IOException::class)
-    fun parseSpeed(line: String): Long
+    fun parse(line: CharSequence, report: IntervalReport)
 }
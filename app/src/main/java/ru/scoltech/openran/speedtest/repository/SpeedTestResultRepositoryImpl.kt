@@ -8,7 +8,9 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteException
 import android.database.sqlite.SQLiteOpenHelper
 import android.util.Log
+import ru.scoltech.openran.speedtest.domain.IntervalReport
 import ru.scoltech.openran.speedtest.domain.SpeedTestResult
+import ru.scoltech.openran.speedtest.domain.StopReason
 import java.util.*
 import kotlin.jvm.Throws
 
@@ -20,13 +22,36 @@ constructor(context: Context) : SpeedTestResultRepository {
     override fun save(result: SpeedTestResult) {
         try {
             databaseHelper.writableDatabase
-                .insertOrThrow(SPEEDTEST_RESULT_TABLE_NAME, null, ContentValues(6).apply {
-                    this.put(UPLOAD_SPEED_COLUMN_NAME, result.downloadSpeed)
-                    this.put(DOWNLOAD_SPEED_COLUMN_NAME, result.uploadSpeed)
+                .insertOrThrow(SPEEDTEST_RESULT_TABLE_NAME, null, ContentValues(29).apply {
+                    this.put(UPLOAD_SPEED_COLUMN_NAME, result.uploadSpeed)
+                    this.put(DOWNLOAD_SPEED_COLUMN_NAME, result.downloadSpeed)
                     this.put(PING_COLUMN_NAME, result.ping)
                     this.put(CREATION_TIME_COLUMN_NAME, result.creationTime.time)
                     this.put(SERVER_ADDRESS_COLUMN_NAME, result.serverAddress)
                     this.put(DESCRIPTION_COLUMN_NAME, result.description)
+                    this.put(DOWNLOAD_SPEED_P5_COLUMN_NAME, result.downloadSpeedP5)
+                    this.put(DOWNLOAD_SPEED_P50_COLUMN_NAME, result.downloadSpeedP50)
+                    this.put(DOWNLOAD_SPEED_P90_COLUMN_NAME, result.downloadSpeedP90)
+                    this.put(DOWNLOAD_SPEED_P99_COLUMN_NAME, result.downloadSpeedP99)
+                    this.put(UPLOAD_SPEED_P5_COLUMN_NAME, result.uploadSpeedP5)
+                    this.put(UPLOAD_SPEED_P50_COLUMN_NAME, result.uploadSpeedP50)
+                    this.put(UPLOAD_SPEED_P90_COLUMN_NAME, result.uploadSpeedP90)
+                    this.put(UPLOAD_SPEED_P99_COLUMN_NAME, result.uploadSpeedP99)
+                    this.put(DOWNLOAD_STOP_REASON_COLUMN_NAME, result.downloadStopReason.name)
+                    this.put(DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME, result.downloadSampleCount)
+                    this.put(UPLOAD_STOP_REASON_COLUMN_NAME, result.uploadStopReason.name)
+                    this.put(UPLOAD_SAMPLE_COUNT_COLUMN_NAME, result.uploadSampleCount)
+                    this.put(DOWNLOAD_JITTER_COLUMN_NAME, result.downloadJitterMicros)
+                    this.put(DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME, result.downloadLostDatagrams)
+                    this.put(DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME, result.downloadTotalDatagrams)
+                    this.put(DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME, result.downloadOutOfOrderDatagrams)
+                    this.put(PING_SENT_COLUMN_NAME, result.pingSent)
+                    this.put(PING_RECEIVED_COLUMN_NAME, result.pingReceived)
+                    this.put(PING_MIN_COLUMN_NAME, result.pingMinMicros)
+                    this.put(PING_MEDIAN_COLUMN_NAME, result.pingMedianMicros)
+                    this.put(PING_MEAN_COLUMN_NAME, result.pingMeanMicros)
+                    this.put(PING_MAX_COLUMN_NAME, result.pingMaxMicros)
+                    this.put(PING_JITTER_COLUMN_NAME, result.pingJitterMicros)
                 })
         } catch (e: SQLException) {
             Log.e(LOG_TAG, "Could not save $result to the database", e)
@@ -67,6 +92,29 @@ constructor(context: Context) : SpeedTestResultRepository {
                 CREATION_TIME_COLUMN_NAME,
                 SERVER_ADDRESS_COLUMN_NAME,
                 DESCRIPTION_COLUMN_NAME,
+                DOWNLOAD_SPEED_P5_COLUMN_NAME,
+                DOWNLOAD_SPEED_P50_COLUMN_NAME,
+                DOWNLOAD_SPEED_P90_COLUMN_NAME,
+                DOWNLOAD_SPEED_P99_COLUMN_NAME,
+                UPLOAD_SPEED_P5_COLUMN_NAME,
+                UPLOAD_SPEED_P50_COLUMN_NAME,
+                UPLOAD_SPEED_P90_COLUMN_NAME,
+                UPLOAD_SPEED_P99_COLUMN_NAME,
+                DOWNLOAD_STOP_REASON_COLUMN_NAME,
+                DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME,
+                UPLOAD_STOP_REASON_COLUMN_NAME,
+                UPLOAD_SAMPLE_COUNT_COLUMN_NAME,
+                DOWNLOAD_JITTER_COLUMN_NAME,
+                DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME,
+                DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME,
+                DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME,
+                PING_SENT_COLUMN_NAME,
+                PING_RECEIVED_COLUMN_NAME,
+                PING_MIN_COLUMN_NAME,
+                PING_MEDIAN_COLUMN_NAME,
+                PING_MEAN_COLUMN_NAME,
+                PING_MAX_COLUMN_NAME,
+                PING_JITTER_COLUMN_NAME,
                 ID_COLUMN_NAME,
             ),
             selection,
@@ -91,6 +139,29 @@ constructor(context: Context) : SpeedTestResultRepository {
                     Date(getLong(getColumnIndexOrThrow(CREATION_TIME_COLUMN_NAME))),
                     getString(getColumnIndexOrThrow(SERVER_ADDRESS_COLUMN_NAME)),
                     getString(getColumnIndexOrThrow(DESCRIPTION_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_SPEED_P5_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_SPEED_P50_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_SPEED_P90_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_SPEED_P99_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(UPLOAD_SPEED_P5_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(UPLOAD_SPEED_P50_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(UPLOAD_SPEED_P90_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(UPLOAD_SPEED_P99_COLUMN_NAME)),
+                    StopReason.valueOf(getString(getColumnIndexOrThrow(DOWNLOAD_STOP_REASON_COLUMN_NAME))),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME)),
+                    StopReason.valueOf(getString(getColumnIndexOrThrow(UPLOAD_STOP_REASON_COLUMN_NAME))),
+                    getLong(getColumnIndexOrThrow(UPLOAD_SAMPLE_COUNT_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_JITTER_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME)),
+                    getInt(getColumnIndexOrThrow(PING_SENT_COLUMN_NAME)),
+                    getInt(getColumnIndexOrThrow(PING_RECEIVED_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(PING_MIN_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(PING_MEDIAN_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(PING_MEAN_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(PING_MAX_COLUMN_NAME)),
+                    getLong(getColumnIndexOrThrow(PING_JITTER_COLUMN_NAME)),
                     getLong(getColumnIndexOrThrow(ID_COLUMN_NAME)),
                 ).also { moveToNext() }
             }
@@ -113,39 +184,99 @@ constructor(context: Context) : SpeedTestResultRepository {
                         "$CREATION_TIME_COLUMN_NAME INTEGER NOT NULL, " +
                         "$SERVER_ADDRESS_COLUMN_NAME TEXT NOT NULL, " +
                         "$DESCRIPTION_COLUMN_NAME TEXT NOT NULL, " +
+                        "$DOWNLOAD_SPEED_P5_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_SPEED_P50_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_SPEED_P90_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_SPEED_P99_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$UPLOAD_SPEED_P5_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$UPLOAD_SPEED_P50_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$UPLOAD_SPEED_P90_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$UPLOAD_SPEED_P99_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_STOP_REASON_COLUMN_NAME TEXT NOT NULL, " +
+                        "$DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$UPLOAD_STOP_REASON_COLUMN_NAME TEXT NOT NULL, " +
+                        "$UPLOAD_SAMPLE_COUNT_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_JITTER_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_SENT_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_RECEIVED_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_MIN_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_MEDIAN_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_MEAN_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_MAX_COLUMN_NAME INTEGER NOT NULL, " +
+                        "$PING_JITTER_COLUMN_NAME INTEGER NOT NULL, " +
                         "CHECK(LENGTH($SERVER_ADDRESS_COLUMN_NAME) <= $SERVER_ADDRESS_COLUMN_MAX_LENGTH), " +
                         "CHECK(LENGTH($DESCRIPTION_COLUMN_NAME) <= $DESCRIPTION_COLUMN_MAX_LENGTH)" +
                         ");"
             )
         }
 
-        private fun changeVersion(
-            db: SQLiteDatabase,
-            actionMessage: String,
-            oldVersion: Int,
-            newVersion: Int
-        ) {
-            Log.w(
-                LOG_TAG, "$actionMessage database from version $oldVersion to $newVersion, " +
-                        "which will destroy all old data"
-            )
-            db.execSQL("DROP TABLE IF EXISTS $SPEEDTEST_RESULT_TABLE_NAME;")
-            onCreate(db)
+        /**
+         * Every version only adds columns, so old results are kept. Their values are
+         * the defaults of [SpeedTestResult], i.e. absent. Helper runs it in a transaction.
+         */
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            Log.i(LOG_TAG, "Upgrading database from version $oldVersion to $newVersion")
+            if (oldVersion < UDP_STATISTICS_VERSION) {
+                db.addColumn(DOWNLOAD_JITTER_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+            }
+            if (oldVersion < SPEED_PERCENTILES_VERSION) {
+                db.addColumn(DOWNLOAD_SPEED_P5_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(DOWNLOAD_SPEED_P50_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(DOWNLOAD_SPEED_P90_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(DOWNLOAD_SPEED_P99_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(UPLOAD_SPEED_P5_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(UPLOAD_SPEED_P50_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(UPLOAD_SPEED_P90_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(UPLOAD_SPEED_P99_COLUMN_NAME, "INTEGER", 0)
+            }
+            if (oldVersion < STOP_REASONS_VERSION) {
+                db.addColumn(DOWNLOAD_STOP_REASON_COLUMN_NAME, "TEXT", "'${StopReason.COMPLETED.name}'")
+                db.addColumn(DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(UPLOAD_STOP_REASON_COLUMN_NAME, "TEXT", "'${StopReason.COMPLETED.name}'")
+                db.addColumn(UPLOAD_SAMPLE_COUNT_COLUMN_NAME, "INTEGER", 0)
+            }
+            if (oldVersion < PING_STATISTICS_VERSION) {
+                db.addColumn(PING_SENT_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(PING_RECEIVED_COLUMN_NAME, "INTEGER", 0)
+                db.addColumn(PING_MIN_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(PING_MEDIAN_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(PING_MEAN_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(PING_MAX_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+                db.addColumn(PING_JITTER_COLUMN_NAME, "INTEGER", IntervalReport.NO_VALUE)
+            }
         }
 
-        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-            changeVersion(db, "Upgrading", oldVersion, newVersion)
+        private fun SQLiteDatabase.addColumn(name: String, type: String, defaultValue: Any) {
+            execSQL(
+                "ALTER TABLE $SPEEDTEST_RESULT_TABLE_NAME " +
+                        "ADD COLUMN $name $type NOT NULL DEFAULT $defaultValue;"
+            )
         }
 
         override fun onDowngrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-            changeVersion(db, "Downgrading", oldVersion, newVersion)
+            Log.w(
+                LOG_TAG, "Downgrading database from version $oldVersion to $newVersion, " +
+                        "which will destroy all old data"
+            )
+            db.execSQL("DROP TABLE IF EXISTS $SPEEDTEST_RESULT_TABLE_NAME;")
+            onCreate(db)
         }
     }
 
     companion object {
         private const val LOG_TAG = "SpeedTestResultRepository"
         private const val DATABASE_NAME = "speedtest.db"
-        private const val DATABASE_VERSION = 1
+        private const val UDP_STATISTICS_VERSION = 2
+        private const val SPEED_PERCENTILES_VERSION = 3
+        private const val STOP_REASONS_VERSION = 4
+        private const val PING_STATISTICS_VERSION = 5
+        private const val DATABASE_VERSION = PING_STATISTICS_VERSION
         private const val SPEEDTEST_RESULT_TABLE_NAME = "speedtest_result"
         private const val ID_COLUMN_NAME = "id"
         private const val UPLOAD_SPEED_COLUMN_NAME = "upload_speed"
@@ -156,5 +287,28 @@ constructor(context: Context) : SpeedTestResultRepository {
         private const val SERVER_ADDRESS_COLUMN_MAX_LENGTH = 32
         private const val DESCRIPTION_COLUMN_NAME = "description"
         private const val DESCRIPTION_COLUMN_MAX_LENGTH = 10_000
+        private const val DOWNLOAD_SPEED_P5_COLUMN_NAME = "download_speed_p5"
+        private const val DOWNLOAD_SPEED_P50_COLUMN_NAME = "download_speed_p50"
+        private const val DOWNLOAD_SPEED_P90_COLUMN_NAME = "download_speed_p90"
+        private const val DOWNLOAD_SPEED_P99_COLUMN_NAME = "download_speed_p99"
+        private const val UPLOAD_SPEED_P5_COLUMN_NAME = "upload_speed_p5"
+        private const val UPLOAD_SPEED_P50_COLUMN_NAME = "upload_speed_p50"
+        private const val UPLOAD_SPEED_P90_COLUMN_NAME = "upload_speed_p90"
+        private const val UPLOAD_SPEED_P99_COLUMN_NAME = "upload_speed_p99"
+        private const val DOWNLOAD_STOP_REASON_COLUMN_NAME = "download_stop_reason"
+        private const val DOWNLOAD_SAMPLE_COUNT_COLUMN_NAME = "download_sample_count"
+        private const val UPLOAD_STOP_REASON_COLUMN_NAME = "upload_stop_reason"
+        private const val UPLOAD_SAMPLE_COUNT_COLUMN_NAME = "upload_sample_count"
+        private const val DOWNLOAD_JITTER_COLUMN_NAME = "download_jitter_micros"
+        private const val DOWNLOAD_LOST_DATAGRAMS_COLUMN_NAME = "download_lost_datagrams"
+        private const val DOWNLOAD_TOTAL_DATAGRAMS_COLUMN_NAME = "download_total_datagrams"
+        private const val DOWNLOAD_OUT_OF_ORDER_DATAGRAMS_COLUMN_NAME = "download_out_of_order_datagrams"
+        private const val PING_SENT_COLUMN_NAME = "ping_sent"
+        private const val PING_RECEIVED_COLUMN_NAME = "ping_received"
+        private const val PING_MIN_COLUMN_NAME = "ping_min_micros"
+        private const val PING_MEDIAN_COLUMN_NAME = "ping_median_micros"
+        private const val PING_MEAN_COLUMN_NAME = "ping_mean_micros"
+        private const val PING_MAX_COLUMN_NAME = "ping_max_micros"
+        private const val PING_JITTER_COLUMN_NAME = "ping_jitter_micros"
     }
 }
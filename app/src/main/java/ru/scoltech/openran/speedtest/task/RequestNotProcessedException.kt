@@ -0,0 +1,9 @@
+package ru.scoltech.openran.speedtest.task
+
+import java.lang.Exception
+
+/**
+ * Cause of a task error, which proves that the server has not processed the request,
+ * e.g. the connection was refused. Such a task could be retried even if it is not idempotent.
+ */
+class RequestNotProcessedException(message: String, cause: Exception? = null) : Exception(message, cause)
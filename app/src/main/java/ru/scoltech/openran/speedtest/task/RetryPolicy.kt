@@ -0,0 +1,96 @@
+package ru.scoltech.openran.speedtest.task
+
+import ru.scoltech.openran.speedtest.util.LogHistogram
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.pow
+import kotlin.random.Random
+
+/**
+ * Policy of the [RetryTask].
+ *
+ * Failed attempts are retried after the exponentially growing backoff with random jitter,
+ * so that the clients of an overloaded server do not retry simultaneously.
+ * Attempts of a task, which is not [idempotent], are retried only if their error is caused by
+ * [RequestNotProcessedException], but not after a timeout, as the request could still be processed.
+ * If hedging is enabled, a second attempt is started when the first one takes longer than
+ * the [hedgingPercentile] of the previous successful attempts latency.
+ * The losing attempt is only cancelled on the client, so hedging must be enabled
+ * only for idempotent tasks. Latencies are collected by the policy, so it should be shared
+ * between the executions, and they should reflect the real work: e.g. a task answering
+ * from a local cache would drive the hedging delay to zero.
+ */
+class RetryPolicy(
+    val maxAttempts: Int,
+    val initialBackoffMillis: Long,
+    val maxBackoffMillis: Long,
+    val attemptTimeoutMillis: Long,
+    val backoffMultiplier: Double = DEFAULT_BACKOFF_MULTIPLIER,
+    /** Percentile in `[0, 100]`, `null` disables hedging */
+    val hedgingPercentile: Double? = null,
+    /** Count of the successful attempts needed to estimate the hedging delay */
+    val minHedgingSamples: Int = DEFAULT_MIN_HEDGING_SAMPLES,
+    val idempotent: Boolean = true,
+) {
+    private val lock = ReentrantLock()
+    private val latenciesMicros = LogHistogram()
+
+    init {
+        require(maxAttempts > 0) { "Max attempts should be positive, but was $maxAttempts" }
+        require(initialBackoffMillis in 0..maxBackoffMillis) {
+            "Initial backoff should be in [0, $maxBackoffMillis], but was $initialBackoffMillis"
+        }
+        require(attemptTimeoutMillis > 0) {
+            "Attempt timeout should be positive, but was $attemptTimeoutMillis"
+        }
+        require(backoffMultiplier >= 1) {
+            "Backoff multiplier should be at least 1, but was $backoffMultiplier"
+        }
+        require(idempotent || hedgingPercentile == null) { "Non idempotent tasks should not be hedged" }
+    }
+
+    fun isRetryable(error: FatalException): Boolean {
+        return idempotent || error.cause is RequestNotProcessedException
+    }
+
+    /**
+     * Returns a random backoff before the given retry
+     * in the upper half of the exponential backoff.
+     *
+     * @param retry number of the retry starting from 1
+     */
+    fun backoffMillis(retry: Int): Long {
+        val backoff = minOf(
+            maxBackoffMillis.toDouble(),
+            initialBackoffMillis * backoffMultiplier.pow(retry - 1)
+        ).toLong()
+        return backoff / 2 + Random.nextLong(backoff - backoff / 2 + 1)
+    }
+
+    /** Latencies are recorded only if hedging is enabled */
+    fun recordLatency(latencyMicros: Long) {
+        if (hedgingPercentile == null) {
+            return
+        }
+        lock.withLock {
+            latenciesMicros.record(latencyMicros)
+        }
+    }
+
+    /** @return `null` if hedging is disabled or there are not enough latency samples */
+    fun hedgingDelayMillis(): Long? {
+        val percentile = hedgingPercentile ?: return null
+        lock.withLock {
+            if (latenciesMicros.count < minHedgingSamples) {
+                return null
+            }
+            return latenciesMicros.getValueAtPercentile(percentile) / MICROS_IN_MILLI
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BACKOFF_MULTIPLIER = 2.0
+        const val DEFAULT_MIN_HEDGING_SAMPLES = 20
+        private const val MICROS_IN_MILLI = 1000L
+    }
+}
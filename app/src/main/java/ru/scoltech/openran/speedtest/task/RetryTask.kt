@@ -0,0 +1,92 @@
+package ru.scoltech.openran.speedtest.task
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeout
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Executes the [task] until it succeeds according to the [policy].
+ * Every attempt is killed after the attempt timeout.
+ * Fails with the error of the last attempt or of the first one, which is not retryable.
+ */
+class RetryTask<T, R>(
+    private val task: Task<T, R>,
+    private val policy: RetryPolicy,
+) : SuspendingTask<T, R> {
+    override suspend fun execute(argument: T): R {
+        var attempt = 1
+        while (true) {
+            try {
+                val hedgingDelayMillis = policy.hedgingDelayMillis()
+                return if (hedgingDelayMillis == null) {
+                    timedAttempt(argument)
+                } else {
+                    hedgedAttempt(argument, hedgingDelayMillis)
+                }
+            } catch (e: FatalException) {
+                if (attempt == policy.maxAttempts || !policy.isRetryable(e)) {
+                    throw e
+                }
+            }
+            delay(policy.backoffMillis(attempt))
+            attempt++
+        }
+    }
+
+    /**
+     * Starts the second attempt if the first one is not finished after the [hedgingDelayMillis].
+     * Result of the first successful attempt is used, the other is killed.
+     */
+    private suspend fun hedgedAttempt(argument: T, hedgingDelayMillis: Long): R = coroutineScope {
+        val winner = CompletableDeferred<R>()
+        val running = AtomicInteger(1)
+        val launchAttempt = {
+            launch {
+                try {
+                    winner.complete(timedAttempt(argument))
+                } catch (e: FatalException) {
+                    if (running.decrementAndGet() == 0) {
+                        winner.completeExceptionally(e)
+                    }
+                }
+            }
+        }
+
+        launchAttempt()
+        launch {
+            delay(hedgingDelayMillis)
+            // the hedge is not needed if the first attempt has already failed
+            if (running.getAndUpdate { if (it == 0) 0 else it + 1 } > 0) {
+                launchAttempt()
+            }
+        }
+
+        try {
+            winner.await()
+        } finally {
+            coroutineContext.cancelChildren()
+        }
+    }
+
+    private suspend fun timedAttempt(argument: T): R {
+        val startNanos = System.nanoTime()
+        val result = try {
+            withTimeout(policy.attemptTimeoutMillis) {
+                task.await(argument)
+            }
+        } catch (e: TimeoutCancellationException) {
+            throw FatalException("Attempt timed out after ${policy.attemptTimeoutMillis} ms", e)
+        }
+        policy.recordLatency((System.nanoTime() - startNanos) / NANOS_IN_MICRO)
+        return result
+    }
+
+    companion object {
+        private const val NANOS_IN_MICRO = 1000L
+    }
+}
@@ -0,0 +1,45 @@
+package ru.scoltech.openran.speedtest.task
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import ru.scoltech.openran.speedtest.util.Promise
+import ru.scoltech.openran.speedtest.util.TaskKiller
+
+/**
+ * [Task] which is executed directly in the coroutine of the [TaskChain],
+ * so neither a new coroutine scope nor a callback hand-off is needed for it.
+ * Task is stopped by the cancellation of the calling coroutine.
+ *
+ * @param T Task argument type
+ * @param R Task result type
+ */
+interface SuspendingTask<T, R> : Task<T, R> {
+    /**
+     * Executes the task in the calling coroutine. Must not block the calling thread.
+     *
+     * @throws FatalException if error occurred.
+     */
+    suspend fun execute(argument: T): R
+
+    /** Executes the task in a new coroutine, if it is used outside of a [TaskChain] */
+    override fun prepare(
+        argument: T,
+        killer: TaskKiller
+    ): Promise<(R) -> Unit, (String, Exception?) -> Unit> = Promise { onSuccess, onError ->
+        val taskCoroutine = CoroutineScope(Dispatchers.Unconfined).launch {
+            val result = try {
+                execute(argument)
+            } catch (e: FatalException) {
+                onError?.invoke(e.message!!, e.cause as? Exception)
+                return@launch
+            } catch (e: CancellationException) {
+                onError?.invoke("Cancelled", e)
+                return@launch
+            }
+            onSuccess?.invoke(result)
+        }
+        killer.register { taskCoroutine.cancel() }
+    }
+}
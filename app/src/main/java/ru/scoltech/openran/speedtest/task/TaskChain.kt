@@ -1,49 +1,108 @@
 package ru.scoltech.openran.speedtest.task
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
 import ru.scoltech.openran.speedtest.util.TaskKiller
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
+import kotlin.coroutines.coroutineContext
 
+/**
+ * Executes tasks one after another, passing result of a task to the next one.
+ *
+ * Chain is executed as a flat loop in one coroutine of the [Dispatchers.Unconfined] dispatcher,
+ * so the next task is started in the thread that completed the previous one
+ * and neither stack depth nor held locks grow with the chain length.
+ * [SuspendingTask]s are executed directly in the chain coroutine,
+ * callbacks of the other tasks resume it.
+ */
 class TaskChain<S : Any?>(
     private val tasks: List<Task<Any?, Any?>>,
     private val onStop: () -> Unit,
     private val onFatalError: (String, Exception?) -> Unit,
+    /** Receives execution spans of the tasks, if not `null` */
+    private val tracer: TaskTracer? = null,
+    /** Called when the chain is over for any reason, after [onStop] or [onFatalError] */
+    private val onTerminate: () -> Unit = {},
 ) {
     private val lock = ReentrantLock()
+    @Volatile
     private var stopped = false
     private val taskKiller = TaskKiller()
+    private val scope = CoroutineScope(Dispatchers.Unconfined)
 
     fun start(initialValue: S) {
-        prepare(initialValue, tasks)
+        // undispatched start executes the loop even if the chain is already stopped,
+        // so onStop is called in this case too
+        scope.launch(start = CoroutineStart.UNDISPATCHED) {
+            try {
+                var argument: Any? = initialValue
+                for (task in tasks) {
+                    argument = trace(task, argument)
+                }
+            } catch (e: FatalException) {
+                if (stopped) {
+                    onStop()
+                } else {
+                    onFatalError(e.message!!, e.cause as? Exception)
+                }
+            } catch (e: CancellationException) {
+                onStop()
+            } finally {
+                onTerminate()
+            }
+        }
     }
 
-    private fun prepare(argument: Any?, tasks: List<Task<Any?, Any?>>) {
-        lock.withLock {
-            if (tasks.isEmpty()) {
-                return
-            } else if (stopped) {
-                onStop()
-                return
+    private suspend fun trace(task: Task<Any?, Any?>, argument: Any?): Any? {
+        if (tracer == null) {
+            return execute(task, argument)
+        }
+
+        val spanId = tracer.begin(task.javaClass.simpleName)
+        try {
+            return execute(task, argument).also { tracer.end(spanId, TaskTracer.Outcome.SUCCESS) }
+        } catch (e: FatalException) {
+            tracer.end(spanId, if (stopped) TaskTracer.Outcome.STOPPED else TaskTracer.Outcome.ERROR)
+            throw e
+        } catch (e: CancellationException) {
+            tracer.end(spanId, TaskTracer.Outcome.STOPPED)
+            throw e
+        }
+    }
+
+    private suspend fun execute(task: Task<Any?, Any?>, argument: Any?): Any? {
+        if (task is SuspendingTask<Any?, Any?>) {
+            val chainCoroutine = coroutineContext[Job]!!
+            lock.withLock {
+                checkNotStopped()
+                taskKiller.register { chainCoroutine.cancel() }
+            }
+            return try {
+                task.execute(argument)
+            } finally {
+                lock.withLock { taskKiller.unregister() }
             }
+        }
 
-            try {
-                tasks[0].prepare(argument, taskKiller)
-                    .onError(::onTaskError)
-                    .onSuccess { prepare(it, tasks.subList(1, tasks.size)) }
+        return suspendCancellableCoroutine { continuation ->
+            lock.withLock {
+                checkNotStopped()
+                task.prepare(argument, taskKiller)
+                    .resuming(continuation)
                     .start()
-            } catch (e: FatalException) {
-                onTaskError(e.message!!, e.cause as? Exception)
             }
         }
     }
 
-    private fun onTaskError(message: String, exception: Exception?) {
-        lock.withLock {
-            if (stopped) {
-                onStop()
-            } else {
-                onFatalError(message, exception)
-            }
+    private fun checkNotStopped() {
+        if (stopped) {
+            throw CancellationException("Chain is stopped")
         }
     }
 
@@ -1,24 +1,29 @@
 package ru.scoltech.openran.speedtest.task
 
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import ru.scoltech.openran.speedtest.util.Promise
 import ru.scoltech.openran.speedtest.util.TaskKiller
+import java.util.concurrent.atomic.AtomicInteger
 
 class TaskChainBuilder<S : Any?> {
     private var tasks = mutableListOf<Task<out Any?, out Any?>>()
     private var onStop: () -> Unit = {}
     private var onFatalError: (String, Exception?) -> Unit = { _, _ -> }
+    private var tracer: TaskTracer? = null
+    private var onTerminate: () -> Unit = {}
 
     fun initializeNewChain(): TaskConsumer<S> {
         tasks = mutableListOf()
-        return TasksCollector(tasks)
+        return TasksCollector(tasks, tracer)
     }
 
     @Suppress("UNCHECKED_CAST")
     fun finishChainCreation(): TaskChain<S> {
-        return TaskChain(tasks as MutableList<Task<Any?, Any?>>, onStop, onFatalError)
+        return TaskChain(tasks as MutableList<Task<Any?, Any?>>, onStop, onFatalError, tracer, onTerminate)
     }
 
     fun onStop(onStop: () -> Unit): TaskChainBuilder<S> {
@@ -31,18 +36,67 @@ class TaskChainBuilder<S : Any?> {
         return this
     }
 
+    /** Sets the callback called when the chain finishes, stops or fails, after the other callbacks */
+    fun onTerminate(onTerminate: () -> Unit): TaskChainBuilder<S> {
+        this.onTerminate = onTerminate
+        return this
+    }
+
+    /**
+     * Builds a task executing the tasks added by the [buildBlock] one after another,
+     * e.g. to be a branch of [TaskConsumer.andThenParallel].
+     */
+    fun <T : Any?, R : Any?> sequence(buildBlock: TaskConsumer<T>.() -> TaskConsumer<R>): Task<T, R> {
+        val sequenceTasks = mutableListOf<Task<*, *>>()
+        buildBlock(TasksCollector(sequenceTasks, tracer))
+        @Suppress("UNCHECKED_CAST")
+        return SequenceTask(sequenceTasks as MutableList<Task<Any?, Any?>>)
+    }
+
+    /**
+     * Builds a task passing `null` instead of failing, if the [task] fails,
+     * e.g. so that an optional branch of [TaskConsumer.andThenParallel] does not kill the others.
+     * Stop of the chain still stops the task.
+     */
+    fun <T : Any?, R : Any> orNull(task: Task<T, R>): Task<T, R?> = OrNullTask(task)
+
+    /**
+     * Sets the receiver of the task spans of the chain and its try blocks.
+     * Should be set before [initializeNewChain].
+     */
+    fun tracer(tracer: TaskTracer?): TaskChainBuilder<S> {
+        this.tracer = tracer
+        return this
+    }
+
     private class TasksCollector<T : Any?>(
-        private val tasks: MutableList<Task<*, *>>
+        private val tasks: MutableList<Task<*, *>>,
+        private val tracer: TaskTracer?,
     ) : TaskConsumer<T> {
         override fun <R : Any?> andThen(task: Task<T, R>): TaskConsumer<R> {
             tasks.add(task)
-            return TasksCollector(tasks)
+            return TasksCollector(tasks, tracer)
         }
 
         override fun <R : Any?> andThenUnstoppable(task: (T) -> R): TaskConsumer<R> {
             return andThen(UnstoppableTask(task))
         }
 
+        override fun <R : Any?> andThenParallel(vararg tasks: Task<T, R>): TaskConsumer<List<R>> {
+            return andThen(ParallelTask(tasks.toList()))
+        }
+
+        override fun <R : Any?> andThenRace(vararg tasks: Task<T, R>): TaskConsumer<R> {
+            return andThen(RaceTask(tasks.toList()))
+        }
+
+        override fun <R : Any?> andThenRetry(
+            task: Task<T, R>,
+            policy: RetryPolicy,
+        ): TaskConsumer<R> {
+            return andThen(RetryTask(task, policy))
+        }
+
         override fun <A : Any?, R : Any?> andThenTry(
             startTask: Task<T, A>,
             buildBlock: TaskConsumer<A>.() -> TaskConsumer<R>,
@@ -50,35 +104,94 @@ class TaskChainBuilder<S : Any?> {
             tasks.add(startTask)
             return object : TaskConsumer.FinallyTaskConsumer<A, R> {
                 override fun andThenFinally(task: (A) -> Unit): TaskConsumer<R> {
-                    tasks.add(TryTask(buildBlock, task))
-                    return TasksCollector(tasks)
+                    tasks.add(TryTask(buildBlock, task, tracer))
+                    return TasksCollector(tasks, tracer)
                 }
             }
         }
     }
 
-    private class UnstoppableTask<T : Any?, R : Any?>(private val task: (T) -> R) : Task<T, R> {
-        override fun prepare(
-            argument: T,
-            killer: TaskKiller,
-        ): Promise<(R) -> Unit, (String, Exception?) -> Unit> {
-            return Promise { onSuccess, _ ->
-                CoroutineScope(Dispatchers.IO).launch {
-                    onSuccess?.invoke(task(argument))
+    /** Lambda is called in place, as it has no suspension points to be stopped at */
+    private class UnstoppableTask<T : Any?, R : Any?>(
+        private val task: (T) -> R
+    ) : SuspendingTask<T, R> {
+        override suspend fun execute(argument: T): R = task(argument)
+    }
+
+    private class SequenceTask<T : Any?, R : Any?>(
+        private val tasks: List<Task<Any?, Any?>>
+    ) : SuspendingTask<T, R> {
+        override suspend fun execute(argument: T): R {
+            var result: Any? = argument
+            for (task in tasks) {
+                result = task.await(result)
+            }
+            @Suppress("UNCHECKED_CAST")
+            return result as R
+        }
+    }
+
+    private class OrNullTask<T : Any?, R : Any>(
+        private val task: Task<T, R>
+    ) : SuspendingTask<T, R?> {
+        override suspend fun execute(argument: T): R? {
+            return try {
+                task.await(argument)
+            } catch (e: FatalException) {
+                null
+            }
+        }
+    }
+
+    /** Stop of the chain cancels the branches, which kill their tasks */
+    private class ParallelTask<T : Any?, R : Any?>(
+        private val tasks: List<Task<T, R>>
+    ) : SuspendingTask<T, List<R>> {
+        override suspend fun execute(argument: T): List<R> = coroutineScope {
+            tasks.map { async { it.await(argument) } }.awaitAll()
+        }
+    }
+
+    private class RaceTask<T : Any?, R : Any?>(
+        private val tasks: List<Task<T, R>>
+    ) : SuspendingTask<T, R> {
+        init {
+            require(tasks.isNotEmpty()) { "At least one task should race" }
+        }
+
+        override suspend fun execute(argument: T): R = coroutineScope {
+            val winner = CompletableDeferred<R>()
+            val remaining = AtomicInteger(tasks.size)
+            val branches = tasks.map { task ->
+                launch {
+                    try {
+                        winner.complete(task.await(argument))
+                    } catch (e: FatalException) {
+                        if (remaining.decrementAndGet() == 0) {
+                            winner.completeExceptionally(e)
+                        }
+                    }
                 }
             }
+
+            try {
+                winner.await()
+            } finally {
+                branches.forEach { it.cancel() }
+            }
         }
     }
 
     private class TryTask<T : Any?, R : Any?>(
         buildBlock: TaskConsumer<T>.() -> TaskConsumer<R>,
         private val finallyTask: (T) -> Unit,
+        private val tracer: TaskTracer?,
     ) : Task<T, R> {
         private val tasks: List<Task<Any?, Any?>>
 
         init {
             val mutableTasks = mutableListOf<Task<*, *>>()
-            buildBlock(TasksCollector(mutableTasks))
+            buildBlock(TasksCollector(mutableTasks, tracer))
             @Suppress("UNCHECKED_CAST")
             tasks = mutableTasks as MutableList<Task<Any?, Any?>>
         }
@@ -105,7 +218,8 @@ class TaskChainBuilder<S : Any?> {
             val tryChain = TaskChain<T>(
                 tasks + listOf(onSuccessTask),
                 { onError.withEndTask(argument).invoke("Stopped", null) },
-                onError.withEndTask(argument)
+                onError.withEndTask(argument),
+                tracer,
             )
 
             killer.register { tryChain.stop() }
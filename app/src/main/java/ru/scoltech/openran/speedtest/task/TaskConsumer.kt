@@ -3,6 +3,22 @@ package ru.scoltech.openran.speedtest.task
 interface TaskConsumer<T> {
     fun <R> andThen(task: Task<T, R>): TaskConsumer<R>
     fun <R> andThenUnstoppable(task: (T) -> R): TaskConsumer<R>
+
+    /**
+     * Starts all the [tasks] with the same argument simultaneously and passes the list
+     * of their results in the same order. The first error kills the other tasks.
+     */
+    fun <R> andThenParallel(vararg tasks: Task<T, R>): TaskConsumer<List<R>>
+
+    /**
+     * Starts all the [tasks] with the same argument simultaneously and passes the result
+     * of the first successful one, the other tasks are killed.
+     * Fails with the last error if all the tasks fail.
+     */
+    fun <R> andThenRace(vararg tasks: Task<T, R>): TaskConsumer<R>
+
+    /** Executes the [task] until it succeeds according to the [policy] */
+    fun <R> andThenRetry(task: Task<T, R>, policy: RetryPolicy): TaskConsumer<R>
     fun <A, R> andThenTry(
         startTask: Task<T, A>,
         buildBlock: TaskConsumer<A>.() -> TaskConsumer<R>
@@ -0,0 +1,139 @@
+package ru.scoltech.openran.speedtest.task
+
+import java.io.IOException
+import java.io.Writer
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.jvm.Throws
+
+/**
+ * In-memory ring of the task execution spans of a [TaskChain].
+ *
+ * Every span holds the task name, start and end time, outcome and threads that started
+ * and finished the task. Spans are stored in preallocated arrays, so recording allocates
+ * nothing, and the oldest spans are overwritten when the ring is full.
+ * The ring could be exported as the Chrome trace event JSON,
+ * which is opened by `chrome://tracing` and Perfetto UI.
+ */
+class TaskTracer(val capacity: Int = DEFAULT_CAPACITY) {
+    private val lock = ReentrantLock()
+    private val originNanos = System.nanoTime()
+    private val names = arrayOfNulls<String>(capacity)
+    private val startNanos = LongArray(capacity)
+    private val endNanos = LongArray(capacity)
+    private val startThreadIds = LongArray(capacity)
+    private val startThreadNames = arrayOfNulls<String>(capacity)
+    private val endThreadIds = LongArray(capacity)
+    private val outcomes = arrayOfNulls<Outcome>(capacity)
+
+    /** Count of all the spans ever begun, id of the next span */
+    private var spanCount = 0L
+
+    init {
+        require(capacity > 0) { "Capacity should be positive, but was $capacity" }
+    }
+
+    /** @return id of the span to be passed to [end] */
+    fun begin(name: String): Long {
+        val now = System.nanoTime()
+        val thread = Thread.currentThread()
+        lock.withLock {
+            val index = (spanCount % capacity).toInt()
+            names[index] = name
+            startNanos[index] = now
+            startThreadIds[index] = thread.id
+            startThreadNames[index] = thread.name
+            outcomes[index] = null
+            return spanCount++
+        }
+    }
+
+    /** Does nothing if the span is already overwritten */
+    fun end(spanId: Long, outcome: Outcome) {
+        val now = System.nanoTime()
+        val threadId = Thread.currentThread().id
+        lock.withLock {
+            if (spanId < spanCount - capacity) {
+                return
+            }
+            val index = (spanId % capacity).toInt()
+            endNanos[index] = now
+            endThreadIds[index] = threadId
+            outcomes[index] = outcome
+        }
+    }
+
+    /**
+     * Writes the retained spans as complete events in the Chrome trace event format.
+     * Events are placed on the threads that began the spans,
+     * unfinished spans last until the moment of the export.
+     */
+    @Throws(IOException::class)
+    fun writeChromeTrace(writer: Writer) {
+        val now = System.nanoTime()
+        val events = StringBuilder()
+        val threadNames = mutableMapOf<Long, String>()
+        lock.withLock {
+            for (spanId in maxOf(0L, spanCount - capacity) until spanCount) {
+                val index = (spanId % capacity).toInt()
+                val outcome = outcomes[index]
+                val end = if (outcome == null) now else endNanos[index]
+                threadNames[startThreadIds[index]] = startThreadNames[index]!!
+
+                if (events.isNotEmpty()) {
+                    events.append(",\n")
+                }
+                events.append("{\"name\":").appendJsonString(names[index]!!)
+                    .append(",\"cat\":\"task\",\"ph\":\"X\",\"pid\":").append(PROCESS_ID)
+                    .append(",\"tid\":").append(startThreadIds[index])
+                    .append(",\"ts\":").append(toMicros(startNanos[index]))
+                    .append(",\"dur\":").append((end - startNanos[index]) / NANOS_IN_MICRO)
+                    .append(",\"args\":{\"outcome\":\"")
+                    .append(outcome?.name ?: UNFINISHED_OUTCOME)
+                    .append('"')
+                if (outcome != null) {
+                    events.append(",\"endTid\":").append(endThreadIds[index])
+                }
+                events.append("}}")
+            }
+        }
+
+        threadNames.forEach { (threadId, threadName) ->
+            events.append(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(PROCESS_ID)
+                .append(",\"tid\":").append(threadId)
+                .append(",\"args\":{\"name\":").appendJsonString(threadName)
+                .append("}}")
+        }
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n")
+        writer.write(events.toString())
+        writer.write("\n]}\n")
+        writer.flush()
+    }
+
+    private fun toMicros(nanos: Long) = (nanos - originNanos) / NANOS_IN_MICRO
+
+    private fun StringBuilder.appendJsonString(value: String): StringBuilder {
+        append('"')
+        value.forEach {
+            when {
+                it == '"' || it == '\\' -> append('\\').append(it)
+                it < ' ' -> append(String.format("\\u%04x", it.code))
+                else -> append(it)
+            }
+        }
+        return append('"')
+    }
+
+    enum class Outcome {
+        SUCCESS,
+        ERROR,
+        STOPPED,
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+        private const val PROCESS_ID = 1
+        private const val NANOS_IN_MICRO = 1000L
+        private const val UNFINISHED_OUTCOME = "UNFINISHED"
+    }
+}
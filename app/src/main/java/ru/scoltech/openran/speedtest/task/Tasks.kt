@@ -0,0 +1,53 @@
+package ru.scoltech.openran.speedtest.task
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.suspendCancellableCoroutine
+import ru.scoltech.openran.speedtest.util.Promise
+import ru.scoltech.openran.speedtest.util.TaskKiller
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Executes the task in the calling coroutine.
+ * If the coroutine is cancelled, the task is killed using its own [TaskKiller].
+ *
+ * @throws FatalException if the task reported an error.
+ */
+suspend fun <T, R> Task<T, R>.await(argument: T): R {
+    if (this is SuspendingTask<T, R>) {
+        return execute(argument)
+    }
+
+    val killer = TaskKiller()
+    return suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation { killer.kill() }
+        prepare(argument, killer)
+            .resuming(continuation)
+            .start()
+        // kill could not be registered before the start
+        if (continuation.isCancelled) {
+            killer.kill()
+        }
+    }
+}
+
+/**
+ * Sets callbacks resuming the [continuation] with the task result
+ * or with the [FatalException] on error. Only the first callback call has effect,
+ * as tasks could report both error and success, e.g. after being killed.
+ */
+internal fun <R> Promise<(R) -> Unit, (String, Exception?) -> Unit>.resuming(
+    continuation: CancellableContinuation<R>
+): Promise<(R) -> Unit, (String, Exception?) -> Unit> {
+    val completed = AtomicBoolean(false)
+    return onSuccess {
+        if (completed.compareAndSet(false, true)) {
+            continuation.resume(it)
+        }
+    }.onError { message, exception ->
+        if (completed.compareAndSet(false, true)) {
+            continuation.resumeWithException(FatalException(message, exception))
+        }
+    }
+}
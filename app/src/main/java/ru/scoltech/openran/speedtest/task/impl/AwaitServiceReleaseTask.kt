@@ -0,0 +1,36 @@
+package ru.scoltech.openran.speedtest.task.impl
+
+import io.swagger.client.model.ServerAddressResponse
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.withTimeoutOrNull
+import ru.scoltech.openran.speedtest.task.SuspendingTask
+import ru.scoltech.openran.speedtest.task.Task
+import ru.scoltech.openran.speedtest.task.await
+
+/**
+ * Waits until the previous service is [released], if the next service is the same one,
+ * but no longer than [maxWaitMillis]. Different services do not wait for each other.
+ * If the next service is not known, e.g. it could not be acquired in advance,
+ * it is acquired by the [acquireTask] after the previous one is released.
+ */
+data class AwaitServiceReleaseTask(
+    private val released: Deferred<Unit>,
+    private val maxWaitMillis: Long,
+    private val acquireTask: Task<Unit, ServerAddressResponse>,
+) : SuspendingTask<List<ServerAddressResponse?>, ServerAddressResponse> {
+    /**
+     * @param argument Previous and next (or `null`) service addresses
+     * @return Next service address
+     */
+    override suspend fun execute(argument: List<ServerAddressResponse?>): ServerAddressResponse {
+        val (previous, next) = argument
+        if (next == null) {
+            withTimeoutOrNull(maxWaitMillis) { released.await() }
+            return acquireTask.await(Unit)
+        }
+        if (previous?.ip == next.ip && previous.port == next.port) {
+            withTimeoutOrNull(maxWaitMillis) { released.await() }
+        }
+        return next
+    }
+}
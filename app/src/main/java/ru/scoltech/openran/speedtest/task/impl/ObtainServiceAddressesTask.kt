@@ -2,16 +2,22 @@ package ru.scoltech.openran.speedtest.task.impl
 
 import com.squareup.okhttp.HttpUrl
 import io.swagger.client.model.ServerAddressResponse
+import ru.scoltech.openran.speedtest.backend.ServiceAddressCache
 import ru.scoltech.openran.speedtest.backend.addPathSegments
+import ru.scoltech.openran.speedtest.backend.isConnectFailure
 import ru.scoltech.openran.speedtest.task.FatalException
+import ru.scoltech.openran.speedtest.task.RequestNotProcessedException
 import ru.scoltech.openran.speedtest.task.Task
 import ru.scoltech.openran.speedtest.util.Promise
 import ru.scoltech.openran.speedtest.util.TaskKiller
+import java.io.IOException
 import java.net.InetSocketAddress
 
 data class ObtainServiceAddressesTask(
     private val balancerApiBuilder: BalancerApiBuilder,
     private val balancerPathSegments: List<String> = DEFAULT_BALANCER_REQUEST_PATH_SEGMENTS,
+    /** Assignments are taken from and put into the cache, if it is not `null` */
+    private val cache: ServiceAddressCache? = null,
 ) : Task<InetSocketAddress, ServerAddressResponse> {
     /**
      * @param argument Balancer address
@@ -21,6 +27,12 @@ data class ObtainServiceAddressesTask(
         killer: TaskKiller
     ): Promise<(ServerAddressResponse) -> Unit, (String, Exception?) -> Unit> {
         return Promise { onSuccess, onError ->
+            val cachedService = cache?.get(argument)
+            if (cachedService != null) {
+                onSuccess?.invoke(cachedService)
+                return@Promise
+            }
+
             val balancerAddress = HttpUrl.Builder()
                 .scheme("http")
                 .host(argument.address.hostAddress)
@@ -31,7 +43,7 @@ data class ObtainServiceAddressesTask(
 
             try {
                 val call = BalancerApi(balancerApiBuilder.setBasePath(balancerAddress))
-                    .serviceAcquireCreateAsync(AcquireServiceCallback(onSuccess, onError))
+                    .serviceAcquireCreateAsync(AcquireServiceCallback(argument, onSuccess, onError))
                 killer.register {
                     call.cancel()
                 }
@@ -42,8 +54,9 @@ data class ObtainServiceAddressesTask(
     }
 
     private inner class AcquireServiceCallback(
+        private val balancerAddress: InetSocketAddress,
         private val onSuccess: ((ServerAddressResponse) -> Unit)?,
-        private val onError: ((String, BalancerApiException?) -> Unit)?
+        private val onError: ((String, Exception?) -> Unit)?
     ) : BalancerApiCallback<ServerAddressResponse> {
         override fun onFailure(
             e: BalancerApiException?,
@@ -55,7 +68,11 @@ data class ObtainServiceAddressesTask(
             } else {
                 ""
             }
-            onError?.invoke("Could not connect to balancer$statusCodeMessage", e)
+            val message = "Could not connect to balancer$statusCodeMessage"
+            // balancer responds with 5xx before assigning a service
+            val notProcessed = statusCode in SERVER_ERROR_CODES ||
+                    (e?.cause as? IOException)?.isConnectFailure() == true
+            onError?.invoke(message, if (notProcessed) RequestNotProcessedException(message, e) else e)
         }
 
         override fun onSuccess(
@@ -63,6 +80,7 @@ data class ObtainServiceAddressesTask(
             statusCode: Int,
             responseHeaders: MutableMap<String, MutableList<String>>
         ) {
+            cache?.put(balancerAddress, result)
             onSuccess?.invoke(result)
         }
 
@@ -76,6 +94,7 @@ data class ObtainServiceAddressesTask(
     }
 
     companion object {
+        private val SERVER_ERROR_CODES = 500..599
         private val DEFAULT_BALANCER_REQUEST_PATH_SEGMENTS: List<String> = listOf(
             "Skoltech_OpenRAN_5G", "iperf_load_balancer", io.swagger.client.Version.VERSION
         )
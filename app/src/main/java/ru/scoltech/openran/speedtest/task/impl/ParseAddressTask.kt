@@ -1,33 +1,24 @@
 package ru.scoltech.openran.speedtest.task.impl
 
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import ru.scoltech.openran.speedtest.backend.parseInetSocketAddress
-import ru.scoltech.openran.speedtest.task.Task
-import ru.scoltech.openran.speedtest.util.Promise
-import ru.scoltech.openran.speedtest.util.TaskKiller
+import ru.scoltech.openran.speedtest.task.FatalException
+import ru.scoltech.openran.speedtest.task.SuspendingTask
 import java.net.InetSocketAddress
 import java.net.UnknownHostException
 
-class ParseAddressTask : Task<String, InetSocketAddress> {
-    override fun prepare(
-        argument: String,
-        killer: TaskKiller
-    ): Promise<(InetSocketAddress) -> Unit, (String, Exception?) -> Unit> {
-        return Promise { onSuccess, onError ->
-            CoroutineScope(Dispatchers.IO).launch {
-                val address = try {
-                    // TODO default port
-                    // TODO dont resolve address
-                    // Dispatchers.IO scope is designed for blocking calls
-                    @Suppress("BlockingMethodInNonBlockingContext")
-                    parseInetSocketAddress(argument, 80)
-                } catch (e: UnknownHostException) {
-                    onError?.invoke("Unknown host $argument", e)
-                    return@launch
-                }
-                onSuccess?.invoke(address)
+class ParseAddressTask : SuspendingTask<String, InetSocketAddress> {
+    override suspend fun execute(argument: String): InetSocketAddress {
+        return withContext(Dispatchers.IO) {
+            try {
+                // TODO default port
+                // TODO dont resolve address
+                // Dispatchers.IO context is designed for blocking calls
+                @Suppress("BlockingMethodInNonBlockingContext")
+                parseInetSocketAddress(argument, 80)
+            } catch (e: UnknownHostException) {
+                throw FatalException("Unknown host $argument", e)
             }
         }
     }
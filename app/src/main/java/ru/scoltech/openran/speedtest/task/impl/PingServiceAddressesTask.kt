@@ -1,33 +1,100 @@
 package ru.scoltech.openran.speedtest.task.impl
 
 import io.swagger.client.model.ServerAddressResponse
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
 import ru.scoltech.openran.speedtest.backend.IcmpPinger
-import ru.scoltech.openran.speedtest.task.Task
-import ru.scoltech.openran.speedtest.util.Promise
-import ru.scoltech.openran.speedtest.util.TaskKiller
+import ru.scoltech.openran.speedtest.domain.PingStatistics
+import ru.scoltech.openran.speedtest.task.FatalException
+import ru.scoltech.openran.speedtest.task.SuspendingTask
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.coroutines.resume
 
+/**
+ * Probes all the service addresses simultaneously and passes the best one.
+ *
+ * Every address gets [probeCount] echo requests, all of them share the [timeout] deadline.
+ * Addresses are ranked by the median round trip time divided by the share of the received
+ * replies, so a lossy service is ranked as if it was farther away.
+ * Statistics of the best address so far are passed to [onPingUpdate] after every reply,
+ * the last update contains the final statistics of the chosen address.
+ */
 data class PingServiceAddressesTask(
     private val timeout: Long,
-    private val onPingUpdate: (Long) -> Unit
-) : Task<List<ServerAddressResponse>, ServerAddressResponse> {
+    private val onPingUpdate: (PingStatistics) -> Unit,
+    private val probeCount: Int = DEFAULT_PROBE_COUNT,
+    private val probeIntervalMillis: Long = DEFAULT_PROBE_INTERVAL_MILLIS,
+) : SuspendingTask<List<ServerAddressResponse>, ServerAddressResponse> {
     /**
      * @param argument Service addresses
      */
-    override fun prepare(
-        argument: List<ServerAddressResponse>,
-        killer: TaskKiller
-    ): Promise<(ServerAddressResponse) -> Unit, (String, Exception?) -> Unit> = Promise { onSuccess, onError ->
-        // TODO support many addresses
-        val address = argument[0]
-        val icmpPinger = IcmpPinger()
-
-        killer.register { icmpPinger.stop() }
-        icmpPinger.pingOnce(address.ip, timeout)
-            .onSuccess {
-                onPingUpdate(it)
-                onSuccess?.invoke(address)
+    override suspend fun execute(argument: List<ServerAddressResponse>): ServerAddressResponse {
+        val lock = ReentrantLock()
+        val probes = argument.map { Probe(it, lock) }
+        val findBest = {
+            probes.filter { it.statistics.received > 0 }.minByOrNull { it.score() }
+        }
+
+        val onReply = {
+            val update = lock.withLock {
+                findBest()?.let { PingStatistics(probeCount).set(it.statistics) }
+            }
+            update?.let(onPingUpdate)
+        }
+        withTimeoutOrNull(timeout) {
+            coroutineScope {
+                probes.forEach { launch { it.run(timeout, onReply) } }
             }
-            .onError { onError?.invoke("Could not get service ping", it) }
-            .start()
+        }
+
+        val (best, statistics) = lock.withLock {
+            val best = findBest() ?: throw FatalException("Could not get service ping")
+            best to PingStatistics(probeCount).set(best.statistics)
+        }
+        onPingUpdate(statistics)
+        return best.address
+    }
+
+    /** [statistics] are guarded by the [lock] */
+    private inner class Probe(val address: ServerAddressResponse, private val lock: ReentrantLock) {
+        val statistics = PingStatistics(probeCount)
+
+        suspend fun run(deadlineMillis: Long, onReply: () -> Unit) {
+            val pinger = IcmpPinger()
+            suspendCancellableCoroutine<Unit> { continuation ->
+                val finished = AtomicBoolean(false)
+                val finish = {
+                    if (finished.compareAndSet(false, true)) {
+                        continuation.resume(Unit)
+                    }
+                }
+                continuation.invokeOnCancellation { pinger.stop() }
+                pinger.burst(address.ip, probeCount, probeIntervalMillis, deadlineMillis) {
+                    lock.withLock { statistics.set(it) }
+                    onReply()
+                }
+                    .onSuccess {
+                        lock.withLock { statistics.set(it) }
+                        finish()
+                    }
+                    .onError { finish() }
+                    .start()
+            }
+        }
+
+        fun score(): Double {
+            return statistics.medianRttMicros.toDouble() * probeCount / statistics.received
+        }
+    }
+
+    companion object {
+        const val DEFAULT_PROBE_COUNT = 4
+
+        /** Minimal interval allowed to unprivileged users */
+        const val DEFAULT_PROBE_INTERVAL_MILLIS = 200L
     }
 }
@@ -2,110 +2,262 @@ package ru.scoltech.openran.speedtest.task.impl
 
 import io.swagger.client.model.ServerAddressResponse
 import ru.scoltech.openran.speedtest.backend.IperfException
+import ru.scoltech.openran.speedtest.backend.IperfLaunchStrategy
 import ru.scoltech.openran.speedtest.backend.IperfRunner
+import ru.scoltech.openran.speedtest.backend.IperfRunnerRegistry
+import ru.scoltech.openran.speedtest.domain.IntervalReport
+import ru.scoltech.openran.speedtest.domain.StopReason
 import ru.scoltech.openran.speedtest.parser.IperfOutputParser
 import ru.scoltech.openran.speedtest.task.FatalException
 import ru.scoltech.openran.speedtest.task.Task
+import ru.scoltech.openran.speedtest.util.ConvergenceDetector
 import ru.scoltech.openran.speedtest.util.Equalizer
 import ru.scoltech.openran.speedtest.util.IdleTaskKiller
+import ru.scoltech.openran.speedtest.util.PercentileStatistics
 import ru.scoltech.openran.speedtest.util.Promise
 import ru.scoltech.openran.speedtest.util.TaskKiller
 import java.io.IOException
-import java.util.*
 import java.util.concurrent.locks.ReentrantLock
+import java.util.function.LongConsumer
 import kotlin.concurrent.withLock
 
 data class StartIperfTask(
-    private val writableDir: String,
+    private val launchStrategy: IperfLaunchStrategy,
     private val args: String,
     private val speedParser: IperfOutputParser,
     private val speedEqualizer: Equalizer<*>,
+    /**
+     * Prototype of the detector of speed stabilization, `null` disables early stop.
+     * It is fed the raw aggregated interval speeds past the ramp-up, not the equalized ones,
+     * as the moving average is autocorrelated and would make the interval look narrower.
+     */
+    private val convergenceDetector: ConvergenceDetector?,
     private val idleTimeoutMillis: Long,
     private val onStart: () -> Unit,
-    private val onSpeedUpdate: (LongSummaryStatistics, Long) -> Unit,
-    private val onFinish: (LongSummaryStatistics) -> Unit,
+    private val onSpeedUpdate: (PercentileStatistics, Long) -> Unit,
+    /** Receives reused instance, which is a sum over all the processes of the interval */
+    private val onIntervalReport: (IntervalReport) -> Unit,
+    private val onFinish: (PercentileStatistics, StopReason) -> Unit,
     private val onLog: (String, String, Exception?) -> Unit,
+    /** Whether to pass every iPerf output line to [onLog], which allocates a string per line */
+    private val logIperfOutput: Boolean = false,
 ) : Task<ServerAddressResponse, ServerAddressResponse> {
     override fun prepare(
         argument: ServerAddressResponse,
         killer: TaskKiller
-    ): Promise<(ServerAddressResponse) -> Unit, (String, Exception?) -> Unit> = Promise { onSuccess, _ ->
-        val idleTaskKiller = IdleTaskKiller()
-        val processor = IperfOutputProcessor(idleTaskKiller, speedEqualizer.copy()) {
-            onSuccess?.invoke(argument)
-        }
+    ): Promise<(ServerAddressResponse) -> Unit, (String, Exception?) -> Unit> = Promise { onSuccess, onError ->
+        fanOut().prepare(listOf(argument), killer)
+            .onSuccess { onSuccess?.invoke(it[0]) }
+            .onError { message, exception -> onError?.invoke(message, exception) }
+            .start()
+    }
 
-        val iperfRunner = IperfRunner.Builder(writableDir)
-            .stdoutLinesHandler(processor::onIperfStdoutLine)
-            .stderrLinesHandler(processor::onIperfStderrLine)
-            .onFinishCallback(processor::onIperfFinish)
-            .build()
+    /**
+     * Creates a task that runs iPerf against all the given services simultaneously.
+     * Interval reports of the separate processes are summed up into one aggregate,
+     * whose speed is passed to the equalizer and the callbacks of this task.
+     * When the speed past the ramp-up converges, all the processes are interrupted with `SIGINT`.
+     * Task finishes when all the processes finish.
+     */
+    fun fanOut(): Task<List<ServerAddressResponse>, List<ServerAddressResponse>> = FanOutTask()
 
-        onStart()
-        while (true) {
-            try {
-                // TODO validate not to have -c and -p in command
-                iperfRunner.start(
-                    "-c ${argument.ip} -p ${argument.portIperf} $args"
-                )
+    private inner class FanOutTask : Task<List<ServerAddressResponse>, List<ServerAddressResponse>> {
+        override fun prepare(
+            argument: List<ServerAddressResponse>,
+            killer: TaskKiller
+        ): Promise<(List<ServerAddressResponse>) -> Unit, (String, Exception?) -> Unit> =
+            Promise { onSuccess, _ ->
+                val idleTaskKiller = IdleTaskKiller()
+                val registry = IperfRunnerRegistry()
+                val processor = IperfOutputProcessor(
+                    argument.size,
+                    idleTaskKiller,
+                    speedEqualizer.copy(),
+                    convergenceDetector?.copy(),
+                    onConverged = {
+                        onLog(LOG_TAG, "Speed has converged, interrupting iPerf", null)
+                        try {
+                            registry.sendSigIntToAll()
+                        } catch (e: IperfException) {
+                            onLog(LOG_TAG, "Could not interrupt iPerf", e)
+                        }
+                    }
+                ) {
+                    onSuccess?.invoke(argument)
+                }
 
-                val task = {
+                val iperfRunners = argument.indices.map { index ->
+                    registry.register(
+                        IperfRunner.Builder()
+                            .launchStrategy(launchStrategy)
+                            .stdoutLinesHandler { processor.onIperfStdoutLine(index, it) }
+                            .stderrLinesHandler(processor::onIperfStderrLine)
+                            .onFinishCallback(processor::onIperfFinish)
+                            .build()
+                    )
+                }
+
+                val task = { stopReason: StopReason ->
+                    processor.stop(stopReason)
                     try {
-                        iperfRunner.sendSigKill()
+                        registry.sendSigKillToAll()
                     } catch (e: IperfException) {
                         onLog(LOG_TAG, "Could not stop iPerf", e)
                     }
                 }
-                idleTaskKiller.registerBlocking(idleTimeoutMillis, task)
-                killer.register(task)
-                break
-            } catch (e: InterruptedException) {
-                onLog(LOG_TAG, "Interrupted iPerf start. Ignoring...", e)
-            } catch (e: IperfException) {
-                throw FatalException("Could not start iPerf", e)
+
+                onStart()
+                try {
+                    argument.zip(iperfRunners).forEach { (address, iperfRunner) ->
+                        startIperf(iperfRunner, address)
+                    }
+                } catch (e: FatalException) {
+                    task(StopReason.STOPPED)
+                    throw e
+                }
+                idleTaskKiller.registerBlocking(idleTimeoutMillis) { task(StopReason.IDLE_TIMEOUT) }
+                killer.register { task(StopReason.STOPPED) }
+            }
+
+        private fun startIperf(iperfRunner: IperfRunner, address: ServerAddressResponse) {
+            while (true) {
+                try {
+                    // TODO validate not to have -c and -p in command
+                    iperfRunner.start("-c ${address.ip} -p ${address.portIperf} $args")
+                    return
+                } catch (e: InterruptedException) {
+                    onLog(LOG_TAG, "Interrupted iPerf start. Ignoring...", e)
+                } catch (e: IperfException) {
+                    throw FatalException("Could not start iPerf", e)
+                }
             }
         }
     }
 
     private inner class IperfOutputProcessor(
+        private val processesCount: Int,
         private val idleTaskKiller: IdleTaskKiller,
         private val speedEqualizer: Equalizer<*>,
+        private val convergenceDetector: ConvergenceDetector?,
+        private val onConverged: () -> Unit,
         private val onFinish: () -> Unit,
     ) {
         private val lock = ReentrantLock()
-        private val speedStatistics = LongSummaryStatistics()
+        private val speedStatistics = PercentileStatistics()
+
+        /** Reports are parsed into these instances without the lock */
+        private val parsedReports = Array(processesCount) { IntervalReport() }
+
+        /** Last report of every process, summed up when all of them report the next interval */
+        private val latestReports = Array(processesCount) { IntervalReport() }
+        private val aggregatedReport = IntervalReport()
+        private val reported = BooleanArray(processesCount)
+        private var reportedCount = 0
+        private var finishedCount = 0
 
-        fun onIperfStdoutLine(line: String) {
-            onLog("iPerf stdout", line, null)
+        /** The first reason to stop the processes, [StopReason.COMPLETED] if nothing stopped them */
+        private var stopReason = StopReason.COMPLETED
+
+        /** Set by [onAcceptedSpeed] while the aggregated speed is passed to the equalizer */
+        private var speedAccepted = false
+        private var converged = false
+        private val onAcceptedSpeed = LongConsumer(::onAcceptedSpeed)
+
+        fun onIperfStdoutLine(processIndex: Int, line: CharSequence) {
+            if (logIperfOutput) {
+                onLog("iPerf stdout", line.toString(), null)
+            }
             idleTaskKiller.updateTaskState()
-            val speed = try {
-                speedParser.parseSpeed(line)
+            val report = parsedReports[processIndex]
+            try {
+                speedParser.parse(line, report)
             } catch (e: IOException) {
                 onLog("Speed parser", "Invalid stdout format", e)
                 return
             }
 
+            // signal is sent without the lock, as runners call onIperfFinish under their locks
+            if (lock.withLock { onReport(processIndex, report) }) {
+                onConverged()
+            }
+        }
+
+        /** @return `true` if the speed has just converged */
+        private fun onReport(processIndex: Int, report: IntervalReport): Boolean {
+            if (report.bitsPerSecond == IntervalReport.NO_VALUE) {
+                // e.g. out-of-order datagrams are reported separately
+                onIntervalReport(report)
+                return false
+            }
+            var converged = false
+            if (reported[processIndex]) {
+                // some processes are lagging, do not wait for them
+                converged = onAggregatedReport()
+            }
+            latestReports[processIndex].set(report)
+            reported[processIndex] = true
+            reportedCount++
+            if (reportedCount == processesCount) {
+                converged = onAggregatedReport() || converged
+            }
+            return converged
+        }
+
+        /** @return `true` if the speed has just converged */
+        private fun onAggregatedReport(): Boolean {
+            aggregatedReport.reset()
+            latestReports.forEach { aggregatedReport.accumulate(it) }
+            reported.fill(false)
+            reportedCount = 0
+            onIntervalReport(aggregatedReport)
+
+            speedAccepted = false
+            converged = false
+            // the steady values of the ramp-up detector window are accepted at once
+            speedEqualizer.accept(aggregatedReport.bitsPerSecond, onAcceptedSpeed)
+            if (!speedAccepted) {
+                return false
+            }
+            try {
+                onSpeedUpdate(speedStatistics, speedEqualizer.getEqualized().toLong())
+            } catch (e: Equalizer.NoValueException) {
+                // the equalizer is still collecting its first values
+            }
+            return converged
+        }
+
+        private fun onAcceptedSpeed(speed: Long) {
+            speedAccepted = true
+            speedStatistics.accept(speed)
+            if (stopReason == StopReason.COMPLETED && convergenceDetector?.accept(speed) == true) {
+                stopReason = StopReason.CONVERGED
+                converged = true
+            }
+        }
+
+        fun stop(reason: StopReason) {
             lock.withLock {
-                if (speedEqualizer.accept(speed)) {
-                    speedStatistics.accept(speed)
-                    val equalizedSpeed = try {
-                        speedEqualizer.getEqualized()
-                    } catch (e: Equalizer.NoValueException) {
-                        return
-                    }
-                    onSpeedUpdate(speedStatistics, equalizedSpeed.toLong())
+                if (stopReason == StopReason.COMPLETED) {
+                    stopReason = reason
                 }
             }
         }
 
-        fun onIperfStderrLine(line: String) {
-            onLog("iPerf stderr", line, null)
+        fun onIperfStderrLine(line: CharSequence) {
+            if (logIperfOutput) {
+                onLog("iPerf stderr", line.toString(), null)
+            }
             idleTaskKiller.updateTaskState()
         }
 
         fun onIperfFinish() {
             lock.withLock {
-                onFinish(speedStatistics)
+                finishedCount++
+                if (finishedCount < processesCount) {
+                    return
+                }
+                onLog(LOG_TAG, "Finished with $stopReason after ${speedStatistics.count} samples", null)
+                onFinish(speedStatistics, stopReason)
             }
             onFinish()
         }
@@ -2,6 +2,8 @@ package ru.scoltech.openran.speedtest.task.impl
 
 import io.swagger.client.model.ServerAddressResponse
 import ru.scoltech.openran.speedtest.backend.ServiceApi
+import ru.scoltech.openran.speedtest.backend.isConnectFailure
+import ru.scoltech.openran.speedtest.task.RequestNotProcessedException
 import ru.scoltech.openran.speedtest.task.Task
 import ru.scoltech.openran.speedtest.util.Promise
 import ru.scoltech.openran.speedtest.util.TaskKiller
@@ -19,10 +21,24 @@ data class StartServiceIperfTask(
         killer.register(serviceApi::cancelStartIperf)
         // TODO check request/response body for memory leaks
         serviceApi.startIperf(argument.ip, argument.port, args)
-            .onSuccess { onSuccess?.invoke(argument) }
+            .onSuccess { response ->
+                if (response.isSuccessful) {
+                    onSuccess?.invoke(argument)
+                } else {
+                    val message = "Server could not start iPerf (status code = ${response.code()})"
+                    // service responds with 5xx if iPerf has not been started
+                    val notProcessed = response.code() in SERVER_ERROR_CODES
+                    onError?.invoke(message, if (notProcessed) RequestNotProcessedException(message) else null)
+                }
+            }
             .onError { _, e ->
-                onError?.invoke("Could not connect to the server", e)
+                val message = "Could not connect to the server"
+                onError?.invoke(message, if (e.isConnectFailure()) RequestNotProcessedException(message, e) else e)
             }
             .start()
     }
+
+    companion object {
+        private val SERVER_ERROR_CODES = 500..599
+    }
 }
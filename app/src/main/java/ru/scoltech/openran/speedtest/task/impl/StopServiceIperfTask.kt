@@ -7,6 +7,11 @@ data class StopServiceIperfTask(
     private val balancerApiBuilder: BalancerApiBuilder
 ) : (ServerAddressResponse) -> Unit {
     override fun invoke(p1: ServerAddressResponse) {
-        ServiceApi(balancerApiBuilder.httpClient).stopIperf(p1.ip, p1.port)
+        invoke(p1) {}
+    }
+
+    /** Sends the stop request, [onStopped] is called when the service responds or fails */
+    operator fun invoke(address: ServerAddressResponse, onStopped: () -> Unit) {
+        ServiceApi(balancerApiBuilder.httpClient).stopIperf(address.ip, address.port, onStopped)
     }
 }
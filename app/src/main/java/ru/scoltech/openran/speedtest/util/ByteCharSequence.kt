@@ -0,0 +1,42 @@
+package ru.scoltech.openran.speedtest.util
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Mutable [CharSequence] view of a byte array region, every byte is treated as a single
+ * ISO-8859-1 char, so indices of chars and bytes are the same. Suitable for ASCII text,
+ * other bytes are not decoded. Used to pass text lines without allocating strings,
+ * so the instance should not be retained after the callback returns, use [toString] instead.
+ */
+class ByteCharSequence(private val bytes: ByteArray) : CharSequence {
+    private var offset = 0
+    private var size = 0
+
+    override val length: Int
+        get() = size
+
+    fun set(offset: Int, length: Int): ByteCharSequence {
+        this.offset = offset
+        this.size = length
+        return this
+    }
+
+    override fun get(index: Int): Char {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index $index is out of [0, $size)")
+        }
+        return (bytes[offset + index].toInt() and 0xFF).toChar()
+    }
+
+    /** Returns a view of the same bytes, which is valid as long as this one */
+    override fun subSequence(startIndex: Int, endIndex: Int): CharSequence {
+        if (startIndex < 0 || endIndex > size || startIndex > endIndex) {
+            throw IndexOutOfBoundsException("Range [$startIndex, $endIndex) is out of [0, $size)")
+        }
+        return ByteCharSequence(bytes).set(offset + startIndex, endIndex - startIndex)
+    }
+
+    override fun toString(): String {
+        return String(bytes, offset, size, StandardCharsets.ISO_8859_1)
+    }
+}
@@ -0,0 +1,57 @@
+package ru.scoltech.openran.speedtest.util
+
+import kotlin.math.sqrt
+
+/**
+ * Detects that a series of values became stable.
+ *
+ * The series is considered converged when the half-width of the confidence interval
+ * of the mean of last [windowSize] values relative to the mean is not greater than
+ * [maxRelativeHalfWidth] and at least [minSamples] values are accepted.
+ */
+class ConvergenceDetector(
+    private val windowSize: Int,
+    private val maxRelativeHalfWidth: Double,
+    private val minSamples: Int = windowSize,
+    private val zScore: Double = Z_SCORE_95,
+) {
+    private val window = LongRingBuffer(windowSize)
+
+    var samples = 0
+        private set
+
+    init {
+        require(windowSize > 1) { "Window size should be greater than 1, but was $windowSize" }
+    }
+
+    /** @return `true` if the series has converged */
+    fun accept(value: Long): Boolean {
+        window.add(value)
+        samples++
+        if (!window.isFull || samples < minSamples) {
+            return false
+        }
+
+        val mean = window.sum.toDouble() / windowSize
+        if (mean <= 0) {
+            return false
+        }
+        var squaredDeviationsSum = 0.0
+        for (index in 0 until windowSize) {
+            val deviation = window[index] - mean
+            squaredDeviationsSum += deviation * deviation
+        }
+        val standardDeviation = sqrt(squaredDeviationsSum / (windowSize - 1))
+        val halfWidth = zScore * standardDeviation / sqrt(windowSize.toDouble())
+        return halfWidth / mean <= maxRelativeHalfWidth
+    }
+
+    /** Creates a detector with the same parameters and no values */
+    fun copy(): ConvergenceDetector {
+        return ConvergenceDetector(windowSize, maxRelativeHalfWidth, minSamples, zScore)
+    }
+
+    companion object {
+        const val Z_SCORE_95 = 1.96
+    }
+}
@@ -6,9 +6,21 @@ import kotlin.jvm.Throws
 interface Equalizer<E : Equalizer<E>> {
     fun accept(value: Long): Boolean
 
+    /**
+     * Accepts the [value] and passes every value which is taken into account from now on
+     * to [onAccepted]. That is the value itself if [accept] returns `true`, but the equalizers
+     * delaying their decision could pass several earlier values at once.
+     */
+    fun accept(value: Long, onAccepted: LongConsumer) {
+        if (accept(value)) {
+            onAccepted.accept(value)
+        }
+    }
+
     @Throws(NoValueException::class)
     fun getEqualized(): Double
 
+    /** Copies the equalizer together with its state, including the amount of the skipped values */
     fun copy(): E
 
     class NoValueException : Exception()
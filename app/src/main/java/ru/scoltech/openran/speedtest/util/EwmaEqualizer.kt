@@ -0,0 +1,48 @@
+package ru.scoltech.openran.speedtest.util
+
+/**
+ * Skips first [skipAmount] values and then computes exponentially weighted moving average
+ * `average = smoothing * value + (1 - smoothing) * average`.
+ * The value is available after [warmUpAmount] values are accepted.
+ */
+class EwmaEqualizer(
+    private val skipAmount: Int,
+    private val smoothing: Double,
+    private val warmUpAmount: Int = 1,
+) : Equalizer<EwmaEqualizer> {
+    private var average = 0.0
+    private var skipped = 0
+    private var accepted = 0
+
+    init {
+        require(smoothing > 0 && smoothing <= 1) { "Smoothing should be in (0, 1], but was $smoothing" }
+    }
+
+    override fun getEqualized(): Double {
+        return if (accepted >= warmUpAmount && accepted > 0) {
+            average
+        } else {
+            throw Equalizer.NoValueException()
+        }
+    }
+
+    override fun copy(): EwmaEqualizer {
+        return EwmaEqualizer(skipAmount, smoothing, warmUpAmount).apply {
+            average = this@EwmaEqualizer.average
+            accepted = this@EwmaEqualizer.accepted
+            skipped = this@EwmaEqualizer.skipped
+        }
+    }
+
+    override fun accept(value: Long): Boolean {
+        if (skipped < skipAmount) {
+            skipped++
+            return false
+        }
+        average = if (accepted == 0) value.toDouble() else smoothing * value + (1 - smoothing) * average
+        if (accepted < Int.MAX_VALUE) {
+            accepted++
+        }
+        return true
+    }
+}
@@ -0,0 +1,112 @@
+package ru.scoltech.openran.speedtest.util
+
+import kotlin.math.ceil
+
+/**
+ * Fixed memory histogram of non-negative long values with logarithmic buckets.
+ *
+ * Values less than `2^significantBits` are counted exactly, every next power of two range
+ * is split into `2^significantBits` equal buckets, so the relative error of any
+ * reported value is less than `2^-significantBits`. Values greater than [maxValue] are
+ * counted in the last bucket. Recording is `O(1)` and does not allocate.
+ * Histograms with the same layout could be merged, e.g. to combine several test runs.
+ * Instances are not thread safe, use [snapshot] to pass a histogram to another thread.
+ */
+class LogHistogram(
+    val maxValue: Long = DEFAULT_MAX_VALUE,
+    val significantBits: Int = DEFAULT_SIGNIFICANT_BITS,
+) {
+    private val subBucketCount = 1 shl significantBits
+    private val counts: LongArray
+
+    var count = 0L
+        private set
+
+    init {
+        require(significantBits in 1..MAX_SIGNIFICANT_BITS) {
+            "Significant bits should be in [1, $MAX_SIGNIFICANT_BITS], but was $significantBits"
+        }
+        require(maxValue > 0) { "Max value should be positive, but was $maxValue" }
+        counts = LongArray(bucketIndex(maxValue) + 1)
+    }
+
+    /** @throws IllegalArgumentException if the value is negative */
+    fun record(value: Long) {
+        require(value >= 0) { "Value should be non-negative, but was $value" }
+        counts[bucketIndex(minOf(value, maxValue))]++
+        count++
+    }
+
+    /**
+     * Returns the value below or at which the given [percentile] of recorded values lie.
+     * The middle of the bucket is returned, so the result is within the bucket precision.
+     *
+     * @param percentile value in `[0, 100]`
+     * @throws IllegalStateException if nothing is recorded.
+     */
+    fun getValueAtPercentile(percentile: Double): Long {
+        require(percentile in 0.0..100.0) { "Percentile should be in [0, 100], but was $percentile" }
+        check(count > 0) { "Histogram is empty" }
+
+        val rank = maxOf(1L, ceil(percentile / 100 * count).toLong())
+        var cumulativeCount = 0L
+        for (index in counts.indices) {
+            cumulativeCount += counts[index]
+            if (cumulativeCount >= rank) {
+                return bucketMiddle(index)
+            }
+        }
+        return bucketMiddle(counts.size - 1)
+    }
+
+    /**
+     * Adds all values of the [other] histogram to this one.
+     *
+     * @throws IllegalArgumentException if histograms have different layouts.
+     */
+    fun merge(other: LogHistogram): LogHistogram {
+        require(maxValue == other.maxValue && significantBits == other.significantBits) {
+            "Histograms with different layouts could not be merged"
+        }
+        for (index in counts.indices) {
+            counts[index] += other.counts[index]
+        }
+        count += other.count
+        return this
+    }
+
+    fun snapshot(): LogHistogram {
+        return LogHistogram(maxValue, significantBits).merge(this)
+    }
+
+    fun reset() {
+        counts.fill(0)
+        count = 0
+    }
+
+    private fun bucketIndex(value: Long): Int {
+        if (value < subBucketCount) {
+            return value.toInt()
+        }
+        val exponent = Long.SIZE_BITS - 1 - value.countLeadingZeroBits()
+        val shift = exponent - significantBits
+        val subBucket = (value ushr shift).toInt() - subBucketCount
+        return (shift + 1) * subBucketCount + subBucket
+    }
+
+    private fun bucketMiddle(index: Int): Long {
+        if (index < subBucketCount) {
+            return index.toLong()
+        }
+        val shift = index / subBucketCount - 1
+        val lowerBound = (subBucketCount + index % subBucketCount).toLong() shl shift
+        return lowerBound + ((1L shl shift) - 1) / 2
+    }
+
+    companion object {
+        /** 1 Tbit/s is far beyond any speed and ping in microseconds */
+        const val DEFAULT_MAX_VALUE = 1L shl 40
+        const val DEFAULT_SIGNIFICANT_BITS = 6
+        private const val MAX_SIGNIFICANT_BITS = 16
+    }
+}
@@ -0,0 +1,60 @@
+package ru.scoltech.openran.speedtest.util
+
+/**
+ * Fixed capacity ring buffer of primitive longs, which maintains the sum of its values.
+ * When the buffer is full, the oldest value is overwritten.
+ */
+class LongRingBuffer(val capacity: Int) {
+    private val values = LongArray(capacity)
+    private var head = 0
+
+    var size = 0
+        private set
+
+    var sum = 0L
+        private set
+
+    val isFull: Boolean
+        get() = size == capacity
+
+    init {
+        require(capacity > 0) { "Capacity should be positive, but was $capacity" }
+    }
+
+    /** Returns the value by index, the oldest value has index `0` */
+    operator fun get(index: Int): Long {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index $index is out of [0, $size)")
+        }
+        return values[(head + index) % capacity]
+    }
+
+    /** Returns the value which will be overwritten by the next [add] if the buffer is full */
+    fun oldest(): Long {
+        if (size == 0) {
+            throw NoSuchElementException("Buffer is empty")
+        }
+        return values[head]
+    }
+
+    fun add(value: Long) {
+        val tail = (head + size) % capacity
+        if (isFull) {
+            sum -= values[head]
+            head = (head + 1) % capacity
+        } else {
+            size++
+        }
+        values[tail] = value
+        sum += value
+    }
+
+    fun set(other: LongRingBuffer): LongRingBuffer {
+        require(capacity == other.capacity) { "Capacities differ: $capacity and ${other.capacity}" }
+        System.arraycopy(other.values, 0, values, 0, capacity)
+        head = other.head
+        size = other.size
+        sum = other.sum
+        return this
+    }
+}
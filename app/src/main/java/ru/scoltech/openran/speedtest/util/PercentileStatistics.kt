@@ -0,0 +1,37 @@
+package ru.scoltech.openran.speedtest.util
+
+import java.util.*
+
+/**
+ * [LongSummaryStatistics] which also records values in a [LogHistogram],
+ * so that percentiles are available alongside the mean, which is distorted
+ * by the slow start and the dips.
+ */
+class PercentileStatistics(
+    val histogram: LogHistogram = LogHistogram(),
+) : LongSummaryStatistics() {
+    override fun accept(value: Long) {
+        super.accept(value)
+        histogram.record(maxOf(value, 0L))
+    }
+
+    /**
+     * @param percentile value in `[0, 100]`
+     * @return value at the percentile or `0` if there are no values like [getAverage] does.
+     */
+    fun getPercentile(percentile: Double): Long {
+        return if (count > 0) histogram.getValueAtPercentile(percentile) else 0
+    }
+
+    /** Returns the independent copy to be passed to another thread */
+    fun snapshot(): PercentileStatistics {
+        return PercentileStatistics(histogram.snapshot()).also { it.combine(this) }
+    }
+
+    companion object {
+        const val P5 = 5.0
+        const val P50 = 50.0
+        const val P90 = 90.0
+        const val P99 = 99.0
+    }
+}
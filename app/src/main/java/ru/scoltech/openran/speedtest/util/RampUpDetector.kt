@@ -0,0 +1,94 @@
+package ru.scoltech.openran.speedtest.util
+
+import java.util.function.LongConsumer
+
+/**
+ * Detects the end of the throughput ramp-up (e.g. TCP slow start).
+ *
+ * Least squares slope of last [windowSize] values is computed for every value.
+ * Ramp-up is over when the growth over the window relative to its mean is not greater than
+ * [maxRelativeGrowth] or when [maxRampUpSamples] values are seen, whatever comes first.
+ * In the former case the whole window is steady, so its values are not the ramp-up
+ * even though they were reported so before the window filled up (see [forEachSteadyValue]).
+ */
+class RampUpDetector(
+    private val windowSize: Int,
+    private val maxRelativeGrowth: Double,
+    private val maxRampUpSamples: Int,
+) {
+    private val window = LongRingBuffer(windowSize)
+
+    /** Amount of values which belong to the ramp-up */
+    var rampUpSamples = 0
+        private set
+
+    var isRampUpOver = false
+        private set
+
+    /** Amount of the newest values of the window which turned out to be steady */
+    private var steadySamples = 0
+
+    init {
+        require(windowSize > 1) { "Window size should be greater than 1, but was $windowSize" }
+    }
+
+    /** @return `true` if the value is a part of the ramp-up */
+    fun accept(value: Long): Boolean {
+        if (isRampUpOver) {
+            return false
+        }
+
+        window.add(value)
+        if (window.isFull && getRelativeGrowth() <= maxRelativeGrowth) {
+            isRampUpOver = true
+            rampUpSamples -= windowSize - 1
+            steadySamples = windowSize
+            return false
+        }
+        if (rampUpSamples >= maxRampUpSamples) {
+            isRampUpOver = true
+            steadySamples = 1
+            return false
+        }
+        rampUpSamples++
+        return true
+    }
+
+    /**
+     * Passes the values which turned out to be steady when the ramp-up ended to the [action],
+     * the oldest first. These are the whole window if the growth stopped or the last value
+     * if the ramp-up was too long. All of them but the last one were rejected by [accept] before,
+     * so this should be called once right after [accept] reports the end of the ramp-up.
+     */
+    fun forEachSteadyValue(action: LongConsumer) {
+        for (index in window.size - steadySamples until window.size) {
+            action.accept(window[index])
+        }
+    }
+
+    private fun getRelativeGrowth(): Double {
+        val mean = window.sum.toDouble() / windowSize
+        if (mean <= 0) {
+            return Double.POSITIVE_INFINITY
+        }
+        val meanIndex = (windowSize - 1) / 2.0
+        var covariance = 0.0
+        var indexVariance = 0.0
+        for (index in 0 until windowSize) {
+            val indexDeviation = index - meanIndex
+            covariance += indexDeviation * (window[index] - mean)
+            indexVariance += indexDeviation * indexDeviation
+        }
+        val slope = covariance / indexVariance
+        return slope * (windowSize - 1) / mean
+    }
+
+    fun copy(): RampUpDetector {
+        return RampUpDetector(windowSize, maxRelativeGrowth, maxRampUpSamples).also {
+            it.window.set(window)
+            it.rampUpSamples = rampUpSamples
+            it.isRampUpOver = isRampUpOver
+            it.steadySamples = steadySamples
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.scoltech.openran.speedtest.util
+
+import java.util.function.LongConsumer
+
+/**
+ * Skips values until the [rampUpDetector] reports the end of the ramp-up
+ * and then passes them to the [delegate], so only the real warm-up is excluded
+ * instead of a fixed amount of values. The window which has proven steady
+ * is passed to the [delegate] at the end of the ramp-up, so it is not lost.
+ */
+class RampUpSkippingEqualizer(
+    private val delegate: Equalizer<*>,
+    private val rampUpDetector: RampUpDetector,
+) : Equalizer<RampUpSkippingEqualizer> {
+    override fun accept(value: Long): Boolean {
+        var accepted = false
+        accept(value) { accepted = true }
+        return accepted
+    }
+
+    override fun accept(value: Long, onAccepted: LongConsumer) {
+        if (rampUpDetector.isRampUpOver) {
+            delegate.accept(value, onAccepted)
+        } else if (!rampUpDetector.accept(value)) {
+            rampUpDetector.forEachSteadyValue { delegate.accept(it, onAccepted) }
+        }
+    }
+
+    override fun getEqualized(): Double {
+        return delegate.getEqualized()
+    }
+
+    override fun copy(): RampUpSkippingEqualizer {
+        return RampUpSkippingEqualizer(delegate.copy(), rampUpDetector.copy())
+    }
+}
@@ -1,17 +1,19 @@
 package ru.scoltech.openran.speedtest.util
 
-import java.util.*
-
+/**
+ * Skips first [skipAmount] values and then averages last [maxStoring] values.
+ * Running sum of the window is maintained, so both [accept] and [getEqualized] are `O(1)`.
+ */
 class SkipThenAverageEqualizer(
     private val skipAmount: Int,
     private val maxStoring: Int
 ) : Equalizer<SkipThenAverageEqualizer> {
-    private val valueQueue: Queue<Long> = ArrayDeque(maxStoring)
+    private val window = LongRingBuffer(maxStoring)
     private var skipped = 0
 
     override fun getEqualized(): Double {
-        return if (valueQueue.size == maxStoring) {
-            valueQueue.average()
+        return if (window.isFull) {
+            window.sum.toDouble() / maxStoring
         } else {
             throw Equalizer.NoValueException()
         }
@@ -19,7 +21,8 @@ class SkipThenAverageEqualizer(
 
     override fun copy(): SkipThenAverageEqualizer {
         return SkipThenAverageEqualizer(skipAmount, maxStoring).apply {
-            valueQueue.addAll(this@SkipThenAverageEqualizer.valueQueue)
+            window.set(this@SkipThenAverageEqualizer.window)
+            skipped = this@SkipThenAverageEqualizer.skipped
         }
     }
 
@@ -28,9 +31,7 @@ class SkipThenAverageEqualizer(
             skipped++
             return false
         }
-        if (valueQueue.size == maxStoring) {
-            valueQueue.remove()
-        }
-        return valueQueue.add(value)
+        window.add(value)
+        return true
     }
 }
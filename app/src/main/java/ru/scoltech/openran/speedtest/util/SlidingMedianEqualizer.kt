@@ -0,0 +1,44 @@
+package ru.scoltech.openran.speedtest.util
+
+/**
+ * Skips first [skipAmount] values and then takes the median of last [maxStoring] values,
+ * which is insensitive to the single spikes of the speed.
+ * The window is kept sorted, so [getEqualized] is `O(1)`.
+ */
+class SlidingMedianEqualizer(
+    private val skipAmount: Int,
+    private val maxStoring: Int
+) : Equalizer<SlidingMedianEqualizer> {
+    private val window = LongRingBuffer(maxStoring)
+    private val sortedWindow = SortedLongArray(maxStoring)
+    private var skipped = 0
+
+    override fun getEqualized(): Double {
+        if (!window.isFull) {
+            throw Equalizer.NoValueException()
+        }
+        val middle = maxStoring / 2
+        return if (maxStoring % 2 == 1) {
+            sortedWindow[middle].toDouble()
+        } else {
+            (sortedWindow[middle - 1].toDouble() + sortedWindow[middle]) / 2
+        }
+    }
+
+    override fun copy(): SlidingMedianEqualizer {
+        return SlidingMedianEqualizer(skipAmount, maxStoring).apply {
+            window.set(this@SlidingMedianEqualizer.window)
+            sortedWindow.set(this@SlidingMedianEqualizer.sortedWindow)
+            skipped = this@SlidingMedianEqualizer.skipped
+        }
+    }
+
+    override fun accept(value: Long): Boolean {
+        if (skipped < skipAmount) {
+            skipped++
+            return false
+        }
+        sortedWindow.slide(window, value)
+        return true
+    }
+}
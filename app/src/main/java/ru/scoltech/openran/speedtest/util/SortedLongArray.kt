@@ -0,0 +1,66 @@
+package ru.scoltech.openran.speedtest.util
+
+/**
+ * Fixed capacity array of primitive longs kept in the ascending order.
+ * Insertion and removal take `O(log n)` comparisons and `O(n)` moves,
+ * which is the cheapest option for the small windows of the equalizers.
+ */
+class SortedLongArray(val capacity: Int) {
+    private val values = LongArray(capacity)
+
+    var size = 0
+        private set
+
+    operator fun get(index: Int): Long {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index $index is out of [0, $size)")
+        }
+        return values[index]
+    }
+
+    fun insert(value: Long) {
+        if (size == capacity) {
+            throw IllegalStateException("Array is full")
+        }
+        val index = search(value).let { if (it < 0) -it - 1 else it }
+        System.arraycopy(values, index, values, index + 1, size - index)
+        values[index] = value
+        size++
+    }
+
+    /** @return `false` if there is no such value */
+    fun remove(value: Long): Boolean {
+        val index = search(value)
+        if (index < 0) {
+            return false
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1)
+        size--
+        return true
+    }
+
+    /**
+     * Adds the [value] to the [window], which this array is a sorted copy of,
+     * and replaces the value evicted from the window with the new one.
+     */
+    fun slide(window: LongRingBuffer, value: Long) {
+        if (window.isFull) {
+            remove(window.oldest())
+        }
+        window.add(value)
+        insert(value)
+    }
+
+    fun set(other: SortedLongArray): SortedLongArray {
+        require(capacity == other.capacity) { "Capacities differ: $capacity and ${other.capacity}" }
+        System.arraycopy(other.values, 0, values, 0, other.size)
+        size = other.size
+        return this
+    }
+
+    fun clear() {
+        size = 0
+    }
+
+    private fun search(value: Long) = values.binarySearch(value, 0, size)
+}
@@ -0,0 +1,49 @@
+package ru.scoltech.openran.speedtest.util
+
+/**
+ * Skips first [skipAmount] values and then averages last [maxStoring] values
+ * except for [trimAmount] the lowest and [trimAmount] the highest ones.
+ */
+class TrimmedMeanEqualizer(
+    private val skipAmount: Int,
+    private val maxStoring: Int,
+    private val trimAmount: Int,
+) : Equalizer<TrimmedMeanEqualizer> {
+    private val window = LongRingBuffer(maxStoring)
+    private val sortedWindow = SortedLongArray(maxStoring)
+    private var skipped = 0
+
+    init {
+        require(2 * trimAmount < maxStoring) {
+            "Trimmed values amount ${2 * trimAmount} should be less than window size $maxStoring"
+        }
+    }
+
+    override fun getEqualized(): Double {
+        if (!window.isFull) {
+            throw Equalizer.NoValueException()
+        }
+        var trimmedSum = window.sum
+        for (index in 0 until trimAmount) {
+            trimmedSum -= sortedWindow[index] + sortedWindow[maxStoring - 1 - index]
+        }
+        return trimmedSum.toDouble() / (maxStoring - 2 * trimAmount)
+    }
+
+    override fun copy(): TrimmedMeanEqualizer {
+        return TrimmedMeanEqualizer(skipAmount, maxStoring, trimAmount).apply {
+            window.set(this@TrimmedMeanEqualizer.window)
+            sortedWindow.set(this@TrimmedMeanEqualizer.sortedWindow)
+            skipped = this@TrimmedMeanEqualizer.skipped
+        }
+    }
+
+    override fun accept(value: Long): Boolean {
+        if (skipped < skipAmount) {
+            skipped++
+            return false
+        }
+        sortedWindow.slide(window, value)
+        return true
+    }
+}
@@ -1,11 +1,7 @@
 LOCAL_PATH := $(call my-dir)
-include $(CLEAR_VARS)
-LOCAL_MODULE := iperf2
-LOCAL_MODULE_TAGS := dev
-LOCAL_CFLAGS := -DHAVE_CONFIG_H -UAF_INET6 -w -Wno-error=format-security
-LOCAL_LDFLAGS := -fPIE -pie
-LOCAL_MODULE_PATH := $(TARGET_OUT_OPTIONAL_EXECUTABLES)
-LOCAL_SRC_FILES := \
+
+IPERF_CFLAGS := -DHAVE_CONFIG_H -UAF_INET6 -w -Wno-error=format-security
+IPERF_SRC_FILES := \
         ../../../../iPerf/compat/delay.c \
         ../../../../iPerf/compat/error.c \
         ../../../../iPerf/compat/gettimeofday.c \
@@ -39,11 +35,44 @@ LOCAL_SRC_FILES := \
         ../../../../iPerf/src/packet_ring.c \
         ../../../../iPerf/src/ReportOutputs.c \
         ../../../../iPerf/src/Reports.c \
-        ../cpp/src/mainJni.cpp \
 
-LOCAL_C_INCLUDES += \
+IPERF_C_INCLUDES := \
         $(LOCAL_PATH)/../cpp \
         $(LOCAL_PATH)/../../../../iPerf/include
 
+include $(CLEAR_VARS)
+LOCAL_MODULE := iperf2
+LOCAL_MODULE_TAGS := dev
+LOCAL_CFLAGS := $(IPERF_CFLAGS)
+LOCAL_LDFLAGS := -fPIE -pie
+LOCAL_MODULE_PATH := $(TARGET_OUT_OPTIONAL_EXECUTABLES)
+LOCAL_SRC_FILES := \
+        $(IPERF_SRC_FILES) \
+        ../cpp/src/mainJni.cpp \
+
+LOCAL_C_INCLUDES += $(IPERF_C_INCLUDES)
+
 LOCAL_DISABLE_FORMAT_STRING_CHECKS := true
 include $(BUILD_SHARED_LIBRARY)
+
+# Standalone iPerf executable, which is spawned instead of forking the application process
+include $(CLEAR_VARS)
+LOCAL_MODULE := iperf2exec
+LOCAL_MODULE_TAGS := dev
+LOCAL_CFLAGS := $(IPERF_CFLAGS) -Dmain=iperf_main
+LOCAL_LDFLAGS := -fPIE -pie
+LOCAL_SRC_FILES := \
+        $(IPERF_SRC_FILES) \
+        ../cpp/src/mainExec.cpp \
+
+LOCAL_C_INCLUDES += $(IPERF_C_INCLUDES)
+
+LOCAL_DISABLE_FORMAT_STRING_CHECKS := true
+include $(BUILD_EXECUTABLE)
+
+# Only lib*.so files are packaged and extracted to the native library directory,
+# which is the only place an application is allowed to execute files from
+IPERF_EXEC_PACKAGED := $(NDK_APP_DST_DIR)/libiperf2exec.so
+$(IPERF_EXEC_PACKAGED): $(LOCAL_INSTALLED)
+	$(hide) cp -f $< $@
+installed_modules: $(IPERF_EXEC_PACKAGED)
@@ -0,0 +1,125 @@
+package ru.scoltech.openran.speedtest
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import ru.scoltech.openran.speedtest.backend.UdpPinger
+import ru.scoltech.openran.speedtest.domain.UdpPingStatistics
+import java.net.DatagramSocket
+import java.net.InetSocketAddress
+import java.net.SocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Loopback tests of the reflector, which also benchmark the ping round trip
+ * of the [UdpPinger] and the server together.
+ */
+class PingCheckServerTest {
+    private val port = DatagramSocket(0).use { it.localPort }
+    private val server = PingCheckServer(port)
+
+    @Before
+    fun startServer() {
+        server.start()
+    }
+
+    @After
+    fun stopServer() {
+        server.stop()
+    }
+
+    @Test
+    fun packetIsReflectedAndCounted() {
+        DatagramChannel.open().use { client ->
+            client.connect(InetSocketAddress("127.0.0.1", port))
+            client.write(ByteBuffer.wrap(byteArrayOf(1, 2, 3)))
+
+            val reply = ByteBuffer.allocate(16)
+            client.read(reply)
+            reply.flip()
+
+            assertEquals(ByteBuffer.wrap(byteArrayOf(1, 2, 3)), reply)
+            val counters = server.clientCounters[client.localAddress]!!
+            assertEquals(1L, counters.packets)
+            assertEquals(3L, counters.bytes)
+            assertEquals(0L, counters.drops)
+        }
+
+        server.resetClientCounters()
+        assertTrue(server.clientCounters.isEmpty())
+    }
+
+    @Test
+    fun serverIsStartedOnce() {
+        assertTrue(server.isRunning)
+        assertThrows(IllegalStateException::class.java) { server.start() }
+
+        server.stop()
+        server.stop()
+        assertFalse(server.isRunning)
+    }
+
+    @Test
+    fun idleClientsAreEvicted() {
+        val evictingPort = DatagramSocket(0).use { it.localPort }
+        val evictingServer = PingCheckServer(evictingPort, 1, 0)
+        evictingServer.start()
+        try {
+            val first = ping(evictingPort)
+            val second = ping(evictingPort)
+
+            assertEquals(setOf(second), evictingServer.clientCounters.keys)
+            assertNotEquals(first, second)
+        } finally {
+            evictingServer.stop()
+        }
+    }
+
+    @Test
+    fun loopbackPing() {
+        val finished = CompletableFuture<UdpPingStatistics>()
+        val startNanos = System.nanoTime()
+        UdpPinger().start("127.0.0.1", port, PROBE_COUNT, PROBE_INTERVAL_MILLIS)
+            .onSuccess { finished.complete(UdpPingStatistics().set(it)) }
+            .onError { finished.completeExceptionally(it) }
+            .start()
+
+        val statistics = finished.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        val elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000
+        println("loopback ping of $PROBE_COUNT probes in $elapsedMillis ms: $statistics")
+
+        assertEquals(PROBE_COUNT.toLong(), statistics.sent)
+        assertTrue("$statistics", statistics.lost <= PROBE_COUNT * MAX_LOSS_RATIO)
+        assertEquals(0L, statistics.duplicated)
+        assertTrue(
+            "${statistics.getRttPercentileMicros(UdpPingStatistics.P50)} us",
+            statistics.getRttPercentileMicros(UdpPingStatistics.P50) < MAX_LOOPBACK_MEDIAN_RTT_MICROS
+        )
+        val reflected = server.clientCounters.values.sumOf { it.packets }
+        assertTrue("$reflected", reflected >= statistics.received)
+    }
+
+    /** @return address of the new client, which has received the reply */
+    private fun ping(port: Int): SocketAddress {
+        return DatagramChannel.open().use { client ->
+            client.connect(InetSocketAddress("127.0.0.1", port))
+            client.write(ByteBuffer.wrap(byteArrayOf(1)))
+            client.read(ByteBuffer.allocate(16))
+            client.localAddress
+        }
+    }
+
+    companion object {
+        private const val PROBE_COUNT = 500
+        private const val PROBE_INTERVAL_MILLIS = 1L
+        private const val TIMEOUT_SECONDS = 30L
+        /** Loopback should not lose datagrams at this rate, but the test should not be flaky */
+        private const val MAX_LOSS_RATIO = 0.01
+        /** Gross regression bound, a loopback round trip takes tens of microseconds */
+        private const val MAX_LOOPBACK_MEDIAN_RTT_MICROS = 50_000L
+    }
+}
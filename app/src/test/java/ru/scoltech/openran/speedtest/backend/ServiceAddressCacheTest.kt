@@ -0,0 +1,197 @@
+package ru.scoltech.openran.speedtest.backend
+
+import android.content.SharedPreferences
+import io.swagger.client.model.ServerAddressResponse
+import org.junit.Assert.*
+import org.junit.Test
+import java.net.InetSocketAddress
+
+class ServiceAddressCacheTest {
+    private val balancer = InetSocketAddress("10.0.0.1", 5000)
+    private val otherBalancer = InetSocketAddress("10.0.0.2", 5000)
+    private val service = ServerAddressResponse().ip("10.0.1.1").port(5001).portIperf(5201)
+
+    @Test
+    fun putServiceIsReturned() {
+        val cache = ServiceAddressCache(TTL_MILLIS)
+        cache.put(balancer, service)
+
+        assertService(service, cache.get(balancer))
+        assertNull(cache.get(otherBalancer))
+    }
+
+    @Test
+    fun expiredServiceIsDropped() {
+        val cache = ServiceAddressCache(0)
+        cache.put(balancer, service)
+
+        assertNull(cache.get(balancer))
+    }
+
+    @Test
+    fun serviceOfAnotherNetworkIsDropped() {
+        var network = 1L
+        val cache = ServiceAddressCache(TTL_MILLIS) { network }
+        cache.put(balancer, service)
+
+        network = 2L
+        assertNull(cache.get(balancer))
+
+        network = 1L
+        assertNull(cache.get(balancer))
+    }
+
+    @Test
+    fun invalidateDropsServices() {
+        val preferences = FakeSharedPreferences()
+        val cache = ServiceAddressCache(TTL_MILLIS, preferences)
+        cache.put(balancer, service)
+        cache.put(otherBalancer, service)
+
+        cache.invalidate(balancer)
+
+        assertNull(cache.get(balancer))
+        assertService(service, cache.get(otherBalancer))
+        assertEquals(setOf("10.0.0.2:5000"), preferences.all.keys)
+
+        cache.invalidateAll()
+
+        assertNull(cache.get(otherBalancer))
+        assertTrue(preferences.all.isEmpty())
+    }
+
+    @Test
+    fun servicesArePersisted() {
+        val preferences = FakeSharedPreferences()
+        val absentPorts = ServerAddressResponse().ip("10.0.1.2")
+        ServiceAddressCache(TTL_MILLIS, preferences) { 7L }.apply {
+            put(balancer, service)
+            put(otherBalancer, absentPorts)
+        }
+
+        val restored = ServiceAddressCache(TTL_MILLIS, preferences) { 7L }
+
+        assertService(service, restored.get(balancer))
+        assertService(absentPorts, restored.get(otherBalancer))
+    }
+
+    @Test
+    fun persistedServicesOfAnotherNetworkAreDropped() {
+        val preferences = FakeSharedPreferences()
+        ServiceAddressCache(TTL_MILLIS, preferences) { 7L }.put(balancer, service)
+
+        val restored = ServiceAddressCache(TTL_MILLIS, preferences) { 8L }
+
+        assertNull(restored.get(balancer))
+        assertTrue(preferences.all.isEmpty())
+    }
+
+    @Test
+    fun malformedEntriesAreIgnored() {
+        val preferences = FakeSharedPreferences()
+        val farFuture = Long.MAX_VALUE
+        preferences.edit()
+            .putString("10.0.0.1:5000", "10.0.1.1,5001,5201,$farFuture")
+            .putString("10.0.0.2:5000", "10.0.1.1,port,5201,$farFuture,0")
+            .putString("10.0.0.3:5000", "10.0.1.1,5001,5201,$farFuture,0")
+            .putInt("10.0.0.4:5000", 1)
+            .apply()
+
+        val cache = ServiceAddressCache(TTL_MILLIS, preferences)
+
+        assertNull(cache.get(balancer))
+        assertNull(cache.get(otherBalancer))
+        assertService(service, cache.get(InetSocketAddress("10.0.0.3", 5000)))
+    }
+
+    private fun assertService(expected: ServerAddressResponse, actual: ServerAddressResponse?) {
+        assertNotNull(actual)
+        assertEquals(expected.ip, actual!!.ip)
+        assertEquals(expected.port, actual.port)
+        assertEquals(expected.portIperf, actual.portIperf)
+    }
+
+    /** In-memory preferences, edits are applied immediately */
+    private class FakeSharedPreferences : SharedPreferences {
+        private val values = mutableMapOf<String, Any?>()
+
+        override fun getAll(): MutableMap<String, *> = values.toMutableMap()
+
+        override fun getString(key: String, defValue: String?) = values[key] as? String ?: defValue
+
+        override fun getStringSet(key: String, defValues: MutableSet<String>?): MutableSet<String>? {
+            @Suppress("UNCHECKED_CAST")
+            return values[key] as? MutableSet<String> ?: defValues
+        }
+
+        override fun getInt(key: String, defValue: Int) = values[key] as? Int ?: defValue
+
+        override fun getLong(key: String, defValue: Long) = values[key] as? Long ?: defValue
+
+        override fun getFloat(key: String, defValue: Float) = values[key] as? Float ?: defValue
+
+        override fun getBoolean(key: String, defValue: Boolean) = values[key] as? Boolean ?: defValue
+
+        override fun contains(key: String) = key in values
+
+        override fun edit(): SharedPreferences.Editor = Editor()
+
+        override fun registerOnSharedPreferenceChangeListener(
+            listener: SharedPreferences.OnSharedPreferenceChangeListener
+        ) = throw UnsupportedOperationException()
+
+        override fun unregisterOnSharedPreferenceChangeListener(
+            listener: SharedPreferences.OnSharedPreferenceChangeListener
+        ) = throw UnsupportedOperationException()
+
+        private inner class Editor : SharedPreferences.Editor {
+            private val changes = mutableMapOf<String, Any?>()
+            private val removals = mutableSetOf<String>()
+            private var cleared = false
+
+            override fun putString(key: String, value: String?) = put(key, value)
+
+            override fun putStringSet(key: String, values: MutableSet<String>?) = put(key, values)
+
+            override fun putInt(key: String, value: Int) = put(key, value)
+
+            override fun putLong(key: String, value: Long) = put(key, value)
+
+            override fun putFloat(key: String, value: Float) = put(key, value)
+
+            override fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+            override fun remove(key: String): SharedPreferences.Editor {
+                removals.add(key)
+                return this
+            }
+
+            override fun clear(): SharedPreferences.Editor {
+                cleared = true
+                return this
+            }
+
+            override fun commit(): Boolean {
+                if (cleared) {
+                    values.clear()
+                }
+                removals.forEach { values.remove(it) }
+                values.putAll(changes)
+                return true
+            }
+
+            override fun apply() {
+                commit()
+            }
+
+            private fun put(key: String, value: Any?): SharedPreferences.Editor {
+                changes[key] = value
+                return this
+            }
+        }
+    }
+
+    companion object {
+        private const val TTL_MILLIS = 60_000L
+    }
+}
@@ -0,0 +1,104 @@
+package ru.scoltech.openran.speedtest.domain
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class IntervalReportTest {
+    @Test
+    fun accumulateSumsCountsAndKeepsWorstJitter() {
+        val first = udpReport(streamId = 3, startMicros = 0, endMicros = 1_000_000, jitterMicros = 12)
+        val second = udpReport(streamId = 4, startMicros = 0, endMicros = 1_000_000, jitterMicros = 30)
+
+        first.accumulate(second)
+
+        assertTrue(first.isSum)
+        assertEquals(0L, first.intervalStartMicros)
+        assertEquals(1_000_000L, first.intervalEndMicros)
+        assertEquals(200L, first.bytes)
+        assertEquals(1600L, first.bitsPerSecond)
+        assertEquals(30L, first.jitterMicros)
+        assertEquals(2L, first.lostDatagrams)
+        assertEquals(20L, first.totalDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, first.outOfOrderDatagrams)
+    }
+
+    @Test
+    fun accumulateCoversBothIntervals() {
+        val first = udpReport(streamId = 1, startMicros = 1_000_000, endMicros = 2_000_000, jitterMicros = 1)
+        first.timestampNanos = 10
+        val second = udpReport(streamId = 2, startMicros = 900_000, endMicros = 1_900_000, jitterMicros = 1)
+        second.timestampNanos = 20
+
+        first.accumulate(second)
+
+        assertEquals(900_000L, first.intervalStartMicros)
+        assertEquals(2_000_000L, first.intervalEndMicros)
+        assertEquals(20L, first.timestampNanos)
+    }
+
+    @Test
+    fun accumulateIgnoresAbsentValues() {
+        val tcp = IntervalReport().apply {
+            intervalStartMicros = 0
+            intervalEndMicros = 1_000_000
+            bytes = 100
+            bitsPerSecond = 800
+        }
+        val outOfOrder = IntervalReport().apply {
+            intervalStartMicros = 0
+            intervalEndMicros = 1_000_000
+            outOfOrderDatagrams = 5
+        }
+
+        tcp.accumulate(outOfOrder)
+
+        assertEquals(100L, tcp.bytes)
+        assertEquals(800L, tcp.bitsPerSecond)
+        assertEquals(5L, tcp.outOfOrderDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, tcp.jitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, tcp.totalDatagrams)
+    }
+
+    @Test
+    fun accumulateIntoResetReportCopiesValues() {
+        val other = udpReport(streamId = 7, startMicros = 0, endMicros = 1_000_000, jitterMicros = 12)
+
+        val sum = IntervalReport().accumulate(other)
+
+        assertTrue(sum.isSum)
+        assertEquals(other.bytes, sum.bytes)
+        assertEquals(other.jitterMicros, sum.jitterMicros)
+        assertEquals(other.totalDatagrams, sum.totalDatagrams)
+        assertEquals(7, other.streamId)
+    }
+
+    @Test
+    fun setCopiesAllValuesAndResetClearsThem() {
+        val other = udpReport(streamId = 7, startMicros = 0, endMicros = 1_000_000, jitterMicros = 12)
+        other.outOfOrderDatagrams = 1
+        other.timestampNanos = 42
+
+        val copy = IntervalReport().set(other)
+
+        assertEquals(other.toString(), copy.toString())
+
+        copy.reset()
+
+        assertEquals(IntervalReport().toString(), copy.toString())
+        assertEquals(IntervalReport.NO_VALUE, copy.bytes)
+        assertTrue(copy.isSum)
+    }
+
+    private fun udpReport(streamId: Int, startMicros: Long, endMicros: Long, jitterMicros: Long): IntervalReport {
+        return IntervalReport().apply {
+            this.streamId = streamId
+            intervalStartMicros = startMicros
+            intervalEndMicros = endMicros
+            bytes = 100
+            bitsPerSecond = 800
+            this.jitterMicros = jitterMicros
+            lostDatagrams = 1
+            totalDatagrams = 10
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.scoltech.openran.speedtest.domain
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class PingStatisticsTest {
+    @Test
+    fun emptyStatisticsHaveAbsentValues() {
+        val statistics = PingStatistics(4)
+
+        assertEquals(0, statistics.sent)
+        assertEquals(0, statistics.received)
+        assertEquals(IntervalReport.NO_VALUE, statistics.minRttMicros)
+        assertEquals(IntervalReport.NO_VALUE, statistics.medianRttMicros)
+        assertEquals(IntervalReport.NO_VALUE, statistics.meanRttMicros)
+        assertEquals(IntervalReport.NO_VALUE, statistics.maxRttMicros)
+        assertEquals(IntervalReport.NO_VALUE, statistics.jitterMicros)
+        assertEquals(0.0, statistics.lossRatio, 0.0)
+    }
+
+    @Test
+    fun rttStatistics() {
+        val statistics = burst(4000, 1000, 3000, 2000)
+
+        assertEquals(1000L, statistics.minRttMicros)
+        assertEquals(2000L, statistics.medianRttMicros)
+        assertEquals(2500L, statistics.meanRttMicros)
+        assertEquals(4000L, statistics.maxRttMicros)
+    }
+
+    @Test
+    fun medianOfOddCount() {
+        val statistics = burst(5000, 1000, 3000)
+
+        assertEquals(3000L, statistics.medianRttMicros)
+    }
+
+    @Test
+    fun jitterIsSeededWithFirstDeviation() {
+        val statistics = burst(1000)
+        assertEquals(IntervalReport.NO_VALUE, statistics.jitterMicros)
+
+        statistics.onSent()
+        statistics.onReply(2600)
+        assertEquals(1600L, statistics.jitterMicros)
+
+        // 1600 + (0 - 1600) / 16
+        statistics.onSent()
+        statistics.onReply(2600)
+        assertEquals(1500L, statistics.jitterMicros)
+
+        // 1500 + (3200 - 1500) / 16
+        statistics.onSent()
+        statistics.onReply(5800)
+        assertEquals(1606L, statistics.jitterMicros)
+    }
+
+    @Test
+    fun lossRatioCountsUnansweredRequests() {
+        val statistics = PingStatistics(4)
+        repeat(4) { statistics.onSent() }
+        statistics.onReply(1000)
+
+        assertEquals(0.75, statistics.lossRatio, 0.0)
+        assertEquals(1, statistics.received)
+    }
+
+    @Test
+    fun requestsAreLimitedByCapacity() {
+        val statistics = PingStatistics(1)
+        statistics.onSent()
+
+        assertThrows(IllegalStateException::class.java) { statistics.onSent() }
+    }
+
+    @Test
+    fun setCopiesAndResetClears() {
+        val statistics = burst(1000, 3000)
+
+        val copy = PingStatistics(statistics.capacity).set(statistics)
+        statistics.reset()
+
+        assertEquals(2, copy.sent)
+        assertEquals(2, copy.received)
+        assertEquals(2000L, copy.meanRttMicros)
+        assertEquals(2000L, copy.jitterMicros)
+        assertEquals(0, statistics.sent)
+        assertEquals(0, statistics.received)
+        assertEquals(IntervalReport.NO_VALUE, statistics.jitterMicros)
+
+        statistics.onSent()
+        statistics.onReply(5000)
+        assertEquals(IntervalReport.NO_VALUE, statistics.jitterMicros)
+        assertEquals(5000L, statistics.medianRttMicros)
+    }
+
+    private fun burst(vararg rttsMicros: Long): PingStatistics {
+        val statistics = PingStatistics(rttsMicros.size + 3)
+        for (rttMicros in rttsMicros) {
+            statistics.onSent()
+            statistics.onReply(rttMicros)
+        }
+        return statistics
+    }
+}
@@ -0,0 +1,131 @@
+package ru.scoltech.openran.speedtest.domain
+
+import org.junit.Assert.*
+import org.junit.Test
+import ru.scoltech.openran.speedtest.util.PercentileStatistics
+import java.util.*
+
+class SpeedTestResultCollectorTest {
+    @Test
+    fun emptyTestHasAbsentValues() {
+        val result = SpeedTestResultCollector("10.0.0.1").toResult(Date(0), "description")
+
+        assertEquals("10.0.0.1", result.serverAddress)
+        assertEquals("description", result.description)
+        assertEquals(Date(0), result.creationTime)
+        assertEquals(IntervalReport.NO_VALUE, result.ping)
+        assertEquals(0L, result.downloadSpeed)
+        assertEquals(0L, result.downloadSampleCount)
+        assertEquals(IntervalReport.NO_VALUE, result.downloadJitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, result.downloadTotalDatagrams)
+        assertEquals(0, result.pingSent)
+        assertEquals(IntervalReport.NO_VALUE, result.pingJitterMicros)
+    }
+
+    @Test
+    fun longServerAddressIsTruncated() {
+        val result = SpeedTestResultCollector("x".repeat(40)).toResult()
+
+        assertEquals("x".repeat(32), result.serverAddress)
+    }
+
+    @Test
+    fun pingIsMedianInMillis() {
+        val collector = SpeedTestResultCollector("10.0.0.1")
+        val statistics = PingStatistics(3)
+        for (rttMicros in longArrayOf(12_500, 30_000, 9_000)) {
+            statistics.onSent()
+            statistics.onReply(rttMicros)
+        }
+
+        collector.onPingUpdate(statistics)
+        statistics.reset()
+        val result = collector.toResult()
+
+        assertEquals(12L, result.ping)
+        assertEquals(3, result.pingSent)
+        assertEquals(3, result.pingReceived)
+        assertEquals(9_000L, result.pingMinMicros)
+        assertEquals(12_500L, result.pingMedianMicros)
+        assertEquals(30_000L, result.pingMaxMicros)
+    }
+
+    @Test
+    fun speedsAreSummarized() {
+        val collector = SpeedTestResultCollector("10.0.0.1")
+        val download = PercentileStatistics()
+        for (value in 1L..100L) {
+            download.accept(value)
+        }
+        val upload = PercentileStatistics()
+        upload.accept(40)
+
+        collector.onDownloadFinish(download, StopReason.CONVERGED)
+        collector.onUploadFinish(upload, StopReason.COMPLETED)
+        download.accept(1_000_000)
+        val result = collector.toResult()
+
+        assertEquals(50L, result.downloadSpeed)
+        assertEquals(5L, result.downloadSpeedP5)
+        assertEquals(50L, result.downloadSpeedP50)
+        assertEquals(90L, result.downloadSpeedP90)
+        assertEquals(99L, result.downloadSpeedP99)
+        assertEquals(StopReason.CONVERGED, result.downloadStopReason)
+        assertEquals(100L, result.downloadSampleCount)
+        assertEquals(40L, result.uploadSpeed)
+        assertEquals(StopReason.COMPLETED, result.uploadStopReason)
+        assertEquals(1L, result.uploadSampleCount)
+    }
+
+    @Test
+    fun datagramsAreCountedOncePerInterval() {
+        val collector = SpeedTestResultCollector("10.0.0.1")
+        collector.onDownloadIntervalReport(udpReport(0, 1_000_000, jitterMicros = 10, lost = 1, total = 100))
+        collector.onDownloadIntervalReport(outOfOrderReport(0, 1_000_000, 2))
+        collector.onDownloadIntervalReport(udpReport(1_000_000, 2_000_000, jitterMicros = 30, lost = 3, total = 100))
+        collector.onDownloadIntervalReport(outOfOrderReport(1_000_000, 2_000_000, 1))
+        // summary of the whole test repeats the counted intervals
+        collector.onDownloadIntervalReport(udpReport(0, 2_000_000, jitterMicros = 20, lost = 4, total = 200))
+        collector.onDownloadIntervalReport(outOfOrderReport(0, 2_000_000, 3))
+        val result = collector.toResult()
+
+        assertEquals(20L, result.downloadJitterMicros)
+        assertEquals(4L, result.downloadLostDatagrams)
+        assertEquals(200L, result.downloadTotalDatagrams)
+        assertEquals(3L, result.downloadOutOfOrderDatagrams)
+    }
+
+    @Test
+    fun tcpIntervalsDoNotCountDatagrams() {
+        val collector = SpeedTestResultCollector("10.0.0.1")
+        collector.onDownloadIntervalReport(IntervalReport().apply {
+            intervalStartMicros = 0
+            intervalEndMicros = 1_000_000
+            bytes = 100
+            bitsPerSecond = 800
+        })
+        val result = collector.toResult()
+
+        assertEquals(IntervalReport.NO_VALUE, result.downloadJitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, result.downloadTotalDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, result.downloadOutOfOrderDatagrams)
+    }
+
+    private fun udpReport(startMicros: Long, endMicros: Long, jitterMicros: Long, lost: Long, total: Long) =
+        IntervalReport().apply {
+            intervalStartMicros = startMicros
+            intervalEndMicros = endMicros
+            bytes = 100
+            bitsPerSecond = 800
+            this.jitterMicros = jitterMicros
+            lostDatagrams = lost
+            totalDatagrams = total
+        }
+
+    private fun outOfOrderReport(startMicros: Long, endMicros: Long, outOfOrder: Long) =
+        IntervalReport().apply {
+            intervalStartMicros = startMicros
+            intervalEndMicros = endMicros
+            outOfOrderDatagrams = outOfOrder
+        }
+}
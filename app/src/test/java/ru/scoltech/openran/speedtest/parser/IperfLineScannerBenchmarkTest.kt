@@ -0,0 +1,82 @@
+package ru.scoltech.openran.speedtest.parser
+
+import com.opencsv.CSVParser
+import org.junit.Assert.*
+import org.junit.Test
+import ru.scoltech.openran.speedtest.domain.IntervalReport
+import ru.scoltech.openran.speedtest.util.Microbenchmark
+
+/**
+ * Compares [IperfLineScanner] with the regex and opencsv based parsing it replaced.
+ * Timings are only reported, as they depend on the machine, while allocations are asserted.
+ */
+class IperfLineScannerBenchmarkTest {
+    private val scanner = IperfLineScanner()
+    private val report = IntervalReport()
+    private var sink = 0L
+
+    @Test
+    fun humanReadableScannerVersusRegex() {
+        Microbenchmark.measureNanosPerOperation("scanHumanReadableLine", OPERATIONS) {
+            scanner.scanHumanReadableLine(HUMAN_READABLE_LINES[it % HUMAN_READABLE_LINES.size], report)
+            sink += report.bitsPerSecond
+        }
+        Microbenchmark.measureNanosPerOperation("baseline regex", OPERATIONS) {
+            val match = BASELINE_REGEX.matchEntire(HUMAN_READABLE_LINES[it % HUMAN_READABLE_LINES.size])
+            sink += match!!.groupValues[2].toLong()
+        }
+    }
+
+    @Test
+    fun csvScannerVersusOpencsv() {
+        Microbenchmark.measureNanosPerOperation("scanCsvLine", OPERATIONS) {
+            scanner.scanCsvLine(CSV_LINES[it % CSV_LINES.size], report)
+            sink += report.bitsPerSecond
+        }
+        val csvParser = CSVParser()
+        Microbenchmark.measureNanosPerOperation("baseline opencsv", OPERATIONS) {
+            sink += csvParser.parseLine(CSV_LINES[it % CSV_LINES.size])[CSV_BITS_PER_SECOND_INDEX].toLong()
+        }
+    }
+
+    @Test
+    fun scannerDoesNotAllocatePerLine() {
+        // warms up the scanner, so the allocations of the class loading and the JIT are not counted
+        repeat(OPERATIONS) {
+            scanner.scanHumanReadableLine(HUMAN_READABLE_LINES[it % HUMAN_READABLE_LINES.size], report)
+            scanner.scanCsvLine(CSV_LINES[it % CSV_LINES.size], report)
+        }
+
+        val allocatedBytes = Microbenchmark.measureAllocatedBytes {
+            for (index in 0 until OPERATIONS) {
+                scanner.scanHumanReadableLine(HUMAN_READABLE_LINES[index % HUMAN_READABLE_LINES.size], report)
+                scanner.scanCsvLine(CSV_LINES[index % CSV_LINES.size], report)
+            }
+        } ?: return
+        assertTrue("$allocatedBytes bytes allocated", allocatedBytes < MAX_MEASUREMENT_ALLOCATED_BYTES)
+    }
+
+    companion object {
+        private const val OPERATIONS = 100_000
+        private const val CSV_BITS_PER_SECOND_INDEX = 8
+        /** Allocations of the measurement itself, which are far less than a byte per line */
+        private const val MAX_MEASUREMENT_ALLOCATED_BYTES = 4096L
+
+        private val BASELINE_REGEX = Regex(
+            "^\\[SUM-\\d+]\\s+\\d{1,4}\\.\\d{2}-\\d{1,4}\\.\\d{2}\\s+sec" +
+                    "\\s+\\d+(\\.\\d+)?\\s+Bytes\\s+(\\d+)(\\.\\d+)?\\s+bits/sec.*$"
+        )
+
+        private val HUMAN_READABLE_LINES = arrayOf(
+            "[SUM-4] 0.00-1.00 sec  12345678 Bytes  98765424 bits/sec",
+            "[SUM-4] 1.00-2.00 sec  13107200 Bytes  104857600 bits/sec",
+            "[SUM-2] 2.00-3.00 sec  131250 Bytes  1050000 bits/sec   0.012 ms    3/   89 (3.4%)",
+        )
+
+        private val CSV_LINES = arrayOf(
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,12345678,98765424",
+            "20211019120001,10.0.0.2,53614,10.0.0.1,5001,-1,1.0-2.0,13107200,104857600",
+            "20211019120002,10.0.0.1,5001,10.0.0.2,53614,-1,2.0-3.0,131250,1050000,0.012,3,89,3.371,2",
+        )
+    }
+}
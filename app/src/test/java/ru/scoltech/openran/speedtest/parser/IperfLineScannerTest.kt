@@ -0,0 +1,207 @@
+package ru.scoltech.openran.speedtest.parser
+
+import org.junit.Assert.*
+import org.junit.Test
+import ru.scoltech.openran.speedtest.domain.IntervalReport
+
+class IperfLineScannerTest {
+    private val scanner = IperfLineScanner()
+    private val report = IntervalReport()
+
+    @Test
+    fun tcpSumLine() {
+        assertTrue(scanner.scanHumanReadableLine("[SUM-4] 1.00-2.00 sec  12345678 Bytes  98765424 bits/sec", report))
+
+        assertTrue(report.isSum)
+        assertEquals(1_000_000L, report.intervalStartMicros)
+        assertEquals(2_000_000L, report.intervalEndMicros)
+        assertEquals(12345678L, report.bytes)
+        assertEquals(98765424L, report.bitsPerSecond)
+        assertEquals(IntervalReport.NO_VALUE, report.jitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, report.lostDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, report.totalDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, report.outOfOrderDatagrams)
+        assertNotEquals(IntervalReport.NO_VALUE, report.timestampNanos)
+    }
+
+    @Test
+    fun sumLineWithoutProcessNumber() {
+        assertTrue(scanner.scanHumanReadableLine("[SUM] 0.00-10.00 sec  1000 Bytes  800 bits/sec", report))
+
+        assertTrue(report.isSum)
+        assertEquals(10_000_000L, report.intervalEndMicros)
+    }
+
+    @Test
+    fun fractionalBytesAndRateAreTruncated() {
+        assertTrue(scanner.scanHumanReadableLine("[SUM-2] 0.00-1.00 sec  1000.75 Bytes  8006.5 bits/sec", report))
+
+        assertEquals(1000L, report.bytes)
+        assertEquals(8006L, report.bitsPerSecond)
+    }
+
+    @Test
+    fun streamLine() {
+        assertTrue(scanner.scanHumanReadableLine("[  3] 0.00-1.00 sec  131072 Bytes  1048576 bits/sec", report))
+
+        assertFalse(report.isSum)
+        assertEquals(3, report.streamId)
+        assertEquals(1048576L, report.bitsPerSecond)
+    }
+
+    @Test
+    fun udpLine() {
+        val line = "[SUM-2] 0.00-1.00 sec  131250 Bytes  1050000 bits/sec   0.012 ms    3/   89 (3.4%)"
+        assertTrue(scanner.scanHumanReadableLine(line, report))
+
+        assertEquals(131250L, report.bytes)
+        assertEquals(1050000L, report.bitsPerSecond)
+        assertEquals(12L, report.jitterMicros)
+        assertEquals(3L, report.lostDatagrams)
+        assertEquals(89L, report.totalDatagrams)
+    }
+
+    @Test
+    fun jitterFractionBeyondMicrosIsTruncated() {
+        val line = "[SUM-2] 0.00-1.00 sec  100 Bytes  800 bits/sec   1.23456 ms    0/   10 (0%)"
+        assertTrue(scanner.scanHumanReadableLine(line, report))
+
+        assertEquals(1234L, report.jitterMicros)
+    }
+
+    @Test
+    fun malformedUdpStatisticsAreIgnored() {
+        val line = "[SUM-2] 0.00-1.00 sec  100 Bytes  800 bits/sec   1.5 ms  lost"
+        assertTrue(scanner.scanHumanReadableLine(line, report))
+
+        assertEquals(800L, report.bitsPerSecond)
+        assertEquals(IntervalReport.NO_VALUE, report.jitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, report.lostDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, report.totalDatagrams)
+    }
+
+    @Test
+    fun outOfOrderLine() {
+        val line = "[SUM-2] 0.00-1.00 sec  7 datagrams received out-of-order"
+        assertTrue(scanner.scanHumanReadableLine(line, report))
+
+        assertEquals(7L, report.outOfOrderDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, report.bytes)
+        assertEquals(IntervalReport.NO_VALUE, report.bitsPerSecond)
+    }
+
+    @Test
+    fun malformedHumanReadableLines() {
+        val lines = listOf(
+            "",
+            "------------------------------------------------------------",
+            "Client connecting to 10.0.0.1, TCP port 5001",
+            "[SUM-4]",
+            "[SUM-] 0.00-1.00 sec  100 Bytes  800 bits/sec",
+            "[SUM-4] 0.00-1.00 sec  100 Bytes",
+            "[SUM-4] 0.00-1.00 sec  100 KBytes  800 Kbits/sec",
+            "[SUM-4] 0.00 sec  100 Bytes  800 bits/sec",
+            "[SUM-4] 0.00-1.00sec  100 Bytes  800 bits/sec",
+            "[SUM-4] 0.00-1.00 sec  Bytes  800 bits/sec",
+            "[ ID] Interval       Transfer     Bandwidth",
+        )
+        for (line in lines) {
+            assertFalse(line, scanner.scanHumanReadableLine(line, report))
+        }
+    }
+
+    @Test
+    fun reportIsResetBeforeScanning() {
+        val udpLine = "[SUM-2] 0.00-1.00 sec  100 Bytes  800 bits/sec   1.5 ms    0/   10 (0%)"
+        assertTrue(scanner.scanHumanReadableLine(udpLine, report))
+        assertTrue(scanner.scanHumanReadableLine("[  5] 1.00-2.00 sec  200 Bytes  1600 bits/sec", report))
+
+        assertEquals(5, report.streamId)
+        assertEquals(200L, report.bytes)
+        assertEquals(IntervalReport.NO_VALUE, report.jitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, report.totalDatagrams)
+    }
+
+    @Test
+    fun tcpCsvLine() {
+        assertTrue(scanner.scanCsvLine("20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,1.0-2.0,131250,1050000", report))
+
+        assertTrue(report.isSum)
+        assertEquals(1_000_000L, report.intervalStartMicros)
+        assertEquals(2_000_000L, report.intervalEndMicros)
+        assertEquals(131250L, report.bytes)
+        assertEquals(1050000L, report.bitsPerSecond)
+        assertEquals(IntervalReport.NO_VALUE, report.jitterMicros)
+        assertEquals(IntervalReport.NO_VALUE, report.outOfOrderDatagrams)
+    }
+
+    @Test
+    fun streamCsvLine() {
+        assertTrue(scanner.scanCsvLine("20211019120000,10.0.0.2,53614,10.0.0.1,5001,3,0.0-1.0,100,800", report))
+
+        assertEquals(3, report.streamId)
+    }
+
+    @Test
+    fun udpCsvLine() {
+        val line = "20211019120000,10.0.0.1,5001,10.0.0.2,53614,-1,0.0-1.0,131250,1050000,0.012,3,89,3.371,2"
+        assertTrue(scanner.scanCsvLine(line, report))
+
+        assertEquals(12L, report.jitterMicros)
+        assertEquals(3L, report.lostDatagrams)
+        assertEquals(89L, report.totalDatagrams)
+        assertEquals(2L, report.outOfOrderDatagrams)
+    }
+
+    @Test
+    fun udpCsvLineWithoutOutOfOrderDatagrams() {
+        val line = "20211019120000,10.0.0.1,5001,10.0.0.2,53614,-1,0.0-1.0,131250,1050000,0.012,3,89"
+        assertTrue(scanner.scanCsvLine(line, report))
+
+        assertEquals(89L, report.totalDatagrams)
+        assertEquals(IntervalReport.NO_VALUE, report.outOfOrderDatagrams)
+    }
+
+    @Test
+    fun malformedCsvLines() {
+        val lines = listOf(
+            "",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,131250",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,x,0.0-1.0,131250,1050000",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0,131250,1050000",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,131250,1050000 ",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,131250,1050000,0.012",
+            "20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,131250,1050000,0.012,3,89,3.371,x",
+            "[SUM-4] 0.00-1.00 sec  100 Bytes  800 bits/sec",
+        )
+        for (line in lines) {
+            assertFalse(line, scanner.scanCsvLine(line, report))
+        }
+    }
+
+    @Test
+    fun humanReadableParserAcceptsOnlySumLines() {
+        val parser = MultithreadedIperfOutputParser()
+        parser.parse("[SUM-4] 0.00-1.00 sec  100 Bytes  800 bits/sec", report)
+        assertEquals(800L, report.bitsPerSecond)
+
+        assertThrows(MultithreadedIperfOutputParser.BadFormatException::class.java) {
+            parser.parse("[  3] 0.00-1.00 sec  100 Bytes  800 bits/sec", report)
+        }
+        assertThrows(MultithreadedIperfOutputParser.BadFormatException::class.java) {
+            parser.parse("Server listening on TCP port 5001", report)
+        }
+    }
+
+    @Test
+    fun csvParserRejectsMalformedLines() {
+        val parser = CsvIperfOutputParser()
+        parser.parse("20211019120000,10.0.0.2,53614,10.0.0.1,5001,-1,0.0-1.0,100,800", report)
+        assertEquals(800L, report.bitsPerSecond)
+
+        assertThrows(MultithreadedIperfOutputParser.BadFormatException::class.java) {
+            parser.parse("Server listening on TCP port 5001", report)
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ru.scoltech.openran.speedtest.task
+
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class RetryPolicyTest {
+    @Test
+    fun backoffGrowsExponentiallyInUpperHalf() {
+        val policy = RetryPolicy(5, 100, 1000, 1000)
+
+        repeat(RANDOM_REPEATS) {
+            assertTrue(policy.backoffMillis(1) in 50L..100L)
+            assertTrue(policy.backoffMillis(2) in 100L..200L)
+            assertTrue(policy.backoffMillis(3) in 200L..400L)
+        }
+    }
+
+    @Test
+    fun backoffIsLimited() {
+        val policy = RetryPolicy(100, 100, 1000, 1000, backoffMultiplier = 3.0)
+
+        repeat(RANDOM_REPEATS) {
+            assertTrue(policy.backoffMillis(4) in 500L..1000L)
+            assertTrue(policy.backoffMillis(100) in 500L..1000L)
+        }
+    }
+
+    @Test
+    fun zeroBackoffIsAllowed() {
+        val policy = RetryPolicy(2, 0, 0, 1000)
+
+        assertEquals(0L, policy.backoffMillis(1))
+    }
+
+    @Test
+    fun invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException::class.java) { RetryPolicy(0, 0, 0, 1000) }
+        assertThrows(IllegalArgumentException::class.java) { RetryPolicy(1, 200, 100, 1000) }
+        assertThrows(IllegalArgumentException::class.java) { RetryPolicy(1, 0, 0, 0) }
+        assertThrows(IllegalArgumentException::class.java) {
+            RetryPolicy(1, 0, 0, 1000, backoffMultiplier = 0.5)
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            RetryPolicy(1, 0, 0, 1000, hedgingPercentile = 50.0, idempotent = false)
+        }
+    }
+
+    @Test
+    fun hedgingDelayIsDisabledByDefault() {
+        val policy = RetryPolicy(1, 0, 0, 1000, minHedgingSamples = 1)
+        policy.recordLatency(10_000)
+
+        assertNull(policy.hedgingDelayMillis())
+    }
+
+    @Test
+    fun hedgingDelayIsLatencyPercentile() {
+        val policy = RetryPolicy(1, 0, 0, 1000, hedgingPercentile = 90.0, minHedgingSamples = 10)
+        for (latencyMillis in 1L..9L) {
+            policy.recordLatency(latencyMillis * 1000)
+        }
+        assertNull(policy.hedgingDelayMillis())
+
+        policy.recordLatency(100_000)
+        assertEquals(9L, policy.hedgingDelayMillis())
+
+        repeat(10) { policy.recordLatency(100_000) }
+        val delayMillis = policy.hedgingDelayMillis()!!
+        assertTrue("$delayMillis", delayMillis in 98L..102L)
+    }
+
+    @Test
+    fun retryTaskRetriesUntilSuccess() {
+        val attempts = AtomicInteger()
+        val task = failingTask(attempts, failures = 2)
+
+        val result = runBlocking { RetryTask(task, RetryPolicy(3, 1, 1, 1000)).execute(1) }
+
+        assertEquals(2, result)
+        assertEquals(3, attempts.get())
+    }
+
+    @Test
+    fun retryTaskFailsWithLastError() {
+        val attempts = AtomicInteger()
+        val task = failingTask(attempts, failures = 5)
+
+        val exception = assertThrows(FatalException::class.java) {
+            runBlocking { RetryTask(task, RetryPolicy(3, 1, 1, 1000)).execute(1) }
+        }
+
+        assertEquals("Attempt 3 failed", exception.message)
+        assertEquals(3, attempts.get())
+    }
+
+    @Test
+    fun retryTaskKillsAttemptOnTimeout() {
+        val attempts = AtomicInteger()
+        val task = object : SuspendingTask<Int, Int> {
+            override suspend fun execute(argument: Int): Int {
+                attempts.incrementAndGet()
+                awaitCancellation()
+            }
+        }
+
+        assertThrows(FatalException::class.java) {
+            runBlocking { RetryTask(task, RetryPolicy(2, 1, 1, 50)).execute(1) }
+        }
+        assertEquals(2, attempts.get())
+    }
+
+    @Test
+    fun nonIdempotentTaskIsRetriedOnlyIfRequestIsNotProcessed() {
+        val policy = RetryPolicy(3, 1, 1, 1000, idempotent = false)
+        val attempts = AtomicInteger()
+        val task = object : SuspendingTask<Int, Int> {
+            override suspend fun execute(argument: Int): Int {
+                val attempt = attempts.incrementAndGet()
+                val cause = if (attempt == 1) RequestNotProcessedException("Not connected") else null
+                throw FatalException("Attempt $attempt failed", cause)
+            }
+        }
+
+        val exception = assertThrows(FatalException::class.java) {
+            runBlocking { RetryTask(task, policy).execute(1) }
+        }
+
+        assertEquals("Attempt 2 failed", exception.message)
+        assertEquals(2, attempts.get())
+    }
+
+    @Test
+    fun nonIdempotentTaskIsNotRetriedOnTimeout() {
+        val attempts = AtomicInteger()
+        val task = object : SuspendingTask<Int, Int> {
+            override suspend fun execute(argument: Int): Int {
+                attempts.incrementAndGet()
+                awaitCancellation()
+            }
+        }
+
+        assertThrows(FatalException::class.java) {
+            runBlocking { RetryTask(task, RetryPolicy(3, 1, 1, 50, idempotent = false)).execute(1) }
+        }
+        assertEquals(1, attempts.get())
+    }
+
+    @Test
+    fun hedgedAttemptWinsOverSlowOne() {
+        val policy = RetryPolicy(1, 0, 0, 10_000, hedgingPercentile = 50.0, minHedgingSamples = 1)
+        policy.recordLatency(10_000)
+        val attempts = AtomicInteger()
+        val task = object : SuspendingTask<Int, Int> {
+            override suspend fun execute(argument: Int): Int {
+                if (attempts.incrementAndGet() == 1) {
+                    awaitCancellation()
+                }
+                return argument
+            }
+        }
+
+        val startNanos = System.nanoTime()
+        val result = runBlocking { RetryTask(task, policy).execute(42) }
+        val elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000
+
+        assertEquals(42, result)
+        assertEquals(2, attempts.get())
+        assertTrue("$elapsedMillis ms", elapsedMillis < policy.attemptTimeoutMillis)
+    }
+
+    private fun failingTask(attempts: AtomicInteger, failures: Int) = object : SuspendingTask<Int, Int> {
+        override suspend fun execute(argument: Int): Int {
+            val attempt = attempts.incrementAndGet()
+            if (attempt <= failures) {
+                throw FatalException("Attempt $attempt failed")
+            }
+            return argument + 1
+        }
+    }
+
+    companion object {
+        private const val RANDOM_REPEATS = 1000
+    }
+}
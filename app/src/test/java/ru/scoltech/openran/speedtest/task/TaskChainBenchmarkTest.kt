@@ -0,0 +1,107 @@
+package ru.scoltech.openran.speedtest.task
+
+import org.junit.Assert.*
+import org.junit.Test
+import ru.scoltech.openran.speedtest.util.Microbenchmark
+import ru.scoltech.openran.speedtest.util.Promise
+import ru.scoltech.openran.speedtest.util.TaskKiller
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Measures the per task overhead of the [TaskChain] loop compared with the recursive chain
+ * it replaced and checks that the stack does not grow with the chain length.
+ * Timings are only reported, as they depend on the machine.
+ */
+class TaskChainBenchmarkTest {
+    @Test
+    fun longChainDoesNotGrowStack() {
+        val stackDepths = IntArray(2)
+        var result = 0
+        var terminated = false
+        val builder = TaskChainBuilder<Int>()
+            .onStop { fail("Chain is stopped") }
+            .onFatalError { message, _ -> fail(message) }
+            .onTerminate { terminated = true }
+        var consumer = builder.initializeNewChain()
+            .andThenUnstoppable {
+                stackDepths[0] = Thread.currentThread().stackTrace.size
+                it
+            }
+        repeat(LONG_CHAIN_LENGTH) {
+            consumer = consumer.andThen(CallbackTask()).andThenUnstoppable { it }
+        }
+        consumer.andThenUnstoppable {
+            stackDepths[1] = Thread.currentThread().stackTrace.size
+            result = it
+        }
+
+        builder.finishChainCreation().start(0)
+
+        assertTrue(terminated)
+        assertEquals(LONG_CHAIN_LENGTH, result)
+        assertEquals(stackDepths[0], stackDepths[1])
+    }
+
+    @Test
+    fun perTaskOverheadVersusRecursiveChain() {
+        var result = 0
+        @Suppress("UNCHECKED_CAST")
+        val tasks = List(BENCHMARK_CHAIN_LENGTH) { index ->
+            if (index < BENCHMARK_CHAIN_LENGTH - 1) CallbackTask() else CallbackTask { result = it }
+        } as List<Task<Any?, Any?>>
+        val chain = TaskChain<Int>(tasks, { fail("Chain is stopped") }, { message, _ -> fail(message) })
+        val baselineChain = RecursiveTaskChain(tasks)
+
+        Microbenchmark.measureNanosPerOperation("TaskChain of $BENCHMARK_CHAIN_LENGTH tasks", CHAIN_RUNS) {
+            chain.start(it)
+        }
+        assertEquals(CHAIN_RUNS - 1 + BENCHMARK_CHAIN_LENGTH, result)
+
+        Microbenchmark.measureNanosPerOperation("baseline recursive chain of $BENCHMARK_CHAIN_LENGTH tasks", CHAIN_RUNS) {
+            baselineChain.start(it)
+        }
+        assertEquals(CHAIN_RUNS - 1 + BENCHMARK_CHAIN_LENGTH, result)
+    }
+
+    /**
+     * Completes in the calling thread with the incremented argument,
+     * like the tasks which have their result ready.
+     */
+    private class CallbackTask(private val onResult: (Int) -> Unit = {}) : Task<Int, Int> {
+        override fun prepare(argument: Int, killer: TaskKiller): Promise<(Int) -> Unit, (String, Exception?) -> Unit> {
+            return Promise { onSuccess, _ ->
+                onResult(argument + 1)
+                onSuccess?.invoke(argument + 1)
+            }
+        }
+    }
+
+    /** Chain which started the next task from the callback of the previous one before */
+    private class RecursiveTaskChain(private val tasks: List<Task<Any?, Any?>>) {
+        private val lock = ReentrantLock()
+        private val taskKiller = TaskKiller()
+
+        fun start(initialValue: Int) {
+            prepare(initialValue, tasks)
+        }
+
+        private fun prepare(argument: Any?, tasks: List<Task<Any?, Any?>>) {
+            lock.withLock {
+                if (tasks.isEmpty()) {
+                    return
+                }
+                tasks[0].prepare(argument, taskKiller)
+                    .onError { message, _ -> fail(message) }
+                    .onSuccess { prepare(it, tasks.subList(1, tasks.size)) }
+                    .start()
+            }
+        }
+    }
+
+    companion object {
+        private const val LONG_CHAIN_LENGTH = 20_000
+        private const val BENCHMARK_CHAIN_LENGTH = 100
+        private const val CHAIN_RUNS = 2_000
+    }
+}
@@ -0,0 +1,73 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class ConvergenceDetectorTest {
+    @Test
+    fun stableSeriesConvergesWhenWindowIsFull() {
+        val detector = ConvergenceDetector(3, 0.05)
+
+        assertFalse(detector.accept(100_000_000))
+        assertFalse(detector.accept(101_000_000))
+        assertTrue(detector.accept(99_000_000))
+        assertEquals(3, detector.samples)
+    }
+
+    @Test
+    fun noisySeriesDoesNotConverge() {
+        val detector = ConvergenceDetector(4, 0.05)
+        val values = longArrayOf(10_000_000, 100_000_000, 20_000_000, 90_000_000, 10_000_000, 100_000_000)
+
+        for (value in values) {
+            assertFalse(detector.accept(value))
+        }
+    }
+
+    @Test
+    fun convergenceIsDetectedAfterNoiseLeavesWindow() {
+        val detector = ConvergenceDetector(3, 0.05)
+        detector.accept(10_000_000)
+        detector.accept(100_000_000)
+
+        assertFalse(detector.accept(100_000_000))
+        assertTrue(detector.accept(100_000_000))
+    }
+
+    @Test
+    fun minSamplesAreAwaited() {
+        val detector = ConvergenceDetector(2, 0.05, minSamples = 4)
+
+        assertFalse(detector.accept(100))
+        assertFalse(detector.accept(100))
+        assertFalse(detector.accept(100))
+        assertTrue(detector.accept(100))
+    }
+
+    @Test
+    fun zeroSpeedDoesNotConverge() {
+        val detector = ConvergenceDetector(2, 0.05)
+
+        assertFalse(detector.accept(0))
+        assertFalse(detector.accept(0))
+        assertFalse(detector.accept(0))
+    }
+
+    @Test
+    fun copyHasNoValues() {
+        val detector = ConvergenceDetector(2, 0.05)
+        detector.accept(100)
+        detector.accept(100)
+
+        val copy = detector.copy()
+
+        assertEquals(0, copy.samples)
+        assertFalse(copy.accept(100))
+        assertTrue(copy.accept(100))
+    }
+
+    @Test
+    fun windowShouldHoldSeveralValues() {
+        assertThrows(IllegalArgumentException::class.java) { ConvergenceDetector(1, 0.05) }
+    }
+}
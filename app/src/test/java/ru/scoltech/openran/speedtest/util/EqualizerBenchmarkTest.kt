@@ -0,0 +1,75 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+/**
+ * Measures the cost of accepting an interval speed and reading the equalized one,
+ * which is done for every iPerf interval, and compares the ring buffer average
+ * with the boxed queue average it replaced.
+ * Timings are only reported, as they depend on the machine, while allocations are asserted.
+ */
+class EqualizerBenchmarkTest {
+    private var sink = 0.0
+
+    @Test
+    fun ringBufferAverageVersusBoxedQueue() {
+        val equalizer = fillWindow(SkipThenAverageEqualizer(0, WINDOW_SIZE))
+        Microbenchmark.measureNanosPerOperation("SkipThenAverageEqualizer", OPERATIONS) {
+            equalizer.accept(SPEEDS[it % SPEEDS.size])
+            sink += equalizer.getEqualized()
+        }
+
+        val queue: Queue<Long> = ArrayDeque(WINDOW_SIZE)
+        Microbenchmark.measureNanosPerOperation("baseline boxed queue", OPERATIONS) {
+            if (queue.size == WINDOW_SIZE) {
+                queue.remove()
+            }
+            queue.add(SPEEDS[it % SPEEDS.size])
+            sink += queue.average()
+        }
+    }
+
+    @Test
+    fun equalizersDoNotAllocatePerValue() {
+        val equalizers = listOf<Equalizer<*>>(
+            fillWindow(SkipThenAverageEqualizer(0, WINDOW_SIZE)),
+            fillWindow(EwmaEqualizer(0, 0.3)),
+            fillWindow(SlidingMedianEqualizer(0, WINDOW_SIZE)),
+            fillWindow(TrimmedMeanEqualizer(0, WINDOW_SIZE, 2)),
+        )
+        for (equalizer in equalizers) {
+            val name = equalizer.javaClass.simpleName
+            Microbenchmark.measureNanosPerOperation(name, OPERATIONS) {
+                equalizer.accept(SPEEDS[it % SPEEDS.size])
+                sink += equalizer.getEqualized()
+            }
+
+            val allocatedBytes = Microbenchmark.measureAllocatedBytes {
+                for (index in 0 until OPERATIONS) {
+                    equalizer.accept(SPEEDS[index % SPEEDS.size])
+                    sink += equalizer.getEqualized()
+                }
+            } ?: continue
+            assertTrue("$name allocated $allocatedBytes bytes", allocatedBytes < MAX_MEASUREMENT_ALLOCATED_BYTES)
+        }
+    }
+
+    /** Equalized value is not available until the window is full */
+    private fun <E : Equalizer<E>> fillWindow(equalizer: E): E {
+        for (index in 0 until WINDOW_SIZE) {
+            equalizer.accept(SPEEDS[index])
+        }
+        return equalizer
+    }
+
+    companion object {
+        private const val OPERATIONS = 100_000
+        private const val WINDOW_SIZE = 20
+        /** Allocations of the measurement itself, which are far less than a byte per value */
+        private const val MAX_MEASUREMENT_ALLOCATED_BYTES = 4096L
+
+        private val SPEEDS = LongArray(97) { 90_000_000L + (it * 7_919L % 97) * 100_000L }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class EwmaEqualizerTest {
+    @Test
+    fun firstValueSeedsAverage() {
+        val equalizer = EwmaEqualizer(1, 0.5)
+
+        assertFalse(equalizer.accept(1000))
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        assertTrue(equalizer.accept(100))
+        assertEquals(100.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(200)
+        assertEquals(150.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(50)
+        assertEquals(100.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun valueIsAvailableAfterWarmUp() {
+        val equalizer = EwmaEqualizer(0, 1.0, 3)
+        equalizer.accept(1)
+        equalizer.accept(2)
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        equalizer.accept(3)
+        assertEquals(3.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun smoothingShouldBeInUnitInterval() {
+        assertThrows(IllegalArgumentException::class.java) { EwmaEqualizer(0, 0.0) }
+        assertThrows(IllegalArgumentException::class.java) { EwmaEqualizer(0, 1.5) }
+    }
+
+    @Test
+    fun copyIsIndependent() {
+        val equalizer = EwmaEqualizer(0, 0.5)
+        equalizer.accept(100)
+
+        val copy = equalizer.copy()
+        equalizer.accept(300)
+
+        assertEquals(100.0, copy.getEqualized(), 0.0)
+        assertEquals(200.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyKeepsSkippedAmount() {
+        val equalizer = EwmaEqualizer(2, 0.5)
+        equalizer.accept(1)
+
+        val copy = equalizer.copy()
+
+        assertFalse(copy.accept(5))
+        assertTrue(copy.accept(7))
+        assertEquals(7.0, copy.getEqualized(), 0.0)
+    }
+}
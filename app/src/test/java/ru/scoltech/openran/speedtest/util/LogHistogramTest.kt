@@ -0,0 +1,104 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.abs
+
+class LogHistogramTest {
+    @Test
+    fun smallValuesAreExact() {
+        val histogram = LogHistogram()
+        for (value in 1L..100L) {
+            histogram.record(value)
+        }
+
+        assertEquals(100L, histogram.count)
+        assertEquals(1L, histogram.getValueAtPercentile(0.0))
+        assertEquals(5L, histogram.getValueAtPercentile(5.0))
+        assertEquals(50L, histogram.getValueAtPercentile(50.0))
+        assertEquals(99L, histogram.getValueAtPercentile(99.0))
+        assertEquals(100L, histogram.getValueAtPercentile(100.0))
+    }
+
+    @Test
+    fun largeValuesAreWithinPrecision() {
+        val histogram = LogHistogram()
+        val values = LongArray(1000) { 50_000_000L + it * 100_000L }
+        for (value in values) {
+            histogram.record(value)
+        }
+
+        for (percentile in doubleArrayOf(1.0, 5.0, 50.0, 90.0, 99.0)) {
+            val exact = values[(percentile / 100 * values.size).toInt() - 1]
+            val reported = histogram.getValueAtPercentile(percentile)
+            val relativeError = abs(reported - exact).toDouble() / exact
+            assertTrue("p$percentile: $reported instead of $exact", relativeError < 1.0 / 64)
+        }
+    }
+
+    @Test
+    fun valuesAboveMaxAreClamped() {
+        val histogram = LogHistogram(maxValue = 1000)
+        histogram.record(1_000_000)
+
+        val reported = histogram.getValueAtPercentile(100.0)
+        assertTrue("$reported", abs(reported - 1000) < 1000 / 64)
+    }
+
+    @Test
+    fun invalidArgumentsAreRejected() {
+        val histogram = LogHistogram()
+
+        assertThrows(IllegalStateException::class.java) { histogram.getValueAtPercentile(50.0) }
+        assertThrows(IllegalArgumentException::class.java) { histogram.record(-1) }
+
+        histogram.record(1)
+        assertThrows(IllegalArgumentException::class.java) { histogram.getValueAtPercentile(100.5) }
+        assertThrows(IllegalArgumentException::class.java) { LogHistogram(significantBits = 0) }
+        assertThrows(IllegalArgumentException::class.java) { LogHistogram(maxValue = 0) }
+    }
+
+    @Test
+    fun mergeAddsAllValues() {
+        val lower = LogHistogram()
+        val upper = LogHistogram()
+        for (value in 1L..50L) {
+            lower.record(value)
+            upper.record(value + 50)
+        }
+
+        lower.merge(upper)
+
+        assertEquals(100L, lower.count)
+        assertEquals(50L, lower.getValueAtPercentile(50.0))
+        assertEquals(100L, lower.getValueAtPercentile(100.0))
+        assertEquals(50L, upper.count)
+    }
+
+    @Test
+    fun mergeOfDifferentLayoutsFails() {
+        assertThrows(IllegalArgumentException::class.java) {
+            LogHistogram(significantBits = 6).merge(LogHistogram(significantBits = 7))
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            LogHistogram(maxValue = 1000).merge(LogHistogram(maxValue = 2000))
+        }
+    }
+
+    @Test
+    fun snapshotIsIndependent() {
+        val histogram = LogHistogram()
+        histogram.record(10)
+
+        val snapshot = histogram.snapshot()
+        histogram.record(20)
+        histogram.record(30)
+
+        assertEquals(1L, snapshot.count)
+        assertEquals(10L, snapshot.getValueAtPercentile(100.0))
+
+        histogram.reset()
+        assertEquals(0L, histogram.count)
+        assertEquals(1L, snapshot.count)
+    }
+}
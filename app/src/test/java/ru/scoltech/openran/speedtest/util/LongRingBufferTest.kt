@@ -0,0 +1,63 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LongRingBufferTest {
+    @Test
+    fun addKeepsValuesInOrderAndSum() {
+        val buffer = LongRingBuffer(3)
+        buffer.add(1)
+        buffer.add(2)
+
+        assertFalse(buffer.isFull)
+        assertEquals(2, buffer.size)
+        assertEquals(1L, buffer.oldest())
+        assertArrayEquals(longArrayOf(1, 2), toArray(buffer))
+        assertEquals(3L, buffer.sum)
+    }
+
+    @Test
+    fun addOverwritesOldestValueWhenFull() {
+        val buffer = LongRingBuffer(3)
+        for (value in 1L..5L) {
+            buffer.add(value)
+        }
+
+        assertTrue(buffer.isFull)
+        assertEquals(3L, buffer.oldest())
+        assertArrayEquals(longArrayOf(3, 4, 5), toArray(buffer))
+        assertEquals(12L, buffer.sum)
+    }
+
+    @Test
+    fun emptyBufferHasNoValues() {
+        val buffer = LongRingBuffer(2)
+
+        assertThrows(NoSuchElementException::class.java) { buffer.oldest() }
+        assertThrows(IndexOutOfBoundsException::class.java) { buffer[0] }
+        assertEquals(0L, buffer.sum)
+    }
+
+    @Test
+    fun capacityShouldBePositive() {
+        assertThrows(IllegalArgumentException::class.java) { LongRingBuffer(0) }
+    }
+
+    @Test
+    fun setCopiesState() {
+        val buffer = LongRingBuffer(2)
+        for (value in longArrayOf(1, 2, 3)) {
+            buffer.add(value)
+        }
+
+        val copy = LongRingBuffer(2).set(buffer)
+        buffer.add(4)
+
+        assertArrayEquals(longArrayOf(2, 3), toArray(copy))
+        assertEquals(5L, copy.sum)
+        assertThrows(IllegalArgumentException::class.java) { LongRingBuffer(3).set(copy) }
+    }
+
+    private fun toArray(buffer: LongRingBuffer) = LongArray(buffer.size) { buffer[it] }
+}
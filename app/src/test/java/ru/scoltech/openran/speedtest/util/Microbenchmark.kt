@@ -0,0 +1,58 @@
+package ru.scoltech.openran.speedtest.util
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Minimal harness for the microbenchmark tests, which run on the host JVM.
+ *
+ * Operations are run in a few warm-up rounds first, so the measured code is compiled
+ * by the JIT, and the fastest of the measured rounds is reported, as it is the least
+ * disturbed by GC and other processes. Results are printed to the test output,
+ * so they could be compared between revisions.
+ */
+object Microbenchmark {
+    const val WARM_UP_ROUNDS = 5
+    const val MEASURED_ROUNDS = 10
+
+    /** @return nanoseconds per [operation] in the fastest round of [operations] */
+    inline fun measureNanosPerOperation(
+        name: String,
+        operations: Int,
+        operation: (Int) -> Unit,
+    ): Double {
+        repeat(WARM_UP_ROUNDS) {
+            for (index in 0 until operations) {
+                operation(index)
+            }
+        }
+
+        var bestNanos = Long.MAX_VALUE
+        repeat(MEASURED_ROUNDS) {
+            val start = System.nanoTime()
+            for (index in 0 until operations) {
+                operation(index)
+            }
+            bestNanos = minOf(bestNanos, System.nanoTime() - start)
+        }
+        val nanosPerOperation = bestNanos.toDouble() / operations
+        println("$name: ${"%.1f".format(nanosPerOperation)} ns/op")
+        return nanosPerOperation
+    }
+
+    /**
+     * @return bytes allocated by the current thread while running [block]
+     * or `null` if the JVM does not support allocation counting.
+     */
+    inline fun measureAllocatedBytes(block: () -> Unit): Long? {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        if (threadBean == null || !threadBean.isThreadAllocatedMemorySupported) {
+            block()
+            return null
+        }
+        threadBean.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        block()
+        return threadBean.getThreadAllocatedBytes(threadId) - before
+    }
+}
@@ -0,0 +1,52 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class PercentileStatisticsTest {
+    @Test
+    fun emptyStatisticsHaveZeroPercentiles() {
+        val statistics = PercentileStatistics()
+
+        assertEquals(0L, statistics.getPercentile(PercentileStatistics.P50))
+        assertEquals(0.0, statistics.average, 0.0)
+    }
+
+    @Test
+    fun percentilesAreRecordedAlongsideSummary() {
+        val statistics = PercentileStatistics()
+        for (value in 1L..100L) {
+            statistics.accept(value)
+        }
+
+        assertEquals(100L, statistics.count)
+        assertEquals(50.5, statistics.average, 0.0)
+        assertEquals(5L, statistics.getPercentile(PercentileStatistics.P5))
+        assertEquals(50L, statistics.getPercentile(PercentileStatistics.P50))
+        assertEquals(90L, statistics.getPercentile(PercentileStatistics.P90))
+        assertEquals(99L, statistics.getPercentile(PercentileStatistics.P99))
+    }
+
+    @Test
+    fun negativeValuesAreRecordedAsZero() {
+        val statistics = PercentileStatistics()
+        statistics.accept(-10)
+
+        assertEquals(-10L, statistics.min)
+        assertEquals(0L, statistics.getPercentile(PercentileStatistics.P50))
+    }
+
+    @Test
+    fun snapshotIsIndependent() {
+        val statistics = PercentileStatistics()
+        statistics.accept(10)
+
+        val snapshot = statistics.snapshot()
+        statistics.accept(30)
+
+        assertEquals(1L, snapshot.count)
+        assertEquals(10.0, snapshot.average, 0.0)
+        assertEquals(10L, snapshot.getPercentile(PercentileStatistics.P99))
+        assertEquals(2L, statistics.count)
+    }
+}
@@ -0,0 +1,117 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class RampUpDetectorTest {
+    @Test
+    fun steadyLinkKeepsWholeWindow() {
+        val detector = RampUpDetector(3, 0.1, 100)
+
+        assertTrue(detector.accept(100))
+        assertTrue(detector.accept(100))
+        assertFalse(detector.accept(100))
+
+        assertTrue(detector.isRampUpOver)
+        assertEquals(0, detector.rampUpSamples)
+        assertArrayEquals(longArrayOf(100, 100, 100), steadyValues(detector))
+    }
+
+    @Test
+    fun growingValuesAreRampUp() {
+        val detector = RampUpDetector(3, 0.1, 100)
+        for (value in longArrayOf(10, 20, 40, 80, 100, 100)) {
+            assertTrue(detector.accept(value))
+        }
+
+        assertFalse(detector.accept(100))
+        assertTrue(detector.isRampUpOver)
+        assertEquals(4, detector.rampUpSamples)
+        assertArrayEquals(longArrayOf(100, 100, 100), steadyValues(detector))
+    }
+
+    @Test
+    fun rampUpIsLimited() {
+        val detector = RampUpDetector(3, 0.1, 3)
+        for (value in longArrayOf(1, 2, 4)) {
+            assertTrue(detector.accept(value))
+        }
+
+        assertFalse(detector.accept(8))
+        assertTrue(detector.isRampUpOver)
+        assertEquals(3, detector.rampUpSamples)
+        assertArrayEquals(longArrayOf(8), steadyValues(detector))
+    }
+
+    @Test
+    fun valuesAfterRampUpAreNotRampUp() {
+        val detector = RampUpDetector(2, 0.1, 100)
+        detector.accept(100)
+        detector.accept(100)
+
+        assertFalse(detector.accept(1))
+        assertFalse(detector.accept(1000))
+        assertEquals(0, detector.rampUpSamples)
+    }
+
+    @Test
+    fun zeroSpeedIsRampUp() {
+        val detector = RampUpDetector(2, 0.1, 100)
+
+        assertTrue(detector.accept(0))
+        assertTrue(detector.accept(0))
+        assertFalse(detector.isRampUpOver)
+    }
+
+    @Test
+    fun copyKeepsState() {
+        val detector = RampUpDetector(3, 0.1, 100)
+        detector.accept(10)
+        detector.accept(100)
+
+        val copy = detector.copy()
+
+        assertTrue(copy.accept(100))
+        assertFalse(copy.accept(100))
+        assertEquals(1, copy.rampUpSamples)
+        assertFalse(detector.isRampUpOver)
+    }
+
+    @Test
+    fun skippingEqualizerReplaysSteadyWindow() {
+        val equalizer = RampUpSkippingEqualizer(SkipThenAverageEqualizer(0, 3), RampUpDetector(3, 0.1, 100))
+        val accepted = mutableListOf<Long>()
+
+        for (value in longArrayOf(10, 100, 100)) {
+            equalizer.accept(value) { accepted.add(it) }
+        }
+        assertTrue(accepted.isEmpty())
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        equalizer.accept(100) { accepted.add(it) }
+        assertEquals(listOf(100L, 100L, 100L), accepted)
+        assertEquals(100.0, equalizer.getEqualized(), 0.0)
+
+        assertTrue(equalizer.accept(130))
+        assertEquals(110.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun skippingEqualizerCopyIsIndependent() {
+        val equalizer = RampUpSkippingEqualizer(SkipThenAverageEqualizer(0, 2), RampUpDetector(2, 0.1, 100))
+        equalizer.accept(100)
+        equalizer.accept(100)
+
+        val copy = equalizer.copy()
+        equalizer.accept(300)
+
+        assertEquals(100.0, copy.getEqualized(), 0.0)
+        assertEquals(200.0, equalizer.getEqualized(), 0.0)
+    }
+
+    private fun steadyValues(detector: RampUpDetector): LongArray {
+        val values = mutableListOf<Long>()
+        detector.forEachSteadyValue { values.add(it) }
+        return values.toLongArray()
+    }
+}
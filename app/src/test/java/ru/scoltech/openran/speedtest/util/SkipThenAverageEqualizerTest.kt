@@ -0,0 +1,48 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class SkipThenAverageEqualizerTest {
+    @Test
+    fun skipsThenAveragesWindow() {
+        val equalizer = SkipThenAverageEqualizer(2, 3)
+
+        assertFalse(equalizer.accept(1000))
+        assertFalse(equalizer.accept(1000))
+        assertTrue(equalizer.accept(10))
+        assertTrue(equalizer.accept(20))
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        assertTrue(equalizer.accept(30))
+        assertEquals(20.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(40)
+        assertEquals(30.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyIsIndependent() {
+        val equalizer = SkipThenAverageEqualizer(0, 2)
+        equalizer.accept(10)
+        equalizer.accept(20)
+
+        val copy = equalizer.copy()
+        equalizer.accept(100)
+
+        assertEquals(15.0, copy.getEqualized(), 0.0)
+        assertEquals(60.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyKeepsSkippedAmount() {
+        val equalizer = SkipThenAverageEqualizer(2, 1)
+        equalizer.accept(1)
+
+        val copy = equalizer.copy()
+
+        assertFalse(copy.accept(5))
+        assertTrue(copy.accept(7))
+        assertEquals(7.0, copy.getEqualized(), 0.0)
+    }
+}
@@ -0,0 +1,59 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class SlidingMedianEqualizerTest {
+    @Test
+    fun medianIgnoresSpikes() {
+        val equalizer = SlidingMedianEqualizer(1, 3)
+
+        assertFalse(equalizer.accept(0))
+        equalizer.accept(100)
+        equalizer.accept(10_000)
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        equalizer.accept(110)
+        assertEquals(110.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(1)
+        assertEquals(110.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(90)
+        assertEquals(90.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun evenWindowAveragesMiddleValues() {
+        val equalizer = SlidingMedianEqualizer(0, 4)
+        for (value in longArrayOf(40, 10, 30, 20)) {
+            equalizer.accept(value)
+        }
+
+        assertEquals(25.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyIsIndependent() {
+        val equalizer = SlidingMedianEqualizer(0, 1)
+        equalizer.accept(10)
+
+        val copy = equalizer.copy()
+        equalizer.accept(20)
+
+        assertEquals(10.0, copy.getEqualized(), 0.0)
+        assertEquals(20.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyKeepsSkippedAmount() {
+        val equalizer = SlidingMedianEqualizer(2, 1)
+        equalizer.accept(1)
+
+        val copy = equalizer.copy()
+
+        assertFalse(copy.accept(5))
+        assertTrue(copy.accept(7))
+        assertEquals(7.0, copy.getEqualized(), 0.0)
+    }
+}
@@ -0,0 +1,73 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class SortedLongArrayTest {
+    @Test
+    fun insertKeepsAscendingOrder() {
+        val array = SortedLongArray(5)
+        for (value in longArrayOf(5, 1, 4, 1, 3)) {
+            array.insert(value)
+        }
+
+        assertEquals(5, array.size)
+        assertArrayEquals(longArrayOf(1, 1, 3, 4, 5), toArray(array))
+    }
+
+    @Test
+    fun insertIntoFullArrayFails() {
+        val array = SortedLongArray(1)
+        array.insert(1)
+
+        assertThrows(IllegalStateException::class.java) { array.insert(2) }
+    }
+
+    @Test
+    fun removeDeletesSingleOccurrence() {
+        val array = SortedLongArray(4)
+        for (value in longArrayOf(2, 2, 1, 3)) {
+            array.insert(value)
+        }
+
+        assertTrue(array.remove(2))
+        assertFalse(array.remove(4))
+        assertArrayEquals(longArrayOf(1, 2, 3), toArray(array))
+    }
+
+    @Test
+    fun getOutOfSizeFails() {
+        val array = SortedLongArray(2)
+        array.insert(1)
+
+        assertThrows(IndexOutOfBoundsException::class.java) { array[1] }
+        assertThrows(IndexOutOfBoundsException::class.java) { array[-1] }
+    }
+
+    @Test
+    fun slideReplacesOldestValueOfWindow() {
+        val window = LongRingBuffer(3)
+        val array = SortedLongArray(3)
+        for (value in longArrayOf(30, 10, 20, 5, 40)) {
+            array.slide(window, value)
+        }
+
+        assertArrayEquals(longArrayOf(5, 20, 40), toArray(array))
+    }
+
+    @Test
+    fun setCopiesValuesAndClearEmpties() {
+        val array = SortedLongArray(3)
+        array.insert(2)
+        array.insert(1)
+
+        val copy = SortedLongArray(3).set(array)
+        array.clear()
+
+        assertEquals(0, array.size)
+        assertArrayEquals(longArrayOf(1, 2), toArray(copy))
+        assertThrows(IllegalArgumentException::class.java) { SortedLongArray(2).set(copy) }
+    }
+
+    private fun toArray(array: SortedLongArray) = LongArray(array.size) { array[it] }
+}
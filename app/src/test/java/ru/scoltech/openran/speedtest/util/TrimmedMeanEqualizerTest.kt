@@ -0,0 +1,67 @@
+package ru.scoltech.openran.speedtest.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TrimmedMeanEqualizerTest {
+    @Test
+    fun extremeValuesAreTrimmed() {
+        val equalizer = TrimmedMeanEqualizer(0, 5, 1)
+        for (value in longArrayOf(1, 100, 10_000, 200, 300)) {
+            equalizer.accept(value)
+        }
+
+        assertEquals(200.0, equalizer.getEqualized(), 0.0)
+
+        equalizer.accept(0)
+        assertEquals(
+            (100.0 + 200.0 + 300.0) / 3,
+            equalizer.getEqualized(),
+            0.0,
+        )
+    }
+
+    @Test
+    fun valueIsAvailableWhenWindowIsFull() {
+        val equalizer = TrimmedMeanEqualizer(1, 3, 1)
+
+        assertFalse(equalizer.accept(1))
+        equalizer.accept(1)
+        equalizer.accept(2)
+        assertThrows(Equalizer.NoValueException::class.java) { equalizer.getEqualized() }
+
+        equalizer.accept(3)
+        assertEquals(2.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun trimShouldLeaveValues() {
+        assertThrows(IllegalArgumentException::class.java) { TrimmedMeanEqualizer(0, 4, 2) }
+    }
+
+    @Test
+    fun copyIsIndependent() {
+        val equalizer = TrimmedMeanEqualizer(0, 3, 1)
+        for (value in longArrayOf(1, 2, 3)) {
+            equalizer.accept(value)
+        }
+
+        val copy = equalizer.copy()
+        equalizer.accept(10)
+
+        assertEquals(2.0, copy.getEqualized(), 0.0)
+        assertEquals(3.0, equalizer.getEqualized(), 0.0)
+    }
+
+    @Test
+    fun copyKeepsSkippedAmount() {
+        val equalizer = TrimmedMeanEqualizer(2, 1, 0)
+        equalizer.accept(1)
+
+        val copy = equalizer.copy()
+
+        assertFalse(copy.accept(5))
+        assertTrue(copy.accept(7))
+        assertEquals(7.0, copy.getEqualized(), 0.0)
+    }
+}